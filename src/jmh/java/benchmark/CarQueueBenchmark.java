@@ -0,0 +1,56 @@
+package benchmark;
+
+import model.CarQueue;
+import model.TurnDirection;
+import model.WorldDirection;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueue and dequeue of cars with a given number of cars already waiting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CarQueueBenchmark {
+
+    @Param({"0", "16", "1024", "262144"})
+    public int depth;
+
+    private CarQueue queue;
+
+    private int nextId = 0;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = new CarQueue(WorldDirection.NORTH);
+        for (int i = 0; i < depth; i++) {
+            queue.addRightLane(nextId++, (i & 1) == 0 ? TurnDirection.RIGHT : TurnDirection.FORWARD);
+            queue.addLeftLane(nextId++);
+        }
+    }
+
+    @Benchmark
+    public int rightLaneEnqueueDequeue() {
+        queue.addRightLane(nextId++, TurnDirection.FORWARD);
+        return queue.leaveRightLane();
+    }
+
+    @Benchmark
+    public int leftLaneEnqueueDequeue() {
+        queue.addLeftLane(nextId++);
+        return queue.leaveLeftLane();
+    }
+
+    @Benchmark
+    public int greenArrowEnqueueDequeue() {
+        queue.addRightLane(nextId++, TurnDirection.RIGHT);
+        int id = queue.leaveRightLaneGreenArrow();
+        // Car going forward blocks the arrow, keep the depth constant anyway
+        return id == CarQueue.NO_CAR ? queue.leaveRightLane() : id;
+    }
+}
@@ -0,0 +1,69 @@
+package benchmark;
+
+import model.Controller;
+import model.ControllerBank;
+import model.WorldDirection;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One step of many intersections: a Controller object per intersection
+ * and ControllerBank with and without the Vector API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerBankBenchmark {
+
+    @Param({"4096"})
+    public int intersections;
+
+    private Controller[] controllers;
+    private ControllerBank scalarBank;
+    private ControllerBank vectorBank;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        controllers = new Controller[intersections];
+        scalarBank = new ControllerBank(intersections, Controller.DEFAULT_STEPS_PER_CYCLE,
+                Controller.DEFAULT_MINIMUM_STEPS, Controller.DEFAULT_CYCLE, false);
+        vectorBank = new ControllerBank(intersections, Controller.DEFAULT_STEPS_PER_CYCLE,
+                Controller.DEFAULT_MINIMUM_STEPS, Controller.DEFAULT_CYCLE, true);
+
+        // Busy and empty lanes mixed, so some intersections use the third mode
+        Random random = new Random(1);
+        for (int i = 0; i < intersections; i++) {
+            controllers[i] = new Controller();
+            for (WorldDirection direction : WorldDirection.values()) {
+                int right = random.nextInt(3) * 10;
+                int left = random.nextInt(3) * 5;
+                controllers[i].updateQueueLengths(right, left, direction);
+                scalarBank.updateQueueLengths(i, right, left, direction);
+                vectorBank.updateQueueLengths(i, right, left, direction);
+            }
+        }
+    }
+
+    @Benchmark
+    public void controllers(Blackhole blackhole) {
+        for (Controller controller : controllers) {
+            blackhole.consume(controller.step());
+        }
+    }
+
+    @Benchmark
+    public void scalarBank() {
+        scalarBank.step();
+    }
+
+    @Benchmark
+    public void vectorBank() {
+        vectorBank.step();
+    }
+}
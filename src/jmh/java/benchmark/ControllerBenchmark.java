@@ -0,0 +1,54 @@
+package benchmark;
+
+import model.Controller;
+import model.LightsConfiguration;
+import model.WorldDirection;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerBenchmark {
+
+    /**
+     * empty - no cars waiting, busy - cars on every lane,
+     * oneSided - cars only from the north, so the third lights mode is used often
+     */
+    @Param({"empty", "busy", "oneSided"})
+    public String traffic;
+
+    private Controller controller;
+
+    private int length = 0;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        controller = new Controller();
+        switch (traffic) {
+            case "busy" -> {
+                for (WorldDirection direction : WorldDirection.values()) {
+                    controller.updateQueueLengths(20, 10, direction);
+                }
+            }
+            case "oneSided" -> controller.updateQueueLengths(20, 10, WorldDirection.NORTH);
+            default -> {
+            }
+        }
+    }
+
+    @Benchmark
+    public LightsConfiguration step() {
+        return controller.step();
+    }
+
+    @Benchmark
+    public void updateQueueLengths() {
+        length = (length + 1) & 31;
+        controller.updateQueueLengths(length, 31 - length, WorldDirection.values()[length & 3]);
+    }
+}
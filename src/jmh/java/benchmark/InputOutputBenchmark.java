@@ -0,0 +1,94 @@
+package benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import simulation.SimulationRunner;
+import util.Command;
+import util.SimulationInstructionsLoader;
+import util.SimulationOutputSaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of reading instructions and saving output. Besides operations per second,
+ * "megabytes" counter shows how many MB of JSON were read or written per second
+ * (it's counted like operations, so JMH prints its unit as ops/s).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InputOutputBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int commands;
+
+    private Path directory;
+    private Path input;
+    private Path output;
+    private List<List<Integer>> stepStatuses;
+
+    private double inputMegabytes;
+    private double outputMegabytes;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Megabytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark");
+        input = directory.resolve("input.json");
+        output = directory.resolve("output.json");
+
+        List<Command> trace = Traces.randomTrace(commands);
+        new ObjectMapper().writeValue(input.toFile(), Map.of("commands", trace.stream().map(command ->
+                command.type == Command.CommandType.step
+                        ? Map.of("type", "step")
+                        : Map.of("type", "addVehicle", "vehicleId", "vehicle" + command.vehicleId,
+                        "startRoad", command.startRoad.name().toLowerCase(),
+                        "endRoad", command.endRoad.name().toLowerCase())).toList()));
+        inputMegabytes = Files.size(input) / 1e6;
+
+        SimulationRunner runner = new SimulationRunner(trace, false);
+        runner.run();
+        stepStatuses = runner.getStepStatuses();
+        new SimulationOutputSaver(output.toString()).saveSimulationOutput(stepStatuses);
+        outputMegabytes = Files.size(output) / 1e6;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public List<Command> loadInstructions(Megabytes counter) {
+        counter.megabytes += inputMegabytes;
+        return SimulationInstructionsLoader.loadInstructions(input.toString());
+    }
+
+    @Benchmark
+    public void saveSimulationOutput(Megabytes counter) {
+        counter.megabytes += outputMegabytes;
+        new SimulationOutputSaver(output.toString()).saveSimulationOutput(stepStatuses);
+    }
+}
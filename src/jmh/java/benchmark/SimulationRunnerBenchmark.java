@@ -0,0 +1,50 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import simulation.SimulationRunner;
+import util.Command;
+import util.StepStatusSink;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole simulation on synthetic traces of increasing size, output is discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulationRunnerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int commands;
+
+    private List<Command> trace;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        trace = Traces.randomTrace(commands);
+    }
+
+    @Benchmark
+    public void run(Blackhole blackhole) {
+        new SimulationRunner(trace, false).run(new StepStatusSink() {
+            @Override
+            public void startStep() {
+            }
+
+            @Override
+            public void vehicleLeft(int vehicleId) {
+                blackhole.consume(vehicleId);
+            }
+
+            @Override
+            public void endStep() {
+            }
+        });
+    }
+}
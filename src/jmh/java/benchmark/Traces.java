@@ -0,0 +1,46 @@
+package benchmark;
+
+import model.WorldDirection;
+import util.Command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic traces for the benchmarks.
+ */
+final class Traces {
+
+    private Traces() {
+    }
+
+    /**
+     * Random trace with a fixed seed, where on average every other command adds a car,
+     * so queues stay short but never empty for long.
+     * @param size number of commands
+     * @return list of commands
+     */
+    static List<Command> randomTrace(int size) {
+        Random random = new Random(size);
+        WorldDirection[] directions = WorldDirection.values();
+        List<Command> commands = new ArrayList<>(size);
+        int vehicleId = 0;
+
+        for (int i = 0; i < size; i++) {
+            Command command = new Command();
+            if (random.nextInt(100) < 45) {
+                command.type = Command.CommandType.addVehicle;
+                command.vehicleId = ++vehicleId;
+                command.startRoad = directions[random.nextInt(4)];
+                do {
+                    command.endRoad = directions[random.nextInt(4)];
+                } while (command.endRoad == command.startRoad);
+            } else {
+                command.type = Command.CommandType.step;
+            }
+            commands.add(command);
+        }
+        return commands;
+    }
+}
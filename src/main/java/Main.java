@@ -1,36 +1,477 @@
+import model.Controller;
+import simulation.BatchRunner;
+import simulation.ParameterSweep;
+import simulation.Pipeline;
+import simulation.RoadNetwork;
+import simulation.SimulationDaemon;
+import simulation.SimulationMetrics;
 import simulation.SimulationRunner;
+import simulation.Snapshot;
+import simulation.SnapshotWriter;
+import simulation.WaitTimes;
+import util.BinaryTrace;
 import util.Command;
+import util.CommandLineWriter;
+import util.CommandSource;
+import util.NdjsonCommandReader;
+import util.ParallelInstructionsLoader;
 import util.SimulationOutputSaver;
+import util.SimulationInstructionsWriter;
+import util.StepStatusSink;
+import util.StepStatusWriter;
+import util.TrafficGenerator;
+import util.VehicleIds;
 
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
-import static util.SimulationInstructionsLoader.loadInstructions;
+import static util.SimulationInstructionsLoader.openInstructions;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            runGenerated(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            runSweep(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--network")) {
+            runNetwork(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            runDaemon(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--convert")) {
+            // Instructions from JSON to binary trace or the other way round
+            if (args.length != 3) {
+                System.out.println("Wrong number of arguments");
+                System.exit(1);
+            }
+            long commands = BinaryTrace.convert(args[1], args[2]);
+            System.out.println("Converted " + commands + " commands");
+            return;
+        }
+
         // Check correct number of arguments
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Wrong number of arguments");
             System.exit(1);
         }
-        // Read arguments from input file
-        List<Command> commandList = loadInstructions(args[0]);
+        Options options = Options.parse(args, 2);
+
+        // When resuming, output written before the snapshot is kept (in its format)
+        // and the simulation starts from the state in the snapshot
+        Snapshot snapshot = options.resumePath == null ? null : Snapshot.read(Path.of(options.resumePath));
+        // Vehicle IDs of this run, shared by the input, the output and the snapshots
+        VehicleIds vehicleIds = new VehicleIds();
+        SimulationOutputSaver saver = new SimulationOutputSaver(args[1], vehicleIds);
+
+        if (options.threads > 1 && !BinaryTrace.isBinary(args[0])) {
+            // Whole input is parsed at once by many threads, then simulated
+            List<Command> commands = ParallelInstructionsLoader.loadInstructions(args[0], options.threads, vehicleIds);
+            try (StepStatusWriter output = openOutput(saver, options, snapshot)) {
+                SimulationRunner runner = new SimulationRunner(commands, options.draw);
+                runner.setVehicleIds(vehicleIds);
+                runSimulation(runner, output, snapshot, options);
+                output.finish();
+            }
+            return;
+        }
 
-        // Initialize simulation runner
-        // I've added drawing intersection to the console but there is some problem with encoding
-        // on my machine though it should be working
-        SimulationRunner simulationRunner = new SimulationRunner(commandList, false);
+        // Open input file (JSON or binary trace), commands are read one by one while the simulation runs
+        // and results of every step are written to the output file right away
+        // (it's created if necessary)
+        try (CommandSource commands = openInstructions(args[0], vehicleIds);
+             StepStatusWriter output = openOutput(saver, options, snapshot)) {
+            // Initialize simulation runner
+            // I've added drawing intersection to the console but there is some problem with encoding
+            // on my machine though it should be working
+            if (options.pipeline) {
+                // Reading, simulation and writing on separate threads
+                try (Pipeline pipeline = new Pipeline()) {
+                    SimulationRunner runner = new SimulationRunner(pipeline.input(commands), options.draw);
+                    runner.setVehicleIds(vehicleIds);
+                    runSimulation(runner, pipeline.output(output), snapshot, options);
+                    pipeline.finish();
+                }
+                output.finish();
+                return;
+            }
+            SimulationRunner simulationRunner = new SimulationRunner(commands, options.draw);
+            simulationRunner.setVehicleIds(vehicleIds);
 
-        // Run simulation (it implements Runnable interface so that it's easy
-        // to possibly later modify it to run multiple simulation concurrently)
-        simulationRunner.run();
+            // Run simulation (it implements Runnable interface so that it's easy
+            // to possibly later modify it to run multiple simulation concurrently)
+            runSimulation(simulationRunner, output, snapshot, options);
+            output.finish();
+        }
+    }
+
+    /**
+     * Options of a simulation of one input file.
+     * Usage: input output [--compact] [--threads n] [--snapshot snapshotFile everySteps]
+     * [--resume snapshotFile] [--jmx name] [--wait-times] [--draw] [--draw-every n] [--draw-changes]
+     * [--pipeline] [--append] [--off-heap]
+     */
+    private static class Options {
+        boolean pretty = true;
+        int threads = 1;
+        String snapshotPath;
+        long snapshotInterval;
+        String resumePath;
+        String metricsName;
+        boolean waitTimes;
+        boolean draw;
+        int drawEvery = 1;
+        boolean drawChanges;
+        boolean pipeline;
+        boolean append;
+        boolean offHeap;
 
-        // Collect output from simulation
-        List<List<Integer>> output = simulationRunner.getStepStatuses();
+        static Options parse(String[] args, int from) {
+            Options options = new Options();
+            for (int i = from; i < args.length; i++) {
+                if (args[i].equals("--compact")) {
+                    options.pretty = false;
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    options.threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--snapshot") && i + 2 < args.length) {
+                    options.snapshotPath = args[++i];
+                    options.snapshotInterval = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--resume") && i + 1 < args.length) {
+                    options.resumePath = args[++i];
+                } else if (args[i].equals("--jmx") && i + 1 < args.length) {
+                    options.metricsName = args[++i];
+                } else if (args[i].equals("--wait-times")) {
+                    options.waitTimes = true;
+                } else if (args[i].equals("--draw")) {
+                    options.draw = true;
+                } else if (args[i].equals("--draw-every") && i + 1 < args.length) {
+                    options.draw = true;
+                    options.drawEvery = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--draw-changes")) {
+                    options.draw = true;
+                    options.drawChanges = true;
+                } else if (args[i].equals("--pipeline")) {
+                    options.pipeline = true;
+                } else if (args[i].equals("--append")) {
+                    options.append = true;
+                } else if (args[i].equals("--off-heap")) {
+                    options.offHeap = true;
+                } else {
+                    System.out.println("Wrong number of arguments");
+                    System.exit(1);
+                }
+            }
+            if (options.pipeline && (options.snapshotPath != null || options.threads > 1)) {
+                // Snapshots need output written on the simulation thread
+                System.out.println("--pipeline can't be used with --snapshot or --threads");
+                System.exit(1);
+            }
+            if (options.append && (!NdjsonCommandReader.isNdjson(args[1]) || options.resumePath != null)) {
+                // Resumed output is already continued from the snapshot
+                System.out.println("--append needs .ndjson output and can't be used with --resume");
+                System.exit(1);
+            }
+            return options;
+        }
+    }
 
-        // Save output to the specified file (create new if necessary)
-        SimulationOutputSaver saver = new SimulationOutputSaver(args[1]);
-        saver.saveSimulationOutput(output);
+    private static StepStatusWriter openOutput(SimulationOutputSaver saver, Options options, Snapshot snapshot) {
+        if (options.append) {
+            return saver.appendStepStatusWriter();
+        }
+        if (snapshot == null) {
+            return saver.openStepStatusWriter(options.pretty);
+        }
+        return saver.resumeStepStatusWriter(snapshot.outputLength(), snapshot.prettyOutput(),
+                snapshot.outputHasSteps());
+    }
 
+    /**
+     * Runs the simulation, optionally from a snapshot, taking new snapshots, with metrics in JMX,
+     * drawing the intersection and printing wait times of cars at the end.
+     */
+    private static void runSimulation(SimulationRunner runner, StepStatusSink output, Snapshot snapshot,
+                                      Options options) {
+        if (options.offHeap) {
+            runner.useOffHeapLanes();
+        }
+        if (snapshot != null) {
+            runner.restore(snapshot);
+        }
+        if (options.metricsName != null) {
+            SimulationMetrics metrics = new SimulationMetrics();
+            metrics.register(options.metricsName);
+            runner.setMetrics(metrics);
+        }
+        if (options.draw) {
+            runner.setCommandLineWriter(new CommandLineWriter(
+                    new OutputStreamWriter(System.out, System.out.charset()), options.drawEvery, options.drawChanges));
+        }
+        WaitTimes waitTimes = options.waitTimes ? new WaitTimes() : null;
+        runner.setWaitTimes(waitTimes);
+
+        if (options.snapshotPath == null) {
+            runner.run(output);
+        } else {
+            try (SnapshotWriter snapshots = new SnapshotWriter(Path.of(options.snapshotPath))) {
+                runner.enableSnapshots(snapshots, options.snapshotInterval);
+                runner.run(output);
+            }
+        }
+
+        if (waitTimes != null) {
+            waitTimes.printReport(System.out);
+        }
+    }
+
+    /**
+     * Simulates one input file with every combination of controller parameters and prints
+     * throughput and wait times for each of them. Input is read only once.
+     * Usage: --sweep input [--cycle-steps 4,8,16] [--minimum-steps 1,2] [--all-orders] [--threads n]
+     */
+    private static void runSweep(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Wrong number of arguments");
+            System.exit(1);
+        }
+        int[] stepsPerCycle = {4, 8, 12, 16, 24, 32};
+        int[] minimumSteps = {1, 2, 3};
+        boolean allOrders = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--cycle-steps") && i + 1 < args.length) {
+                stepsPerCycle = parseList(args[++i]);
+            } else if (args[i].equals("--minimum-steps") && i + 1 < args.length) {
+                minimumSteps = parseList(args[++i]);
+            } else if (args[i].equals("--all-orders")) {
+                allOrders = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        ByteBuffer trace;
+        try (CommandSource commands = openInstructions(args[1])) {
+            trace = BinaryTrace.encode(commands, commands.vehicleIds());
+        }
+        List<ParameterSweep.Parameters> grid;
+        try {
+            grid = ParameterSweep.grid(stepsPerCycle, minimumSteps,
+                    allOrders ? ParameterSweep.cycleOrders() : List.of(Controller.DEFAULT_CYCLE));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Wrong parameters: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<ParameterSweep.Result> results = new ParameterSweep(trace, threads).run(grid);
+        ParameterSweep.printReport(results, System.out);
+        System.out.printf("Combinations: %d, wall time: %.3f s%n", results.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Simulates a grid of connected intersections with random traffic coming from outside
+     * and prints how many cars got through. Cars are added in rounds of 100 steps, on every
+     * step each road into the network gets a new car with the given probability.
+     * Usage: --network rows columns steps [--rate probability] [--seed seed] [--threads n]
+     */
+    private static void runNetwork(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Wrong number of arguments");
+            System.exit(1);
+        }
+        int rows = Integer.parseInt(args[1]);
+        int columns = Integer.parseInt(args[2]);
+        long steps = Long.parseLong(args[3]);
+        double rate = 0.1;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].equals("--rate") && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        RoadNetwork network = new RoadNetwork(rows, columns);
+        Random random = new Random(seed);
+        int entries = 2 * (rows + columns);
+        double arrivalRate = rate;
+        long start = System.nanoTime();
+        // One run for all the steps, so worker threads are started once, cars arrive before every step
+        network.run(steps, threads, () -> {
+            for (int i = 0; i < entries; i++) {
+                if (random.nextDouble() < arrivalRate) {
+                    network.addRandomVehicle(random);
+                }
+            }
+        });
+        System.out.printf("Steps: %d, cars: %d, left the network: %d, waiting: %d, wall time: %.3f s%n",
+                network.getStep(), network.getAddedVehicles(), network.getExitedVehicles(), network.getQueuedVehicles(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private static int[] parseList(String values) {
+        return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Runs the simulation on commands arriving line by line, from stdin or from a Unix domain socket,
+     * writing departures of every step as soon as it's done. Warnings go to stderr,
+     * so they don't mix with the output.
+     * Usage: --daemon [--socket path] [--budget microseconds]
+     */
+    private static void runDaemon(String[] args) {
+        String socketPath = null;
+        long budgetMicros = 1000;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                socketPath = args[++i];
+            } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                budgetMicros = Long.parseLong(args[++i]);
+            } else {
+                System.out.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        try (SimulationDaemon daemon = new SimulationDaemon(budgetMicros * 1000, System.err)) {
+            if (socketPath == null) {
+                daemon.serve(System.in, System.out);
+            } else {
+                // Socket is removed when the daemon is stopped with Ctrl+C
+                Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+                daemon.listen(Path.of(socketPath));
+            }
+        }
+    }
+
+    /**
+     * Runs simulation on randomly generated traffic, without any input file,
+     * or only saves the generated traffic as an instructions file.
+     * Usage: --generate seed steps rate outputFile [--rush-hour stepsPerHour] [--dump] [--compact]
+     * With --dump the generated commands are saved to the output file instead of being simulated
+     * (as binary trace if its name ends with .bin).
+     */
+    private static void runGenerated(String[] args) {
+        if (args.length < 5) {
+            System.out.println("Wrong number of arguments");
+            System.exit(1);
+        }
+        long seed = Long.parseLong(args[1]);
+        long steps = Long.parseLong(args[2]);
+        double rate = Double.parseDouble(args[3]);
+        String outputPath = args[4];
+        long stepsPerHour = 0;
+        boolean dump = false;
+        boolean pretty = true;
+
+        for (int i = 5; i < args.length; i++) {
+            switch (args[i]) {
+                case "--compact" -> pretty = false;
+                case "--rush-hour" -> {
+                    if (i + 1 == args.length) {
+                        System.out.println("Missing value of --rush-hour");
+                        System.exit(1);
+                    }
+                    stepsPerHour = Long.parseLong(args[++i]);
+                }
+                case "--dump" -> dump = true;
+                default -> {
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        TrafficGenerator traffic = stepsPerHour > 0
+                ? new TrafficGenerator(seed, steps, new double[]{rate, rate, rate, rate},
+                        TrafficGenerator.uniformTurns(), TrafficGenerator.rushHourProfile(), stepsPerHour)
+                : TrafficGenerator.uniform(seed, steps, rate);
+
+        if (dump && BinaryTrace.isBinary(outputPath)) {
+            BinaryTrace.save(traffic, outputPath);
+            return;
+        }
+        if (dump) {
+            SimulationInstructionsWriter.saveInstructions(traffic, outputPath);
+            return;
+        }
+        try (StepStatusWriter output = new SimulationOutputSaver(outputPath).openStepStatusWriter(pretty)) {
+            new SimulationRunner(traffic, false).run(output);
+            output.finish();
+        }
+    }
+
+    /**
+     * Runs many simulations at once.
+     * Usage: --batch (inputDirectory outputDirectory | manifestFile) [--threads n] [--compact]
+     */
+    private static void runBatch(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean pretty = true;
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--compact" -> pretty = false;
+                case "--threads" -> {
+                    if (i + 1 == args.length) {
+                        System.out.println("Missing number of threads");
+                        System.exit(1);
+                    }
+                    threads = Integer.parseInt(args[++i]);
+                }
+                default -> paths.add(args[i]);
+            }
+        }
+
+        List<BatchRunner.Job> jobs;
+        if (paths.size() == 2 && Files.isDirectory(Path.of(paths.get(0)))) {
+            jobs = BatchRunner.jobsFromDirectory(Path.of(paths.get(0)), Path.of(paths.get(1)));
+        } else if (paths.size() == 1 && Files.isRegularFile(Path.of(paths.get(0)))) {
+            jobs = BatchRunner.jobsFromManifest(Path.of(paths.get(0)));
+        } else {
+            System.out.println("Wrong arguments, expected input and output directory or manifest file");
+            System.exit(1);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<BatchRunner.JobResult> results = new BatchRunner(threads, pretty).run(jobs);
+        BatchRunner.printReport(results, System.nanoTime() - start, System.out);
+
+        if (results.stream().anyMatch(result -> !result.succeeded())) {
+            System.exit(1);
+        }
     }
 }
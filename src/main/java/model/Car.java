@@ -9,13 +9,7 @@ public class Car {
         this.id = id;
 
         // Determine which side is the car turning
-        if(startRoad.opposite().equals(endRoad)) {
-            this.turn = TurnDirection.FORWARD;
-        } else if (startRoad.opposite().rightTurn().equals(endRoad)) {
-            this.turn = TurnDirection.RIGHT;
-        } else {
-            this.turn = TurnDirection.LEFT;
-        }
+        this.turn = TurnDirection.between(startRoad, endRoad);
     }
 
     public int getId() {
@@ -1,18 +1,26 @@
 package model;
 
-import java.util.LinkedList;
-import java.util.Optional;
-import java.util.Queue;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Represents queue of cars waiting on one road of the intersection.
- *
+ * Cars are stored as primitives in {@link LaneBuffer}s (or outside of the heap,
+ * see {@link #useOffHeapLanes()}), methods
+ * for leaving the intersection return ID of the car or
+ * {@link #NO_CAR} if no car has left.
  */
 public class CarQueue {
+    /**
+     * Returned instead of car's ID when no car has left the lane.
+     */
+    public static final int NO_CAR = Integer.MIN_VALUE;
+
     // For cars going right and forward
-    private final Queue<Car> rightLane =  new LinkedList<>();
+    private Lane rightLane = new LaneBuffer();
     // For cars going left
-    private final Queue<Car> leftLane =  new LinkedList<>();
+    private Lane leftLane = new LaneBuffer();
 
     // Direction from which the road is coming
     private final WorldDirection direction;
@@ -33,12 +41,44 @@ public class CarQueue {
         return direction;
     }
 
+    /**
+     * Makes both lanes keep cars outside of the Java heap, in chunks of direct memory,
+     * so that very long queues don't make garbage collection slower. Has to be called
+     * before any car is added.
+     */
+    public void useOffHeapLanes() {
+        if (!rightLane.isEmpty() || !leftLane.isEmpty()) {
+            throw new IllegalStateException("Lanes can only be changed when they are empty");
+        }
+        rightLane = new OffHeapLaneBuffer();
+        leftLane = new OffHeapLaneBuffer();
+    }
+
     /**
      * Adds car to the right lane queue.
      * @param car car to be added
      */
     public void addRightLane(Car car) {
-        rightLane.add(car);
+        addRightLane(car.getId(), car.getTurn());
+    }
+
+    /**
+     * Adds car to the right lane queue.
+     * @param vehicleId ID of the car
+     * @param turn where the car is going (forward or right)
+     */
+    public void addRightLane(int vehicleId, TurnDirection turn) {
+        rightLane.add(vehicleId, turn);
+    }
+
+    /**
+     * Adds car to the right lane queue, remembering when it arrived.
+     * @param vehicleId ID of the car
+     * @param turn where the car is going (forward or right)
+     * @param arrivalStep step on which the car arrived
+     */
+    public void addRightLane(int vehicleId, TurnDirection turn, int arrivalStep) {
+        rightLane.add(vehicleId, turn, arrivalStep);
     }
 
     /**
@@ -46,40 +86,148 @@ public class CarQueue {
      * @param car car to be added
      */
     public void addLeftLane(Car car) {
-        leftLane.add(car);
+        addLeftLane(car.getId());
+    }
+
+    /**
+     * Adds car to the left lane queue.
+     * @param vehicleId ID of the car
+     */
+    public void addLeftLane(int vehicleId) {
+        leftLane.add(vehicleId, TurnDirection.LEFT);
+    }
+
+    /**
+     * Adds car to the left lane queue, remembering when it arrived.
+     * @param vehicleId ID of the car
+     * @param arrivalStep step on which the car arrived
+     */
+    public void addLeftLane(int vehicleId, int arrivalStep) {
+        leftLane.add(vehicleId, TurnDirection.LEFT, arrivalStep);
     }
 
     /**
      * Handles cars leaving intersection with green light
      * for turning left (only left lane).
-     * @return Optional of car leaving left lane or empty
+     * @return ID of car leaving left lane or NO_CAR
      * if no car was waiting.
      */
-    public Optional<Car> leaveLeftLane() {
-        return Optional.ofNullable(leftLane.poll());
+    public int leaveLeftLane() {
+        return leftLane.isEmpty() ? NO_CAR : leftLane.poll();
     }
 
     /**
      * Handles cars leaving intersection with green light
      * for right lane.
-     * @return Optional of car leaving right lane or empty
+     * @return ID of car leaving right lane or NO_CAR
      * if no car was waiting.
      */
-    public Optional<Car> leaveRightLane() {
-        return Optional.ofNullable(rightLane.poll());
+    public int leaveRightLane() {
+        return rightLane.isEmpty() ? NO_CAR : rightLane.poll();
     }
 
     /**
      * Handles car leaving on green arrow to the right.
      * Checks if the first car in the right lane queue is
      * headed right If so, it leaves, else nothing happens.
-     * @return Optional of car going to the right or empty
+     * @return ID of car going to the right or NO_CAR
      */
-    public Optional<Car> leaveRightLaneGreenArrow() {
-        if (!rightLane.isEmpty() && rightLane.peek().getTurn().equals(TurnDirection.RIGHT)) {
-            return Optional.ofNullable(rightLane.poll());
+    public int leaveRightLaneGreenArrow() {
+        if (!rightLane.isEmpty() && rightLane.turnAt(0) == TurnDirection.RIGHT) {
+            return rightLane.poll();
         } else {
-            return Optional.empty();
+            return NO_CAR;
         }
     }
+
+    /*
+     * Methods below let many steps be handled at once: cars which will leave
+     * are read by their positions and then removed together.
+     */
+
+    /**
+     * @param i position in the left lane, counting from the first car
+     * @return ID of the car
+     */
+    public int leftLaneIdAt(int i) {
+        return leftLane.idAt(i);
+    }
+
+    /**
+     * @param i position in the right lane, counting from the first car
+     * @return ID of the car
+     */
+    public int rightLaneIdAt(int i) {
+        return rightLane.idAt(i);
+    }
+
+    /**
+     * @param i position in the left lane, counting from the first car
+     * @return step on which the car arrived
+     */
+    public int leftLaneArrivalAt(int i) {
+        return leftLane.arrivalAt(i);
+    }
+
+    /**
+     * @param i position in the right lane, counting from the first car
+     * @return step on which the car arrived
+     */
+    public int rightLaneArrivalAt(int i) {
+        return rightLane.arrivalAt(i);
+    }
+
+    /**
+     * @param i position in the right lane, counting from the first car
+     * @return where the car is going
+     */
+    public TurnDirection rightLaneTurnAt(int i) {
+        return rightLane.turnAt(i);
+    }
+
+    /**
+     * Number of cars which would leave on green arrow in consecutive steps,
+     * i.e. cars going right at the front of the right lane.
+     * @param max maximum number of cars to check
+     * @return number of such cars, at most max
+     */
+    public int rightTurnsAhead(int max) {
+        return rightLane.countFromHead(TurnDirection.RIGHT, max);
+    }
+
+    /**
+     * Removes first cars from the left lane.
+     * @param count number of cars, at most length of the lane
+     */
+    public void dropLeftLane(int count) {
+        leftLane.drop(count);
+    }
+
+    /**
+     * Removes first cars from the right lane.
+     * @param count number of cars, at most length of the lane
+     */
+    public void dropRightLane(int count) {
+        rightLane.drop(count);
+    }
+
+    /**
+     * Saves cars from both lanes, in order, for a snapshot of the simulation.
+     * @param out where the lanes are written
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        rightLane.writeTo(out);
+        leftLane.writeTo(out);
+    }
+
+    /**
+     * Replaces cars on both lanes with the ones saved by {@link #writeTo(DataOutput)}.
+     * @param in where the lanes are read from
+     * @throws IOException if reading fails
+     */
+    public void readFrom(DataInput in) throws IOException {
+        rightLane.readFrom(in);
+        leftLane.readFrom(in);
+    }
 }
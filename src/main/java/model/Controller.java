@@ -1,12 +1,24 @@
 package model;
 
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 
-public class Controller {
+/**
+ * Default lights policy. Configurations from the cycle get time proportional
+ * to the number of cars waiting for them and third mode is used when one of
+ * the roads with green light is empty.
+ */
+public class Controller implements ControllerStrategy {
+
+    // 2 lanes on every road
+    static final int LANES = 2 * WorldDirection.values().length;
+
+    // EMPTY_LANE_FALLBACK[configuration index][occupied lanes mask] - result of avoidEmptyGreenLight()
+    private static final Optional<LightsConfiguration>[][] EMPTY_LANE_FALLBACK = buildEmptyLaneFallback();
 
     // Length of the queue for each lane
     // This is the only information controller
@@ -23,19 +35,11 @@ public class Controller {
     // How many steps is one cycle of light modes
     // Not exactly as they can be increased with
     // minimum step logic or due to rounding
-    private final int STEPS_PER_CYCLE = 8;
+    public static final int DEFAULT_STEPS_PER_CYCLE = 8;
 
     // Adding minimum steps is a real life modification - configurations which last only
     // for one car to pass would be inefficient
-    private final int MINIMUM_STEPS = 1;
-
-
-    private int currentStep = 0;
-
-    // How many steps to do before changing configuration
-    private int currentConfigurationSteps;
-
-
+    public static final int DEFAULT_MINIMUM_STEPS = 1;
 
     // Under normal circumstances only twoRightLanes and twoLeftLanes modes are used.
     // However, if there are no cars on the opposite direction, there is no point
@@ -45,23 +49,78 @@ public class Controller {
     // 2 right lanes, west and east
     // 2 left lanes, north and south
     // 2 left lanes, west and east
-    private final List<LightsConfiguration> cycle = List.of(
-            new LightsConfiguration(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.NORTH),
-            new LightsConfiguration(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.WEST),
-            new LightsConfiguration(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.NORTH),
-            new LightsConfiguration(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.WEST)
+    public static final List<LightsConfiguration> DEFAULT_CYCLE = List.of(
+            LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.NORTH),
+            LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.WEST),
+            LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.NORTH),
+            LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.WEST)
             );
 
-    private final Map<LightsConfiguration, Integer> durationInSteps = new HashMap<>();
+    private final int stepsPerCycle;
+    private final int minimumSteps;
+    private final List<LightsConfiguration> cycle;
+
+    private int currentStep = 0;
+
+    // How many steps to do before changing configuration
+    private int currentConfigurationSteps;
+
+    // Duration of every configuration from the cycle, indexed like the cycle
+    private final int[] durationInSteps;
 
     // Current lights configuration
-    private LightsConfiguration currentConfiguration = cycle.getFirst();
+    private LightsConfiguration currentConfiguration;
     private int currentConfigurationIndex = 0;
 
+    // Statistics, only read for monitoring
+    private long phaseSwitches = 0;
+    private long emptyLaneFallbacks = 0;
+
     public Controller() {
+        this(DEFAULT_STEPS_PER_CYCLE, DEFAULT_MINIMUM_STEPS, DEFAULT_CYCLE);
+    }
+
+    /**
+     * Checks parameters like {@link #Controller(int, int, List)} does, without creating anything,
+     * e.g. before many controllers with them are created.
+     * @param stepsPerCycle how many steps is one cycle
+     * @param minimumSteps least number of steps of a configuration in the cycle
+     * @param cycle order of configurations
+     * @throws IllegalArgumentException if a controller can't have these parameters
+     */
+    public static void validate(int stepsPerCycle, int minimumSteps, List<LightsConfiguration> cycle) {
+        if (stepsPerCycle < 1 || minimumSteps < 1) {
+            throw new IllegalArgumentException("Steps per cycle and minimum steps have to be positive");
+        }
+        // Table of third mode fallbacks is built for north and west only
+        if (cycle.isEmpty() || cycle.stream().anyMatch(configuration ->
+                configuration.getMode() == LightsConfiguration.LightsMode.leftAndRightLane
+                        || configuration.getWhereGreen() == WorldDirection.SOUTH
+                        || configuration.getWhereGreen() == WorldDirection.EAST)) {
+            throw new IllegalArgumentException("Cycle can only have configurations with two right or two left lanes"
+                    + " from the north or the west");
+        }
+    }
+
+    /**
+     * Controller with other parameters than the default ones, e.g. for tuning them.
+     * @param stepsPerCycle how many steps is one cycle, split between configurations
+     *                      proportionally to the number of cars waiting for them
+     * @param minimumSteps least number of steps of a configuration in the cycle
+     * @param cycle order of configurations, each in twoRightLanes or twoLeftLanes mode,
+     *              with green light from the north or the west (and the opposite road)
+     */
+    public Controller(int stepsPerCycle, int minimumSteps, List<LightsConfiguration> cycle) {
+        validate(stepsPerCycle, minimumSteps, cycle);
+        this.stepsPerCycle = stepsPerCycle;
+        this.minimumSteps = minimumSteps;
+        this.cycle = List.copyOf(cycle);
+        durationInSteps = new int[cycle.size()];
+        currentConfiguration = this.cycle.getFirst();
+
         // need some initial proportions
         recalculateProportionsInSteps();
-        currentConfigurationSteps = durationInSteps.get(currentConfiguration);
+        currentConfigurationSteps = durationInSteps[currentConfigurationIndex];
     }
 
     /**
@@ -70,10 +129,12 @@ public class Controller {
      * class, which would handle reading real life sensors. Here I don't
      * have such sensors, so this method is called by SimulationRunner
      * whenever there is a change in given queue.
+     * Only lengths are stored, the rest is computed on the next step.
      * @param right length of the queue on the right lane
      * @param left same on the left lane
      * @param direction specifies the road which lengths it's updating
      */
+    @Override
     public void updateQueueLengths(int right, int left, WorldDirection direction) {
         switch (direction) {
             case NORTH -> {lengthNorthRight = right;lengthNorthLeft = left;}
@@ -88,8 +149,10 @@ public class Controller {
      * Register passed time and optionally switch
      * current lights configuration or recalculate
      * tim proportions between cycles.
+     * Doesn't allocate anything, configurations are shared instances.
      * @return lights configuration
      */
+    @Override
     public LightsConfiguration step(){
         // Configuration finished, switch to a new one
         if(currentStep == currentConfigurationSteps && currentStep != 0){
@@ -97,12 +160,12 @@ public class Controller {
 
             // Recalculate proportions on the first configuration of the cycle,
             // before the first step
-            if(currentConfiguration.equals(cycle.getFirst())){
+            if(currentConfigurationIndex == 0){
                 // Calculate proportions between configurations
                 recalculateProportionsInSteps();
             }
 
-            currentConfigurationSteps = durationInSteps.get(currentConfiguration);
+            currentConfigurationSteps = durationInSteps[currentConfigurationIndex];
             currentStep = 0;
 
         } else{
@@ -112,62 +175,236 @@ public class Controller {
         // If there are no cars on one of the roads with green lights from current cycle
         // this will switch lights to the third mode for the remaining steps of this configuration
         if(currentConfiguration.getMode() != LightsConfiguration.LightsMode.leftAndRightLane) {
-            avoidEmptyGreenLight().ifPresent(config -> currentConfiguration = config);
+            Optional<LightsConfiguration> thirdMode = avoidEmptyGreenLight();
+            if(thirdMode.isPresent()){
+                currentConfiguration = thirdMode.get();
+                emptyLaneFallbacks++;
+            }
         }
 
         return currentConfiguration;
     }
 
-    // I'm not proud of this monstrosity, but it would require to rethink
-    // all controller's data and there is no time for such refactoring
+    /**
+     * Configuration doesn't change until the switch, unless third mode
+     * is turned on because of an empty lane.
+     * @return number of steps before the next switch, 0 if third mode would be turned on
+     */
+    @Override
+    public int stableSteps(){
+        if(currentConfiguration.getMode() != LightsConfiguration.LightsMode.leftAndRightLane
+                && avoidEmptyGreenLight().isPresent()){
+            return 0;
+        }
+        return currentConfigurationSteps - currentStep;
+    }
+
+    @Override
+    public void skipStableSteps(int steps){
+        currentStep += steps;
+    }
+
+    /**
+     * Skips steps when all queues are empty. Without cars the only thing that changes
+     * is the position in the cycle and after recalculation on the first configuration
+     * of the cycle all durations are the same, so whole cycles can be skipped at once.
+     * At most one cycle is walked configuration by configuration.
+     * Lengths of the queues aren't always updated right after cars leave, so the
+     * controller may still see cars which are gone. Then nothing is skipped,
+     * normal steps will update the lengths.
+     * @param steps number of steps
+     * @return number of skipped steps, all of them or 0
+     */
+    @Override
+    public long skipIdleSteps(long steps){
+        if(sumQueueLengths() != 0){
+            return 0;
+        }
+
+        long skipped = steps;
+        while(steps > 0){
+            // Steps that only increase currentStep, the next one switches configuration
+            long untilSwitch = currentConfigurationSteps - currentStep;
+            if(steps <= untilSwitch){
+                currentStep += (int) steps;
+                return skipped;
+            }
+            steps -= untilSwitch;
+            currentStep = currentConfigurationSteps;
+
+            // Switching step
+            steps--;
+            switchConfiguration();
+            currentStep = 0;
+            if(currentConfigurationIndex == 0){
+                recalculateProportionsInSteps();
+
+                // Durations won't change anymore, the rest of the steps
+                // is whole cycles and what's left after them.
+                // Every configuration lasts its duration plus the switching step
+                long cycleSteps = 0;
+                for(int duration : durationInSteps){
+                    cycleSteps += duration + 1;
+                }
+                phaseSwitches += steps / cycleSteps * cycle.size();
+                steps %= cycleSteps;
+            }
+            currentConfigurationSteps = durationInSteps[currentConfigurationIndex];
+        }
+        return skipped;
+    }
+
+    @Override
+    public long getPhaseSwitches(){
+        return phaseSwitches;
+    }
+
+    @Override
+    public long getEmptyLaneFallbacks(){
+        return emptyLaneFallbacks;
+    }
+
+    /**
+     * Saves lane lengths seen by the controller, position in the cycle,
+     * durations and the current configuration (it can be in third mode,
+     * so it isn't always the one from the cycle).
+     * @param out where the state is written
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(lengthNorthRight);
+        out.writeInt(lengthNorthLeft);
+        out.writeInt(lengthSouthRight);
+        out.writeInt(lengthSouthLeft);
+        out.writeInt(lengthWestRight);
+        out.writeInt(lengthWestLeft);
+        out.writeInt(lengthEastRight);
+        out.writeInt(lengthEastLeft);
+
+        out.writeInt(currentStep);
+        out.writeInt(currentConfigurationSteps);
+        out.writeByte(currentConfigurationIndex);
+        out.writeByte(currentConfiguration.index());
+        for(int duration : durationInSteps){
+            out.writeInt(duration);
+        }
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        lengthNorthRight = in.readInt();
+        lengthNorthLeft = in.readInt();
+        lengthSouthRight = in.readInt();
+        lengthSouthLeft = in.readInt();
+        lengthWestRight = in.readInt();
+        lengthWestLeft = in.readInt();
+        lengthEastRight = in.readInt();
+        lengthEastLeft = in.readInt();
+
+        currentStep = in.readInt();
+        currentConfigurationSteps = in.readInt();
+        currentConfigurationIndex = in.readByte();
+        currentConfiguration = LightsConfiguration.ofIndex(in.readByte());
+        for(int i = 0; i < durationInSteps.length; i++){
+            durationInSteps[i] = in.readInt();
+        }
+    }
+
     /**
      * Checks if one of the lanes which currently has green light is empty and
      * if lights will benefit from third mode.
+     * Answer depends only on the current configuration and on which lanes are empty,
+     * so it's read from the precomputed table.
      * @return Third light mode, turns off green light for the empty direction
      * or empty optional if no direction is empty
      */
     private Optional<LightsConfiguration> avoidEmptyGreenLight(){
-        LightsConfiguration.LightsMode thirdMode = LightsConfiguration.LightsMode.leftAndRightLane;
-        // 2 cases for modes
-        if(currentConfiguration.getMode() == LightsConfiguration.LightsMode.twoRightLanes){
-            // 2 cases for directions
-            if (currentConfiguration.getWhereGreen() == WorldDirection.NORTH) {
-                // Check if either lane is empty and if switching modes would help
-                if (lengthSouthRight == 0 && lengthNorthLeft > 0) {
-                    return Optional.of(new LightsConfiguration(thirdMode, WorldDirection.NORTH));
-                } else if (lengthNorthRight == 0 && lengthSouthLeft > 0) {
-                    return Optional.of(new LightsConfiguration(thirdMode, WorldDirection.SOUTH));
-                }
-            } else {
-                // Check if either lane is empty and if switching modes would help
-                if (lengthWestRight == 0 &&  lengthEastLeft > 0) {
-                    return Optional.of(new LightsConfiguration(
-                            thirdMode, WorldDirection.EAST));
-                } else if (lengthEastRight == 0 &&  lengthWestLeft > 0) {
-                    return Optional.of(new LightsConfiguration(
-                            thirdMode, WorldDirection.WEST));
-                }
-            }
-        } else {    // 2 left lanes
-            // 2 cases for directions
-            if (currentConfiguration.getWhereGreen() == WorldDirection.NORTH) {
-                // Check if either lane is empty and if switching modes would help
-                if (lengthSouthLeft == 0 && lengthNorthRight > 0) {
-                    return Optional.of(new LightsConfiguration(thirdMode, WorldDirection.NORTH));
-                } else if (lengthNorthLeft == 0 && lengthSouthRight > 0) {
-                    return Optional.of(new LightsConfiguration(thirdMode, WorldDirection.SOUTH));
-                }
-            } else {
-                // Check if either lane is empty and if switching modes would help
-                if (lengthWestLeft == 0 &&  lengthEastRight > 0) {
-                    return Optional.of(new LightsConfiguration(
-                            thirdMode, WorldDirection.EAST));
-                } else if (lengthEastLeft == 0 &&  lengthWestRight > 0) {
-                    return Optional.of(new LightsConfiguration(
-                            thirdMode, WorldDirection.WEST));
+        return EMPTY_LANE_FALLBACK[currentConfiguration.index()][occupiedLanes()];
+    }
+
+    /**
+     * Result of avoidEmptyGreenLight() for other implementations of this policy, see {@link ControllerBank}.
+     * @param configurationIndex index of the current configuration
+     * @param occupiedLanes bit mask of lanes with cars, like from occupiedLanes()
+     * @return index of the third mode configuration, -1 if it isn't turned on
+     */
+    static int emptyLaneFallbackIndex(int configurationIndex, int occupiedLanes) {
+        return EMPTY_LANE_FALLBACK[configurationIndex][occupiedLanes].map(LightsConfiguration::index).orElse(-1);
+    }
+
+    /**
+     * @return bit mask with bits set for lanes with at least one car,
+     * bit 2 * direction.ordinal() for the right lane and the next one for the left lane
+     */
+    private int occupiedLanes(){
+        int mask = 0;
+        if(lengthNorthRight > 0) mask |= rightLaneBit(WorldDirection.NORTH);
+        if(lengthNorthLeft > 0) mask |= leftLaneBit(WorldDirection.NORTH);
+        if(lengthSouthRight > 0) mask |= rightLaneBit(WorldDirection.SOUTH);
+        if(lengthSouthLeft > 0) mask |= leftLaneBit(WorldDirection.SOUTH);
+        if(lengthWestRight > 0) mask |= rightLaneBit(WorldDirection.WEST);
+        if(lengthWestLeft > 0) mask |= leftLaneBit(WorldDirection.WEST);
+        if(lengthEastRight > 0) mask |= rightLaneBit(WorldDirection.EAST);
+        if(lengthEastLeft > 0) mask |= leftLaneBit(WorldDirection.EAST);
+        return mask;
+    }
+
+    private static int rightLaneBit(WorldDirection direction){
+        return 1 << (2 * direction.ordinal());
+    }
+
+    private static int leftLaneBit(WorldDirection direction){
+        return 1 << (2 * direction.ordinal() + 1);
+    }
+
+    /**
+     * Fills the table used by avoidEmptyGreenLight() with the result
+     * for every configuration and every combination of empty lanes.
+     */
+    @SuppressWarnings("unchecked")
+    private static Optional<LightsConfiguration>[][] buildEmptyLaneFallback(){
+        Optional<LightsConfiguration>[][] table = new Optional[LightsConfiguration.COUNT][1 << LANES];
+        for(LightsConfiguration.LightsMode mode : LightsConfiguration.LightsMode.values()){
+            for(WorldDirection direction : WorldDirection.values()){
+                LightsConfiguration configuration = LightsConfiguration.of(mode, direction);
+                for(int mask = 0; mask < 1 << LANES; mask++){
+                    table[configuration.index()][mask] = emptyLaneFallback(configuration, mask);
                 }
             }
         }
+        return table;
+    }
+
+    /**
+     * Decides whether to switch to third mode, for the given occupied lanes.
+     * Roads with green light in the first two modes are the one from whereGreen
+     * and the opposite one, so for each of them it checks whether its green lane
+     * is empty while the other road has cars which could use third mode.
+     */
+    private static Optional<LightsConfiguration> emptyLaneFallback(LightsConfiguration configuration, int mask){
+        if(configuration.getMode() == LightsConfiguration.LightsMode.leftAndRightLane){
+            return Optional.empty();
+        }
+        // Only north and west are used in the cycle, other directions get the same result as west.
+        // Order of the checks decides which road gets third mode when both could
+        WorldDirection first = configuration.getWhereGreen() == WorldDirection.NORTH
+                ? WorldDirection.NORTH : WorldDirection.EAST;
+        WorldDirection second = first.opposite();
+        boolean rightLanesGreen = configuration.getMode() == LightsConfiguration.LightsMode.twoRightLanes;
+
+        // Lane with green light and lane which would get it in third mode
+        int greenFirst = rightLanesGreen ? rightLaneBit(first) : leftLaneBit(first);
+        int greenSecond = rightLanesGreen ? rightLaneBit(second) : leftLaneBit(second);
+        int otherFirst = rightLanesGreen ? leftLaneBit(first) : rightLaneBit(first);
+        int otherSecond = rightLanesGreen ? leftLaneBit(second) : rightLaneBit(second);
+
+        LightsConfiguration.LightsMode thirdMode = LightsConfiguration.LightsMode.leftAndRightLane;
+        if((mask & greenSecond) == 0 && (mask & otherFirst) != 0){
+            return Optional.of(LightsConfiguration.of(thirdMode, first));
+        } else if((mask & greenFirst) == 0 && (mask & otherSecond) != 0){
+            return Optional.of(LightsConfiguration.of(thirdMode, second));
+        }
         return Optional.empty();
     }
 
@@ -180,30 +417,29 @@ public class Controller {
         int allCars = sumQueueLengths();
 
         if(allCars == 0){
-            for(LightsConfiguration lightsConfiguration : cycle){
-                durationInSteps.put(lightsConfiguration, STEPS_PER_CYCLE / cycle.size());
+            // Minimum also here, a cycle shorter than the number of configurations
+            // would give them 0 steps and the lights would never change
+            for(int i = 0; i < cycle.size(); i++){
+                durationInSteps[i] = Math.max(stepsPerCycle / cycle.size(), minimumSteps);
             }
         } else {
-            durationInSteps.put(cycle.get(0),
-                     Math.max((int) Math.round((lengthNorthRight + lengthSouthRight) / (double)allCars
-                             * STEPS_PER_CYCLE), MINIMUM_STEPS)
-            );
-
-            durationInSteps.put(cycle.get(1),
-                    Math.max((int)Math.round((lengthWestRight + lengthEastRight) / (double)allCars
-                            * STEPS_PER_CYCLE), MINIMUM_STEPS)
-            );
-
-            durationInSteps.put(cycle.get(2),
-                    Math.max((int)Math.round((lengthNorthLeft + lengthSouthLeft) / (double)allCars
-                            * STEPS_PER_CYCLE), MINIMUM_STEPS)
-            );
+            for(int i = 0; i < cycle.size(); i++){
+                durationInSteps[i] = Math.max((int) Math.round(waitingFor(cycle.get(i)) / (double)allCars
+                        * stepsPerCycle), minimumSteps);
+            }
+        }
+    }
 
-            durationInSteps.put(cycle.get(3),
-                    Math.max((int)Math.round((lengthWestLeft + lengthEastLeft) / (double)allCars
-                            * STEPS_PER_CYCLE), MINIMUM_STEPS)
-            );
+    /**
+     * @return number of cars on the lanes with green light in the configuration
+     */
+    private int waitingFor(LightsConfiguration configuration){
+        WorldDirection direction = configuration.getWhereGreen();
+        boolean northSouth = direction == WorldDirection.NORTH || direction == WorldDirection.SOUTH;
+        if(configuration.getMode() == LightsConfiguration.LightsMode.twoRightLanes){
+            return northSouth ? lengthNorthRight + lengthSouthRight : lengthWestRight + lengthEastRight;
         }
+        return northSouth ? lengthNorthLeft + lengthSouthLeft : lengthWestLeft + lengthEastLeft;
     }
 
     /**
@@ -215,6 +451,7 @@ public class Controller {
      * original configuration from the cycle, even in the third mode.
      */
     private void switchConfiguration(){
+        phaseSwitches++;
         currentConfigurationIndex = (currentConfigurationIndex + 1) % cycle.size();
         currentConfiguration = cycle.get(currentConfigurationIndex);
     }
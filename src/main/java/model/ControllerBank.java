@@ -0,0 +1,223 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Many independent intersections with the same policy as {@link Controller},
+ * stepped all at once. Instead of a Controller object per intersection every field
+ * is an array indexed by intersection (structure of arrays), so a step goes through
+ * memory sequentially and, when the jdk.incubator.vector module is available
+ * (--add-modules jdk.incubator.vector), many intersections are computed at once
+ * in SIMD registers. Without the module the same arrays are stepped one intersection
+ * at a time. Both ways give exactly the same configurations as separate Controllers.
+ */
+public class ControllerBank {
+
+    // FALLBACK[configuration index << LANES | occupied lanes mask] - index of the third mode or -1
+    static final int[] FALLBACK = buildFallback();
+
+    final int count;
+    final int stepsPerCycle;
+    final int minimumSteps;
+
+    // Indexes (LightsConfiguration.index()) of configurations in the cycle
+    final int[] cycle;
+    // Lanes (2 * direction ordinal, +1 for the left lane) with green light in every configuration of the cycle
+    final int[] firstLane;
+    final int[] secondLane;
+
+    // lengths[lane][intersection], lanes numbered like the bits of Controller.occupiedLanes()
+    final int[][] lengths = new int[Controller.LANES][];
+
+    final int[] currentStep;
+    final int[] currentConfigurationSteps;
+    final int[] currentConfigurationIndex;
+    // LightsConfiguration.index() of the current configuration, it can be in third mode
+    final int[] currentConfiguration;
+    // durationInSteps[position in the cycle][intersection]
+    final int[][] durationInSteps;
+
+    final long[] phaseSwitches;
+    final long[] emptyLaneFallbacks;
+
+    private final boolean vectorized;
+    // Scratch for the vector step, keys of FALLBACK for one vector of intersections (up to 2048 bits)
+    final int[] fallbackKeys = new int[64];
+
+    /**
+     * Intersections with the default parameters of {@link Controller}.
+     * @param count number of intersections
+     */
+    public ControllerBank(int count) {
+        this(count, Controller.DEFAULT_STEPS_PER_CYCLE, Controller.DEFAULT_MINIMUM_STEPS, Controller.DEFAULT_CYCLE,
+                isVectorAvailable());
+    }
+
+    /**
+     * @param count number of intersections
+     * @param stepsPerCycle like in {@link Controller#Controller(int, int, List)}
+     * @param minimumSteps like in {@link Controller#Controller(int, int, List)}
+     * @param cycle like in {@link Controller#Controller(int, int, List)}
+     * @param vectorized whether to use SIMD, it has to be available
+     */
+    public ControllerBank(int count, int stepsPerCycle, int minimumSteps, List<LightsConfiguration> cycle,
+                          boolean vectorized) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Number of intersections can't be negative: " + count);
+        }
+        if (vectorized && !isVectorAvailable()) {
+            throw new IllegalStateException("jdk.incubator.vector module isn't available");
+        }
+        Controller.validate(stepsPerCycle, minimumSteps, cycle);
+
+        this.count = count;
+        this.stepsPerCycle = stepsPerCycle;
+        this.minimumSteps = minimumSteps;
+        this.vectorized = vectorized;
+
+        this.cycle = new int[cycle.size()];
+        firstLane = new int[cycle.size()];
+        secondLane = new int[cycle.size()];
+        for (int i = 0; i < cycle.size(); i++) {
+            LightsConfiguration configuration = cycle.get(i);
+            int left = configuration.getMode() == LightsConfiguration.LightsMode.twoLeftLanes ? 1 : 0;
+            this.cycle[i] = configuration.index();
+            firstLane[i] = 2 * configuration.getWhereGreen().ordinal() + left;
+            secondLane[i] = 2 * configuration.getWhereGreen().opposite().ordinal() + left;
+        }
+
+        for (int lane = 0; lane < Controller.LANES; lane++) {
+            lengths[lane] = new int[count];
+        }
+        currentStep = new int[count];
+        currentConfigurationSteps = new int[count];
+        currentConfigurationIndex = new int[count];
+        currentConfiguration = new int[count];
+        durationInSteps = new int[cycle.size()][count];
+        phaseSwitches = new long[count];
+        emptyLaneFallbacks = new long[count];
+
+        // Same initial state as a new Controller, no cars so every duration is equal
+        for (int i = 0; i < count; i++) {
+            for (int[] durations : durationInSteps) {
+                durations[i] = Math.max(stepsPerCycle / cycle.size(), minimumSteps);
+            }
+            currentConfigurationSteps[i] = durationInSteps[0][i];
+            currentConfiguration[i] = this.cycle[0];
+        }
+    }
+
+    /**
+     * @return whether jdk.incubator.vector module was added to the JVM
+     */
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Like {@link Controller#updateQueueLengths}, for one intersection.
+     * @param intersection index of the intersection
+     * @param right length of the queue on the right lane
+     * @param left same on the left lane
+     * @param direction road of the lanes
+     */
+    public void updateQueueLengths(int intersection, int right, int left, WorldDirection direction) {
+        lengths[2 * direction.ordinal()][intersection] = right;
+        lengths[2 * direction.ordinal() + 1][intersection] = left;
+    }
+
+    /**
+     * Does one step of every intersection, like {@link Controller#step()}.
+     * Configurations are read with {@link #getConfiguration(int)}.
+     */
+    public void step() {
+        int done = vectorized ? ControllerBankVectors.step(this) : 0;
+        // Intersections which don't fill a whole vector
+        for (int i = done; i < count; i++) {
+            step(i);
+        }
+    }
+
+    /**
+     * @param intersection index of the intersection
+     * @return lights configuration after the last step
+     */
+    public LightsConfiguration getConfiguration(int intersection) {
+        return LightsConfiguration.ofIndex(currentConfiguration[intersection]);
+    }
+
+    public long getPhaseSwitches(int intersection) {
+        return phaseSwitches[intersection];
+    }
+
+    public long getEmptyLaneFallbacks(int intersection) {
+        return emptyLaneFallbacks[intersection];
+    }
+
+    private void step(int i) {
+        int step = currentStep[i];
+        if (step == currentConfigurationSteps[i] && step != 0) {
+            phaseSwitches[i]++;
+            int index = currentConfigurationIndex[i] + 1;
+            if (index == cycle.length) {
+                index = 0;
+                recalculateProportionsInSteps(i);
+            }
+            currentConfigurationIndex[i] = index;
+            currentConfiguration[i] = cycle[index];
+            currentConfigurationSteps[i] = durationInSteps[index][i];
+            currentStep[i] = 0;
+        } else {
+            currentStep[i] = step + 1;
+        }
+
+        int fallback = FALLBACK[currentConfiguration[i] << Controller.LANES | occupiedLanes(i)];
+        if (fallback >= 0) {
+            currentConfiguration[i] = fallback;
+            emptyLaneFallbacks[i]++;
+        }
+    }
+
+    void recalculateProportionsInSteps(int i) {
+        int allCars = 0;
+        for (int[] lane : lengths) {
+            allCars += lane[i];
+        }
+        for (int k = 0; k < cycle.length; k++) {
+            if (allCars == 0) {
+                durationInSteps[k][i] = Math.max(stepsPerCycle / cycle.length, minimumSteps);
+            } else {
+                int waiting = lengths[firstLane[k]][i] + lengths[secondLane[k]][i];
+                durationInSteps[k][i] = Math.max((int) Math.round(waiting / (double) allCars * stepsPerCycle),
+                        minimumSteps);
+            }
+        }
+    }
+
+    private int occupiedLanes(int i) {
+        int mask = 0;
+        for (int lane = 0; lane < Controller.LANES; lane++) {
+            // Lengths aren't negative, so the sign of -length tells if there are cars, without a branch
+            mask |= (-lengths[lane][i] >>> 31) << lane;
+        }
+        return mask;
+    }
+
+    private static int[] buildFallback() {
+        int[] table = new int[LightsConfiguration.COUNT << Controller.LANES];
+        for (int configuration = 0; configuration < LightsConfiguration.COUNT; configuration++) {
+            for (int mask = 0; mask < 1 << Controller.LANES; mask++) {
+                table[configuration << Controller.LANES | mask] = Controller.emptyLaneFallbackIndex(configuration, mask);
+            }
+        }
+        return table;
+    }
+}
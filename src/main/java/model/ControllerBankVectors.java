@@ -0,0 +1,97 @@
+package model;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Steps of {@link ControllerBank} with the Vector API, every lane of a vector is
+ * a different intersection. It's a separate class, so that ControllerBank works
+ * (without SIMD) when the incubator module isn't added - this class is only
+ * loaded if it is.
+ */
+final class ControllerBankVectors {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private ControllerBankVectors() {
+    }
+
+    /**
+     * Steps intersections which fill whole vectors.
+     * @return number of stepped intersections, the rest has to be stepped without vectors
+     */
+    static int step(ControllerBank bank) {
+        int upper = INTS.loopBound(bank.count);
+        for (int i = 0; i < upper; i += INTS.length()) {
+            step(bank, i);
+        }
+        return upper;
+    }
+
+    // Separate methods get vectors only from arrays, vectors passed to a method which isn't inlined are
+    // allocated on the heap, and one big loop body is too much for the JIT to inline everything
+    private static void step(ControllerBank bank, int i) {
+        IntVector step = IntVector.fromArray(INTS, bank.currentStep, i);
+        VectorMask<Integer> switching = step.compare(VectorOperators.EQ,
+                IntVector.fromArray(INTS, bank.currentConfigurationSteps, i)).andNot(step.eq(0));
+
+        if (switching.anyTrue()) {
+            switchConfiguration(bank, i, switching.toLong());
+            step = step.add(1).blend(0, switching);
+        } else {
+            step = step.add(1);
+        }
+        step.intoArray(bank.currentStep, i);
+
+        IntVector occupied = IntVector.zero(INTS);
+        for (int lane = 0; lane < Controller.LANES; lane++) {
+            // Lengths aren't negative, min(1) is 1 if there are cars
+            occupied = occupied.or(IntVector.fromArray(INTS, bank.lengths[lane], i)
+                    .min(1).lanewise(VectorOperators.LSHL, lane));
+        }
+        // Third mode, the table is read with a gather
+        IntVector configuration = IntVector.fromArray(INTS, bank.currentConfiguration, i);
+        configuration.lanewise(VectorOperators.LSHL, Controller.LANES).or(occupied).intoArray(bank.fallbackKeys, 0);
+        IntVector fallback = IntVector.fromArray(INTS, ControllerBank.FALLBACK, 0, bank.fallbackKeys, 0);
+        VectorMask<Integer> thirdMode = fallback.compare(VectorOperators.GE, 0);
+        if (thirdMode.anyTrue()) {
+            count(bank.emptyLaneFallbacks, i, thirdMode.toLong());
+            configuration.blend(fallback, thirdMode).intoArray(bank.currentConfiguration, i);
+        }
+    }
+
+    private static void switchConfiguration(ControllerBank bank, int i, long switchingBits) {
+        count(bank.phaseSwitches, i, switchingBits);
+        VectorMask<Integer> switching = VectorMask.fromLong(INTS, switchingBits);
+        IntVector index = IntVector.fromArray(INTS, bank.currentConfigurationIndex, i).add(1, switching);
+        VectorMask<Integer> wrapped = index.eq(bank.cycle.length);
+        if (wrapped.anyTrue()) {
+            index = index.blend(0, wrapped);
+            // Once in a cycle, it's done without vectors, so that rounding is exactly like in Controller
+            for (long bits = wrapped.toLong(); bits != 0; bits &= bits - 1) {
+                bank.recalculateProportionsInSteps(i + Long.numberOfTrailingZeros(bits));
+            }
+        }
+        IntVector configuration = IntVector.fromArray(INTS, bank.currentConfiguration, i);
+        IntVector configurationSteps = IntVector.fromArray(INTS, bank.currentConfigurationSteps, i);
+        for (int k = 0; k < bank.cycle.length; k++) {
+            VectorMask<Integer> at = index.eq(k).and(switching);
+            configuration = configuration.blend(bank.cycle[k], at);
+            configurationSteps = configurationSteps.blend(IntVector.fromArray(INTS, bank.durationInSteps[k], i), at);
+        }
+        index.intoArray(bank.currentConfigurationIndex, i);
+        configuration.intoArray(bank.currentConfiguration, i);
+        configurationSteps.intoArray(bank.currentConfigurationSteps, i);
+    }
+
+    /**
+     * Increments counters of intersections with set bits.
+     */
+    private static void count(long[] counters, int i, long bits) {
+        for (; bits != 0; bits &= bits - 1) {
+            counters[i + Long.numberOfTrailingZeros(bits)]++;
+        }
+    }
+}
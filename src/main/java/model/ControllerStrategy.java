@@ -0,0 +1,95 @@
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Policy deciding which lights are green. SimulationRunner tells it how many
+ * cars wait on every road and asks it for the lights configuration on every step.
+ * {@link Controller} is the default one.
+ */
+public interface ControllerStrategy {
+
+    /**
+     * Updates lengths of the queues on the given road.
+     * @param right length of the queue on the right lane
+     * @param left same on the left lane
+     * @param direction road which lengths are updated
+     */
+    void updateQueueLengths(int right, int left, WorldDirection direction);
+
+    /**
+     * Reaction to one step in simulation.
+     * @return lights configuration for this step
+     */
+    LightsConfiguration step();
+
+    /**
+     * Performs many steps while no car waits on any road and none arrives.
+     * Result should be the same as calling {@link #step()} that many times,
+     * strategies which can do it faster should override it. They may also skip
+     * fewer steps, then the rest is done with normal steps.
+     * @param steps number of steps
+     * @return number of steps that were skipped
+     */
+    default long skipIdleSteps(long steps) {
+        for (long i = 0; i < steps; i++) {
+            step();
+        }
+        return steps;
+    }
+
+    /**
+     * Number of next steps which will surely return the same configuration
+     * as the last one, as long as no car arrives and no lane becomes empty.
+     * @return number of steps, 0 if it's not known
+     */
+    default int stableSteps() {
+        return 0;
+    }
+
+    /**
+     * Performs steps which don't change the configuration, see {@link #stableSteps()}.
+     * Queue lengths are updated after them.
+     * @param steps number of steps, at most stableSteps()
+     */
+    default void skipStableSteps(int steps) {
+        for (int i = 0; i < steps; i++) {
+            step();
+        }
+    }
+
+    /**
+     * @return number of times the configuration was switched to the next one from the cycle
+     */
+    default long getPhaseSwitches() {
+        return 0;
+    }
+
+    /**
+     * @return number of times third mode was turned on because a lane with green light was empty
+     */
+    default long getEmptyLaneFallbacks() {
+        return 0;
+    }
+
+    /**
+     * Saves everything the strategy remembers, so that a simulation
+     * can be resumed from a snapshot. Strategies which can't do it don't have to.
+     * @param out where the state is written
+     * @throws IOException if writing fails
+     */
+    default void saveState(DataOutput out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support snapshots");
+    }
+
+    /**
+     * Restores state saved by {@link #saveState(DataOutput)}.
+     * @param in where the state is read from
+     * @throws IOException if reading fails
+     */
+    default void restoreState(DataInput in) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support snapshots");
+    }
+}
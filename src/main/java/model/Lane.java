@@ -0,0 +1,146 @@
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * FIFO queue of cars on a single lane, cars are kept as primitives: ID, step
+ * on which the car arrived and its turn direction. {@link LaneBuffer} keeps them
+ * in arrays on the heap, {@link OffHeapLaneBuffer} outside of it.
+ */
+interface Lane {
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Adds car at the end of the queue.
+     * @param id ID of the car
+     * @param turn where the car is going
+     */
+    default void add(int id, TurnDirection turn) {
+        add(id, turn, 0);
+    }
+
+    /**
+     * Adds car at the end of the queue.
+     * @param id ID of the car
+     * @param turn where the car is going
+     * @param arrivalStep step on which the car arrived
+     */
+    void add(int id, TurnDirection turn, int arrivalStep);
+
+    /**
+     * ID of the i-th car in the queue, counting from the first one.
+     * @param i position in the queue, has to be lower than size
+     * @return ID of the car
+     */
+    int idAt(int i);
+
+    /**
+     * Step on which the i-th car in the queue arrived, counting from the first one.
+     * @param i position in the queue, has to be lower than size
+     * @return arrival step of the car
+     */
+    int arrivalAt(int i);
+
+    /**
+     * Turn direction of the i-th car in the queue, counting from the first one.
+     * @param i position in the queue, has to be lower than size
+     * @return turn direction of the car
+     */
+    TurnDirection turnAt(int i);
+
+    /**
+     * Removes first car from the queue. Queue can't be empty.
+     * @return ID of the removed car
+     */
+    int poll();
+
+    /**
+     * Removes first cars from the queue at once.
+     * @param count number of cars to remove, at most size
+     */
+    void drop(int count);
+
+    /**
+     * Counts cars at the front of the queue going in the given direction,
+     * stops at the first car going elsewhere.
+     * @param turn turn direction
+     * @param max maximum number of cars to check
+     * @return number of such cars, at most max
+     */
+    default int countFromHead(TurnDirection turn, int max) {
+        int limit = Math.min(max, size());
+        for (int i = 0; i < limit; i++) {
+            if (turnAt(i) != turn) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Saves the queue from the first car: its size, IDs and arrival steps as differences
+     * from the previous car (cars next to each other usually have close IDs and steps),
+     * zigzag encoded as varints, and turns packed 4 per byte. The format doesn't depend
+     * on the implementation, so a snapshot can be restored into either of them.
+     * @param out where the queue is written
+     * @throws IOException if writing fails
+     */
+    default void writeTo(DataOutput out) throws IOException {
+        int size = size();
+        out.writeInt(size);
+        int previousId = 0;
+        for (int i = 0; i < size; i++) {
+            int id = idAt(i);
+            int delta = id - previousId;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            previousId = id;
+        }
+        int previousArrival = 0;
+        for (int i = 0; i < size; i++) {
+            int arrival = arrivalAt(i);
+            int delta = arrival - previousArrival;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            previousArrival = arrival;
+        }
+        for (int i = 0; i < size; i += 4) {
+            int packed = 0;
+            for (int j = 0; j < 4 && i + j < size; j++) {
+                packed |= turnAt(i + j).ordinal() << (j << 1);
+            }
+            out.writeByte(packed);
+        }
+    }
+
+    /**
+     * Replaces contents of the queue with the one saved by {@link #writeTo(DataOutput)}.
+     * @param in where the queue is read from
+     * @throws IOException if reading fails
+     */
+    void readFrom(DataInput in) throws IOException;
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package model;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * FIFO queue of cars on a single lane, on the heap. Cars are not kept as objects,
+ * ID of every car is stored in an int array, step on which it arrived
+ * in another one and its turn direction takes 2 bits in a packed byte array. Both arrays are circular buffers
+ * which grow when they are full, so adding and removing cars
+ * doesn't allocate anything in the steady state.
+ */
+class LaneBuffer implements Lane {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final TurnDirection[] TURNS = TurnDirection.values();
+
+    // Capacity is always a power of 2, so indexes can be wrapped with a mask
+    private int[] ids = new int[INITIAL_CAPACITY];
+    // Only differences between steps matter, so they are kept as ints and may wrap around
+    private int[] arrivals = new int[INITIAL_CAPACITY];
+    // 4 turns per byte, ordinal of TurnDirection on 2 bits
+    private byte[] turns = new byte[INITIAL_CAPACITY / 4];
+    private int mask = INITIAL_CAPACITY - 1;
+
+    // Index of the first car in the queue
+    private int head = 0;
+    private int size = 0;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void add(int id, TurnDirection turn, int arrivalStep) {
+        if (size == ids.length) {
+            grow();
+        }
+        int index = (head + size) & mask;
+        ids[index] = id;
+        arrivals[index] = arrivalStep;
+        setTurn(turns, index, turn.ordinal());
+        size++;
+    }
+
+    @Override
+    public int idAt(int i) {
+        return ids[(head + i) & mask];
+    }
+
+    @Override
+    public int arrivalAt(int i) {
+        return arrivals[(head + i) & mask];
+    }
+
+    @Override
+    public TurnDirection turnAt(int i) {
+        return TURNS[getTurn(turns, (head + i) & mask)];
+    }
+
+    @Override
+    public int poll() {
+        int id = ids[head];
+        head = (head + 1) & mask;
+        size--;
+        return id;
+    }
+
+    @Override
+    public void drop(int count) {
+        head = (head + count) & mask;
+        size -= count;
+    }
+
+    @Override
+    public int countFromHead(TurnDirection turn, int max) {
+        int limit = Math.min(max, size);
+        int ordinal = turn.ordinal();
+        for (int i = 0; i < limit; i++) {
+            if (getTurn(turns, (head + i) & mask) != ordinal) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < count) {
+            capacity *= 2;
+        }
+        ids = new int[capacity];
+        arrivals = new int[capacity];
+        turns = new byte[capacity / 4];
+        mask = capacity - 1;
+        head = 0;
+        size = count;
+
+        int previousId = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = Lane.readVarint(in);
+            previousId += (zigzag >>> 1) ^ -(zigzag & 1);
+            ids[i] = previousId;
+        }
+        int previousArrival = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = Lane.readVarint(in);
+            previousArrival += (zigzag >>> 1) ^ -(zigzag & 1);
+            arrivals[i] = previousArrival;
+        }
+        // Queue starts at 0, so packed turns are already in the layout of the array
+        in.readFully(turns, 0, (count + 3) / 4);
+    }
+
+    /**
+     * Doubles the capacity, cars are moved to the beginning of the new arrays.
+     */
+    private void grow() {
+        int capacity = ids.length * 2;
+        int[] newIds = new int[capacity];
+        int[] newArrivals = new int[capacity];
+        byte[] newTurns = new byte[capacity / 4];
+
+        int firstPart = Math.min(size, ids.length - head);
+        System.arraycopy(ids, head, newIds, 0, firstPart);
+        System.arraycopy(ids, 0, newIds, firstPart, size - firstPart);
+        System.arraycopy(arrivals, head, newArrivals, 0, firstPart);
+        System.arraycopy(arrivals, 0, newArrivals, firstPart, size - firstPart);
+
+        // Turns can't be copied by bytes, because head doesn't have to be aligned to a byte
+        for (int i = 0; i < size; i++) {
+            setTurn(newTurns, i, getTurn(turns, (head + i) & mask));
+        }
+
+        ids = newIds;
+        arrivals = newArrivals;
+        turns = newTurns;
+        mask = capacity - 1;
+        head = 0;
+    }
+
+    private static int getTurn(byte[] turns, int index) {
+        return (turns[index >> 2] >> ((index & 3) << 1)) & 3;
+    }
+
+    private static void setTurn(byte[] turns, int index, int turn) {
+        int shift = (index & 3) << 1;
+        turns[index >> 2] = (byte) ((turns[index >> 2] & ~(3 << shift)) | (turn << shift));
+    }
+}
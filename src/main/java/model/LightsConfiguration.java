@@ -16,6 +16,23 @@ public class LightsConfiguration {
         twoLeftLanes, twoRightLanes, leftAndRightLane
     }
 
+    private static final int DIRECTIONS = WorldDirection.values().length;
+
+    // Number of different configurations, 3 modes for 4 directions
+    public static final int COUNT = LightsMode.values().length * DIRECTIONS;
+
+    // Every possible configuration, created once and reused, see of()
+    private static final LightsConfiguration[] INSTANCES = new LightsConfiguration[COUNT];
+
+    static {
+        for (LightsMode mode : LightsMode.values()) {
+            for (WorldDirection direction : WorldDirection.values()) {
+                LightsConfiguration configuration = new LightsConfiguration(mode, direction);
+                INSTANCES[configuration.index()] = configuration;
+            }
+        }
+    }
+
     private final LightsMode mode;
 
     // Which direction has green light
@@ -32,6 +49,34 @@ public class LightsConfiguration {
         this.whereGreen = configuration.getWhereGreen();
     }
 
+    /**
+     * Returns shared instance of the configuration instead of creating a new one,
+     * so configurations can be switched every step without allocating anything.
+     * @param mode lights mode
+     * @param whereGreen direction with green light
+     * @return the only shared instance for these mode and direction
+     */
+    public static LightsConfiguration of(LightsMode mode, WorldDirection whereGreen) {
+        return INSTANCES[mode.ordinal() * DIRECTIONS + whereGreen.ordinal()];
+    }
+
+    /**
+     * Reverse of {@link #index()}.
+     * @param index number from 0 to COUNT - 1
+     * @return shared instance with this index
+     */
+    public static LightsConfiguration ofIndex(int index) {
+        return INSTANCES[index];
+    }
+
+    /**
+     * @return number from 0 to COUNT - 1, different for every configuration,
+     * useful for indexing arrays
+     */
+    public int index() {
+        return mode.ordinal() * DIRECTIONS + whereGreen.ordinal();
+    }
+
     public LightsMode getMode() {
         return mode;
     }
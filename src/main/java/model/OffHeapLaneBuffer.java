@@ -0,0 +1,175 @@
+package model;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * FIFO queue of cars on a single lane, kept outside of the Java heap, for queues
+ * of millions of cars. Cars are stored in chunks of direct memory: IDs, then arrival
+ * steps, then turns (a byte each) of CHUNK cars. Chunks are in a circular array,
+ * a new one is added at the end when the last one is full and the first one is
+ * released when all its cars have left. Heap has only the chunk objects,
+ * so the garbage collector doesn't depend on the number of cars.
+ */
+class OffHeapLaneBuffer implements Lane {
+
+    private static final int DEFAULT_CHUNK_BITS = 16;
+
+    private static final TurnDirection[] TURNS = TurnDirection.values();
+
+    private final int chunkBits;
+    // Number of cars in a chunk, a power of 2
+    private final int chunk;
+    private final int arrivalsOffset;
+    private final int turnsOffset;
+
+    // Chunks from the first one, circular with a mask like in LaneBuffer
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int firstChunk = 0;
+    private int chunkCount = 0;
+    // Released chunk kept for the next one, so a queue going back and forth
+    // at the end of a chunk doesn't allocate memory again and again
+    private ByteBuffer spare;
+
+    // Position of the first car in the first chunk
+    private int head = 0;
+    private int size = 0;
+
+    OffHeapLaneBuffer() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits chunks have 2^chunkBits cars
+     */
+    OffHeapLaneBuffer(int chunkBits) {
+        this.chunkBits = chunkBits;
+        this.chunk = 1 << chunkBits;
+        this.arrivalsOffset = Integer.BYTES * chunk;
+        this.turnsOffset = 2 * Integer.BYTES * chunk;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int id, TurnDirection turn, int arrivalStep) {
+        int position = head + size;
+        if (position >>> chunkBits == chunkCount) {
+            addChunk();
+        }
+        ByteBuffer buffer = chunkOf(position);
+        int index = position & (chunk - 1);
+        buffer.putInt(index * Integer.BYTES, id);
+        buffer.putInt(arrivalsOffset + index * Integer.BYTES, arrivalStep);
+        buffer.put(turnsOffset + index, (byte) turn.ordinal());
+        size++;
+    }
+
+    @Override
+    public int idAt(int i) {
+        int position = head + i;
+        return chunkOf(position).getInt((position & (chunk - 1)) * Integer.BYTES);
+    }
+
+    @Override
+    public int arrivalAt(int i) {
+        int position = head + i;
+        return chunkOf(position).getInt(arrivalsOffset + (position & (chunk - 1)) * Integer.BYTES);
+    }
+
+    @Override
+    public TurnDirection turnAt(int i) {
+        int position = head + i;
+        return TURNS[chunkOf(position).get(turnsOffset + (position & (chunk - 1)))];
+    }
+
+    @Override
+    public int poll() {
+        int id = idAt(0);
+        drop(1);
+        return id;
+    }
+
+    @Override
+    public void drop(int count) {
+        head += count;
+        size -= count;
+        while (head >= chunk) {
+            releaseFirstChunk();
+            head -= chunk;
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        while (chunkCount > 0) {
+            releaseFirstChunk();
+        }
+        head = 0;
+        size = 0;
+
+        // Cars are added with IDs first, arrivals and turns are filled in the next passes
+        int previousId = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = Lane.readVarint(in);
+            previousId += (zigzag >>> 1) ^ -(zigzag & 1);
+            add(previousId, TurnDirection.FORWARD, 0);
+        }
+        int previousArrival = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = Lane.readVarint(in);
+            previousArrival += (zigzag >>> 1) ^ -(zigzag & 1);
+            chunkOf(i).putInt(arrivalsOffset + (i & (chunk - 1)) * Integer.BYTES, previousArrival);
+        }
+        for (int i = 0; i < count; i += 4) {
+            int packed = in.readUnsignedByte();
+            for (int j = 0; j < 4 && i + j < count; j++) {
+                chunkOf(i + j).put(turnsOffset + ((i + j) & (chunk - 1)), (byte) ((packed >> (j << 1)) & 3));
+            }
+        }
+    }
+
+    /**
+     * @param position position counted from the start of the first chunk
+     * @return chunk with the car at that position
+     */
+    private ByteBuffer chunkOf(int position) {
+        return chunks[(firstChunk + (position >>> chunkBits)) & (chunks.length - 1)];
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+            for (int i = 0; i < chunkCount; i++) {
+                newChunks[i] = chunks[(firstChunk + i) & (chunks.length - 1)];
+            }
+            chunks = newChunks;
+            firstChunk = 0;
+        }
+        ByteBuffer buffer = spare;
+        spare = null;
+        if (buffer == null) {
+            // Native order, so ints are read without swapping bytes
+            buffer = ByteBuffer.allocateDirect(turnsOffset + chunk).order(ByteOrder.nativeOrder());
+        }
+        chunks[(firstChunk + chunkCount) & (chunks.length - 1)] = buffer;
+        chunkCount++;
+    }
+
+    /**
+     * Memory of a direct buffer is freed when the buffer is garbage collected,
+     * one is kept as the spare and the rest are dropped.
+     */
+    private void releaseFirstChunk() {
+        spare = chunks[firstChunk];
+        chunks[firstChunk] = null;
+        firstChunk = (firstChunk + 1) & (chunks.length - 1);
+        chunkCount--;
+    }
+}
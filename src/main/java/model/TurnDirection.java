@@ -1,5 +1,21 @@
 package model;
 
 public enum TurnDirection {
-    LEFT, FORWARD, RIGHT
+    LEFT, FORWARD, RIGHT;
+
+    /**
+     * Determines which side is the car turning.
+     * @param startRoad road on which the car arrives
+     * @param endRoad road on which the car leaves
+     * @return turn direction of the car
+     */
+    public static TurnDirection between(WorldDirection startRoad, WorldDirection endRoad) {
+        if(startRoad.opposite().equals(endRoad)) {
+            return FORWARD;
+        } else if (startRoad.opposite().rightTurn().equals(endRoad)) {
+            return RIGHT;
+        } else {
+            return LEFT;
+        }
+    }
 }
@@ -0,0 +1,225 @@
+package simulation;
+
+import util.BinaryTrace;
+import util.CommandSource;
+import util.NdjsonCommandReader;
+import util.SimulationInstructionsLoader;
+import util.SimulationOutputSaver;
+import util.StepStatusWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Runs many independent simulations concurrently, each one reading its own
+ * input file and writing its own output file. Every job streams its input and
+ * output, so reading, simulating and writing of different jobs overlap
+ * across the worker threads.
+ */
+public class BatchRunner {
+
+    /**
+     * One simulation to run.
+     * @param input path to the instructions file, JSON or binary trace
+     * @param output path to the output file
+     */
+    public record Job(Path input, Path output) {}
+
+    /**
+     * Outcome of one job.
+     * @param job the job
+     * @param wallNanos how long the job took
+     * @param error exception that stopped the job, null if it succeeded
+     */
+    public record JobResult(Job job, long wallNanos, Throwable error) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    private final int parallelism;
+
+    private final boolean pretty;
+
+    /**
+     * @param parallelism maximum number of simulations running at the same time
+     * @param pretty whether output files should be pretty printed
+     */
+    public BatchRunner(int parallelism, boolean pretty) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pretty = pretty;
+    }
+
+    /**
+     * Creates a job for every JSON, NDJSON or binary trace file in the input directory.
+     * Outputs get the same file names in the output directory, except that output
+     * of a trace is JSON, e.g. traffic.bin gives traffic.json.
+     * @param inputDirectory directory with instructions files
+     * @param outputDirectory directory for outputs, created if necessary
+     * @return jobs sorted by input file name
+     * @throws IllegalArgumentException if both directories are the same, outputs would overwrite
+     * the inputs, or if two inputs would have the same output (like traffic.json and traffic.bin)
+     */
+    public static List<Job> jobsFromDirectory(Path inputDirectory, Path outputDirectory) {
+        try (Stream<Path> files = Files.list(inputDirectory)) {
+            Files.createDirectories(outputDirectory);
+            if (Files.isSameFile(inputDirectory, outputDirectory)) {
+                throw new IllegalArgumentException("Output directory can't be the input directory: " + outputDirectory);
+            }
+            List<Job> jobs = files.filter(file -> isInstructionsFile(file.getFileName().toString()))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .map(file -> new Job(file, outputDirectory.resolve(outputName(file.getFileName().toString()))))
+                    .toList();
+
+            Set<Path> outputs = new HashSet<>();
+            for (Job job : jobs) {
+                if (!outputs.add(job.output())) {
+                    throw new IllegalArgumentException("Two input files have the same output " + job.output());
+                }
+            }
+            return jobs;
+        } catch (IOException e) {
+            throw new RuntimeException("Error listing input directory", e);
+        }
+    }
+
+    private static boolean isInstructionsFile(String name) {
+        return name.endsWith(".json") || NdjsonCommandReader.isNdjson(name) || BinaryTrace.isBinary(name);
+    }
+
+    private static String outputName(String inputName) {
+        if (BinaryTrace.isBinary(inputName)) {
+            return inputName.substring(0, inputName.length() - ".bin".length()) + ".json";
+        }
+        return inputName;
+    }
+
+    /**
+     * Reads jobs from a manifest file. Every line contains input and output
+     * path separated by whitespace. Empty lines and lines starting with # are skipped.
+     * Relative paths are resolved against the manifest's directory.
+     * @param manifest path to the manifest file
+     * @return jobs in the order of the manifest
+     */
+    public static List<Job> jobsFromManifest(Path manifest) {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(manifest)) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] paths = line.split("\\s+");
+                if (paths.length != 2) {
+                    throw new IOException("Incorrect manifest line: " + line);
+                }
+                jobs.add(new Job(base.resolve(paths[0]), base.resolve(paths[1])));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading manifest", e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs all jobs, at most {@code parallelism} at a time. Failure of one
+     * job doesn't stop the others.
+     * @param jobs jobs to run
+     * @return results in the same order as jobs
+     */
+    public List<JobResult> run(List<Job> jobs) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<JobResult>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(pool.submit(() -> runJob(job)));
+            }
+
+            List<JobResult> results = new ArrayList<>();
+            for (Future<JobResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Batch was interrupted", e);
+        } catch (ExecutionException e) {
+            // runJob catches everything, so it shouldn't happen
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints wall time of every job and of the whole batch.
+     * @param results results of {@link #run(List)}
+     * @param batchNanos wall time of the whole batch
+     * @param out where to print
+     */
+    public static void printReport(List<JobResult> results, long batchNanos, PrintStream out) {
+        long sumNanos = 0;
+        int failed = 0;
+        for (JobResult result : results) {
+            sumNanos += result.wallNanos();
+            if (result.succeeded()) {
+                out.printf("%-60s %10.3f s%n", result.job().input(), seconds(result.wallNanos()));
+            } else {
+                failed++;
+                out.printf("%-60s %10.3f s FAILED: %s%n", result.job().input(),
+                        seconds(result.wallNanos()), result.error());
+            }
+        }
+        out.printf("Jobs: %d (failed: %d), sum of job times: %.3f s, wall time: %.3f s%n",
+                results.size(), failed, seconds(sumNanos), seconds(batchNanos));
+    }
+
+    private JobResult runJob(Job job) {
+        long start = System.nanoTime();
+        try {
+            checkNotInput(job);
+            try (CommandSource commands = SimulationInstructionsLoader.openInstructions(job.input().toString());
+                 StepStatusWriter output = new SimulationOutputSaver(job.output().toString(), commands.vehicleIds())
+                         .openStepStatusWriter(pretty)) {
+                SimulationRunner runner = new SimulationRunner(commands, false);
+                runner.setVehicleIds(commands.vehicleIds());
+                runner.run(output);
+                output.finish();
+            }
+            return new JobResult(job, System.nanoTime() - start, null);
+        } catch (Throwable e) {
+            // Also errors like OutOfMemoryError, only this job fails because of them
+            return new JobResult(job, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * Output would be truncated while its input is still being read.
+     */
+    private static void checkNotInput(Job job) throws IOException {
+        if (job.output().toAbsolutePath().normalize().equals(job.input().toAbsolutePath().normalize())
+                || Files.exists(job.output()) && Files.isSameFile(job.output(), job.input())) {
+            throw new IllegalArgumentException("Output is the same file as input: " + job.output());
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
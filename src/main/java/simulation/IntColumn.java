@@ -0,0 +1,176 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Growable column of ints. Values are kept in an array on the heap until
+ * their number reaches the spill threshold, then they are moved to a
+ * temporary file mapped to memory in fixed size chunks, so the column
+ * can grow beyond the heap. {@link StepStatusStore} keeps offsets into
+ * its columns as ints, so a column holds at most {@link #MAX_SIZE} values
+ * (the biggest heap array), adding more throws IllegalStateException.
+ */
+class IntColumn implements Closeable {
+
+    static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // 2^24 ints (64 MB) in one mapped chunk
+    private static final int CHUNK_BITS = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final long spillThreshold;
+    private final Path spillDirectory;
+    private final long maxSize;
+
+    // Allocated on the first value, there can be many empty columns
+    private int[] values = new int[0];
+    private long size = 0;
+
+    // Used after spilling, null before
+    private FileChannel spillChannel;
+    private Path spillFile;
+    private IntBuffer[] chunks;
+
+    /**
+     * @param spillThreshold number of values after which the column is moved to a file,
+     *                       Long.MAX_VALUE to always keep it on the heap
+     * @param spillDirectory directory for the temporary file, null for the default one
+     */
+    IntColumn(long spillThreshold, Path spillDirectory) {
+        this(spillThreshold, spillDirectory, MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize number of values after which adding throws, at most {@link #MAX_SIZE}
+     */
+    IntColumn(long spillThreshold, Path spillDirectory, long maxSize) {
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+        this.maxSize = Math.min(maxSize, MAX_SIZE);
+    }
+
+    long size() {
+        return size;
+    }
+
+    void add(int value) {
+        if (size == maxSize) {
+            throw new IllegalStateException("Column is full, it holds at most " + maxSize + " values");
+        }
+        if (chunks != null) {
+            int chunk = (int) (size >>> CHUNK_BITS);
+            if (chunk == chunks.length || chunks[chunk] == null) {
+                mapChunk(chunk);
+            }
+            chunks[chunk].put((int) (size & CHUNK_MASK), value);
+        } else {
+            if (size == spillThreshold) {
+                spill();
+                add(value);
+                return;
+            }
+            if (size == values.length) {
+                long capacity = Math.max(INITIAL_CAPACITY, (long) values.length * 2);
+                values = Arrays.copyOf(values, (int) Math.min(capacity, MAX_SIZE));
+            }
+            values[(int) size] = value;
+        }
+        size++;
+    }
+
+    /**
+     * Adds the same value many times, e.g. ends of consecutive empty steps.
+     * Nothing is added if all of them don't fit.
+     */
+    void addRepeated(int value, long count) {
+        if (count > maxSize - size) {
+            throw new IllegalStateException("Column is full, it holds at most " + maxSize + " values");
+        }
+        if (chunks == null && size + count <= spillThreshold) {
+            if (size + count > values.length) {
+                long capacity = Math.max(Math.max(INITIAL_CAPACITY, (long) values.length * 2), size + count);
+                values = Arrays.copyOf(values, (int) Math.min(capacity, MAX_SIZE));
+            }
+            Arrays.fill(values, (int) size, (int) (size + count), value);
+            size += count;
+            return;
+        }
+        for (long i = 0; i < count; i++) {
+            add(value);
+        }
+    }
+
+    int get(long index) {
+        if (chunks != null) {
+            return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+        }
+        return values[(int) index];
+    }
+
+    /**
+     * Moves values from the heap array to the mapped file.
+     */
+    private void spill() {
+        try {
+            spillFile = spillDirectory == null
+                    ? Files.createTempFile("step-statuses", ".bin")
+                    : Files.createTempFile(spillDirectory, "step-statuses", ".bin");
+            // On some systems the file is unlinked right away and only the mapping keeps it
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating file for step statuses", e);
+        }
+
+        chunks = new IntBuffer[4];
+        int[] heapValues = values;
+        long heapSize = size;
+        values = null;
+        size = 0;
+        for (long i = 0; i < heapSize; i++) {
+            add(heapValues[(int) i]);
+        }
+    }
+
+    private void mapChunk(int chunk) {
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        try {
+            chunks[chunk] = spillChannel
+                    .map(FileChannel.MapMode.READ_WRITE, (long) chunk * CHUNK_SIZE * Integer.BYTES,
+                            (long) CHUNK_SIZE * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException("Error mapping file for step statuses", e);
+        }
+    }
+
+    /**
+     * Removes the temporary file if the column was spilled.
+     */
+    @Override
+    public void close() {
+        if (spillChannel == null) {
+            return;
+        }
+        try {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Error removing file for step statuses", e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package simulation;
+
+import model.Controller;
+import model.LightsConfiguration;
+import util.BinaryTraceReader;
+import util.StepStatusSink;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the same traffic with many sets of controller parameters, to find
+ * the best ones for an intersection. Input is read once and kept as a binary
+ * trace in memory (see {@link util.BinaryTrace#encode}), which isn't modified,
+ * so every simulation reads it with its own reader and nothing is parsed again.
+ * Every combination is an independent task on a work-stealing pool.
+ */
+public class ParameterSweep {
+
+    /**
+     * Parameters of the controller.
+     * @param stepsPerCycle how many steps is one cycle
+     * @param minimumSteps least number of steps of a configuration
+     * @param cycle order of configurations
+     * @throws IllegalArgumentException if Controller doesn't accept them, so that a wrong grid
+     *                                  fails before any simulation starts
+     */
+    public record Parameters(int stepsPerCycle, int minimumSteps, List<LightsConfiguration> cycle) {
+
+        public Parameters {
+            Controller.validate(stepsPerCycle, minimumSteps, cycle);
+        }
+
+        public Controller createController() {
+            return new Controller(stepsPerCycle, minimumSteps, cycle);
+        }
+
+        /**
+         * @return cycle in short form, e.g. "R-NS R-WE L-NS L-WE" (R - two right lanes, L - two left lanes)
+         */
+        public String describeCycle() {
+            return cycle.stream()
+                    .map(configuration -> (configuration.getMode() == LightsConfiguration.LightsMode.twoRightLanes
+                            ? "R-" : "L-") + switch (configuration.getWhereGreen()) {
+                                case NORTH, SOUTH -> "NS";
+                                case WEST, EAST -> "WE";
+                            })
+                    .collect(Collectors.joining(" "));
+        }
+    }
+
+    /**
+     * Outcome of the simulation with one set of parameters.
+     * @param parameters the parameters
+     * @param steps number of steps
+     * @param carsLeft number of cars that left the intersection
+     * @param carsWaiting number of cars still waiting after the last step
+     * @param waits wait times of cars that left
+     * @param wallNanos how long the simulation took
+     */
+    public record Result(Parameters parameters, long steps, long carsLeft, int carsWaiting,
+                         WaitTimeHistogram waits, long wallNanos) {
+
+        /**
+         * @return average number of cars leaving in one step
+         */
+        public double throughput() {
+            return steps == 0 ? 0 : (double) carsLeft / steps;
+        }
+    }
+
+    private final ByteBuffer trace;
+
+    private final int parallelism;
+
+    /**
+     * @param trace binary trace with the traffic, shared by all simulations
+     * @param parallelism maximum number of simulations running at the same time
+     */
+    public ParameterSweep(ByteBuffer trace, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+        }
+        this.trace = trace.asReadOnlyBuffer();
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return every combination of the given values
+     */
+    public static List<Parameters> grid(int[] stepsPerCycle, int[] minimumSteps,
+                                        List<List<LightsConfiguration>> cycles) {
+        List<Parameters> grid = new ArrayList<>();
+        for (List<LightsConfiguration> cycle : cycles) {
+            for (int steps : stepsPerCycle) {
+                for (int minimum : minimumSteps) {
+                    grid.add(new Parameters(steps, minimum, cycle));
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Orders of the default cycle which start with its first configuration
+     * (the other ones only start at a different point of the same loop).
+     * @return 6 orders, the default one first
+     */
+    public static List<List<LightsConfiguration>> cycleOrders() {
+        List<List<LightsConfiguration>> orders = new ArrayList<>();
+        List<LightsConfiguration> rest = Controller.DEFAULT_CYCLE.subList(1, Controller.DEFAULT_CYCLE.size());
+        permute(new ArrayList<>(List.of(Controller.DEFAULT_CYCLE.getFirst())), new ArrayList<>(rest), orders);
+        return orders;
+    }
+
+    private static void permute(List<LightsConfiguration> prefix, List<LightsConfiguration> rest,
+                                List<List<LightsConfiguration>> orders) {
+        if (rest.isEmpty()) {
+            orders.add(List.copyOf(prefix));
+            return;
+        }
+        for (int i = 0; i < rest.size(); i++) {
+            LightsConfiguration configuration = rest.remove(i);
+            prefix.add(configuration);
+            permute(prefix, rest, orders);
+            prefix.removeLast();
+            rest.add(i, configuration);
+        }
+    }
+
+    /**
+     * Simulates the traffic with every set of parameters.
+     * @param grid parameters to try
+     * @return results in the same order as the parameters
+     */
+    public List<Result> run(List<Parameters> grid) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Parameters parameters : grid) {
+                futures.add(pool.submit(() -> simulate(parameters)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Sweep was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Simulation failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result simulate(Parameters parameters) {
+        long start = System.nanoTime();
+        SimulationRunner runner = new SimulationRunner(new BinaryTraceReader(trace), false,
+                parameters.createController());
+        WaitTimes waitTimes = new WaitTimes();
+        runner.setWaitTimes(waitTimes);
+        DepartureCounter counter = new DepartureCounter();
+        runner.run(counter);
+        return new Result(parameters, counter.steps, counter.cars, runner.getQueuedCars(),
+                waitTimes.total(), System.nanoTime() - start);
+    }
+
+    /**
+     * Only counts steps and cars, departures aren't needed for the results.
+     */
+    private static class DepartureCounter implements StepStatusSink {
+        long steps = 0;
+        long cars = 0;
+
+        @Override
+        public void startStep() {
+            steps++;
+        }
+
+        @Override
+        public void vehicleLeft(int vehicleId) {
+            cars++;
+        }
+
+        @Override
+        public void endStep() {
+        }
+
+        @Override
+        public void emptySteps(long count) {
+            steps += count;
+        }
+    }
+
+    /**
+     * Prints results from the highest throughput, ties go to shorter waits.
+     * @param results results of {@link #run(List)}
+     * @param out where to print
+     */
+    public static void printReport(List<Result> results, PrintStream out) {
+        List<Result> sorted = results.stream()
+                .sorted(Comparator.comparingDouble(Result::throughput).reversed()
+                        .thenComparingInt(result -> result.waits().percentile(0.99)))
+                .toList();
+        out.printf("%6s %8s %-20s %10s %10s %8s %8s %8s %10s%n", "cycle", "minimum", "order",
+                "cars/step", "waiting", "p50", "p99", "max", "time");
+        for (Result result : sorted) {
+            Parameters parameters = result.parameters();
+            out.printf("%6d %8d %-20s %10.4f %10d %8d %8d %8d %8.3f s%n", parameters.stepsPerCycle(),
+                    parameters.minimumSteps(), parameters.describeCycle(), result.throughput(),
+                    result.carsWaiting(), result.waits().percentile(0.5), result.waits().percentile(0.99),
+                    result.waits().getMax(), result.wallNanos() / 1e9);
+        }
+    }
+}
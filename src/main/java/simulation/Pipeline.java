@@ -0,0 +1,385 @@
+package simulation;
+
+import model.WorldDirection;
+import util.Command;
+import util.SpscQueue;
+import util.StepStatusSink;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs reading of commands, the simulation and writing of the output at the same time.
+ * Commands are read on a parser thread and passed to the simulation in batches,
+ * step results are passed in batches to a writer thread. Batches go through
+ * single producer, single consumer queues and come back empty through another
+ * queue each, so only a fixed number of them is ever allocated and a faster
+ * stage waits for the slower one instead of filling the memory.
+ * <p>
+ * Usage: wrap the input with {@link #input(Iterator)} and the output with
+ * {@link #output(StepStatusSink)}, run the simulation with them on the current
+ * thread and call {@link #finish()}. close() stops the threads if something failed.
+ */
+public class Pipeline implements Closeable {
+
+    private static final WorldDirection[] DIRECTIONS = WorldDirection.values();
+
+    // Marks step in CommandBatch kinds, otherwise kind is startRoad * 4 + endRoad
+    private static final byte STEP = -1;
+
+    private final int batchSize;
+
+    private final SpscQueue<CommandBatch> fullCommands;
+    private final SpscQueue<CommandBatch> emptyCommands;
+    private final SpscQueue<StepBatch> fullSteps;
+    private final SpscQueue<StepBatch> emptySteps;
+
+    private Thread parser;
+    private Thread writer;
+    private BatchingSink sink;
+
+    // First error of any thread, the others stop when they see it
+    private volatile Throwable failure;
+    private volatile boolean closed = false;
+
+    /**
+     * Batch of commands, stored as primitives, because readers may reuse their Command.
+     */
+    private static class CommandBatch {
+        final byte[] kinds;
+        final int[] vehicleIds;
+        int size = 0;
+        boolean last = false;
+
+        CommandBatch(int capacity) {
+            kinds = new byte[capacity];
+            vehicleIds = new int[capacity];
+        }
+    }
+
+    /**
+     * Batch of step results. Every entry of steps is either number of cars which
+     * left in the step (their IDs are next in vehicleIds) or, if negative,
+     * number of consecutive empty steps.
+     */
+    private static class StepBatch {
+        final long[] steps;
+        int[] vehicleIds;
+        int stepCount = 0;
+        int vehicleCount = 0;
+        boolean last = false;
+
+        StepBatch(int capacity) {
+            steps = new long[capacity];
+            vehicleIds = new int[capacity];
+        }
+    }
+
+    public Pipeline() {
+        this(4096, 8);
+    }
+
+    /**
+     * @param batchSize number of commands or steps in one batch
+     * @param batches number of batches between two stages, the most that can wait for the next stage
+     */
+    public Pipeline(int batchSize, int batches) {
+        if (batchSize < 1 || batches < 1) {
+            throw new IllegalArgumentException("Batch size and number of batches have to be positive");
+        }
+        this.batchSize = batchSize;
+        fullCommands = new SpscQueue<>(batches);
+        emptyCommands = new SpscQueue<>(batches);
+        fullSteps = new SpscQueue<>(batches);
+        emptySteps = new SpscQueue<>(batches);
+        for (int i = 0; i < batches; i++) {
+            emptyCommands.offer(new CommandBatch(batchSize));
+            emptySteps.offer(new StepBatch(batchSize));
+        }
+    }
+
+    /**
+     * Starts the parser thread, which reads commands from the source.
+     * The source is used only by that thread from now on.
+     * @param source commands, e.g. read from a file
+     * @return the same commands, to be used by the simulation on one thread
+     */
+    public Iterator<Command> input(Iterator<Command> source) {
+        parser = startThread("pipeline-parser", () -> readCommands(source));
+        return new CommandIterator();
+    }
+
+    /**
+     * Starts the writer thread, which passes step results to the output.
+     * The output is used only by that thread from now on, until {@link #finish()}.
+     * @param output where step results are finally written
+     * @return sink for the simulation, on one thread
+     */
+    public StepStatusSink output(StepStatusSink output) {
+        writer = startThread("pipeline-writer", () -> writeSteps(output));
+        sink = new BatchingSink();
+        return sink;
+    }
+
+    /**
+     * Passes the last step results to the writer thread and waits until everything is written.
+     * Has to be called after the simulation has ended.
+     */
+    public void finish() {
+        if (sink != null) {
+            sink.current.last = true;
+            put(fullSteps, sink.current);
+            sink = null;
+        }
+        join(writer);
+        join(parser);
+        checkFailure();
+    }
+
+    /**
+     * Stops the threads if the pipeline wasn't finished, e.g. after an exception.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : new Thread[]{parser, writer}) {
+            if (thread != null) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readCommands(Iterator<Command> source) {
+        CommandBatch batch = take(emptyCommands);
+        batch.size = 0;
+        while (source.hasNext()) {
+            Command command = source.next();
+            if (command.type == Command.CommandType.step) {
+                batch.kinds[batch.size] = STEP;
+            } else {
+                batch.kinds[batch.size] = (byte) (command.startRoad.ordinal() * 4 + command.endRoad.ordinal());
+                batch.vehicleIds[batch.size] = command.vehicleId;
+            }
+            batch.size++;
+            if (batch.size == batchSize) {
+                put(fullCommands, batch);
+                batch = take(emptyCommands);
+                batch.size = 0;
+            }
+        }
+        batch.last = true;
+        put(fullCommands, batch);
+    }
+
+    private void writeSteps(StepStatusSink output) {
+        while (true) {
+            StepBatch batch = take(fullSteps);
+            int vehicle = 0;
+            for (int i = 0; i < batch.stepCount; i++) {
+                long step = batch.steps[i];
+                if (step < 0) {
+                    output.emptySteps(-step);
+                } else {
+                    output.startStep();
+                    for (long j = 0; j < step; j++) {
+                        output.vehicleLeft(batch.vehicleIds[vehicle++]);
+                    }
+                    output.endStep();
+                }
+            }
+            if (batch.last) {
+                return;
+            }
+            batch.stepCount = 0;
+            batch.vehicleCount = 0;
+            put(emptySteps, batch);
+        }
+    }
+
+    /**
+     * Commands from the parser thread. The same Command is returned every time.
+     */
+    private class CommandIterator implements Iterator<Command> {
+        private final Command command = new Command();
+        private CommandBatch batch;
+        private int index = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (batch == null || index == batch.size) {
+                if (batch != null) {
+                    if (batch.last) {
+                        return false;
+                    }
+                    put(emptyCommands, batch);
+                }
+                batch = take(fullCommands);
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Command next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte kind = batch.kinds[index];
+            if (kind == STEP) {
+                command.type = Command.CommandType.step;
+                command.vehicleId = 0;
+                command.startRoad = null;
+                command.endRoad = null;
+            } else {
+                command.type = Command.CommandType.addVehicle;
+                command.vehicleId = batch.vehicleIds[index];
+                command.startRoad = DIRECTIONS[kind / 4];
+                command.endRoad = DIRECTIONS[kind % 4];
+            }
+            index++;
+            return command;
+        }
+    }
+
+    /**
+     * Collects step results into batches for the writer thread.
+     */
+    private class BatchingSink implements StepStatusSink {
+        private StepBatch current;
+        private int stepStart;
+
+        BatchingSink() {
+            current = take(emptySteps);
+        }
+
+        @Override
+        public void startStep() {
+            // Batch is passed on only between steps
+            if (current.stepCount == batchSize) {
+                current = next();
+            }
+            stepStart = current.vehicleCount;
+        }
+
+        @Override
+        public void vehicleLeft(int vehicleId) {
+            if (current.vehicleCount == current.vehicleIds.length) {
+                current.vehicleIds = Arrays.copyOf(current.vehicleIds, current.vehicleIds.length * 2);
+            }
+            current.vehicleIds[current.vehicleCount++] = vehicleId;
+        }
+
+        @Override
+        public void endStep() {
+            current.steps[current.stepCount++] = current.vehicleCount - stepStart;
+        }
+
+        @Override
+        public void emptySteps(long count) {
+            if (count <= 0) {
+                return;
+            }
+            if (current.stepCount == batchSize) {
+                current = next();
+            }
+            current.steps[current.stepCount++] = -count;
+        }
+
+        private StepBatch next() {
+            put(fullSteps, current);
+            return take(emptySteps);
+        }
+    }
+
+    private Thread startThread(String name, Runnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (PipelineStopped e) {
+                // Other thread has failed or the pipeline was closed
+            } catch (Throwable e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void join(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the pipeline", e);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable error = failure;
+        if (error instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (error != null) {
+            throw new RuntimeException("Pipeline thread failed", error);
+        }
+    }
+
+    /**
+     * Thrown in a thread waiting for another stage when the pipeline has to stop.
+     */
+    private static class PipelineStopped extends RuntimeException {
+        PipelineStopped() {
+            super(null, null, false, false);
+        }
+    }
+
+    private <T> T take(SpscQueue<T> queue) {
+        for (int idle = 0; ; idle++) {
+            T item = queue.poll();
+            if (item != null) {
+                return item;
+            }
+            waitFor(idle);
+        }
+    }
+
+    private <T> void put(SpscQueue<T> queue, T item) {
+        for (int idle = 0; !queue.offer(item); idle++) {
+            waitFor(idle);
+        }
+    }
+
+    /**
+     * Spins for a moment first, batches usually come soon, then sleeps shortly.
+     */
+    private void waitFor(int idle) {
+        if (failure != null || closed) {
+            // Simulation thread reports the failure, other threads just stop
+            if (Thread.currentThread() != parser && Thread.currentThread() != writer) {
+                checkFailure();
+            }
+            throw new PipelineStopped();
+        }
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+}
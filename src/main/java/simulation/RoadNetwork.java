@@ -0,0 +1,463 @@
+package simulation;
+
+import model.WorldDirection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Grid of intersections connected along their roads. A car leaving one
+ * intersection towards its end road arrives at the neighbouring intersection
+ * in that direction on the next step, on the road coming from the opposite side.
+ * Every car has a route - direction in which it leaves each intersection it passes.
+ * <p>
+ * Intersections are split between worker threads in blocks of whole rows.
+ * Every global step each worker steps its intersections, then all workers meet
+ * at a barrier and move cars handed over to them into their queues. Cars going to
+ * another worker's intersections are written to buffers owned by the sender,
+ * so no locks are needed - the barrier makes them visible to the receiver.
+ * Results don't depend on the number of threads.
+ * <p>
+ * IDs of cars which left the network are given to new cars, so memory depends
+ * only on the number of cars in the network, not on how many passed through it.
+ */
+public class RoadNetwork {
+
+    private static final WorldDirection[] DIRECTIONS = WorldDirection.values();
+
+    private final int rows;
+    private final int columns;
+
+    private final SimulationRunner[] intersections;
+
+    // Routes of the cars, indexed by car ID assigned by the network, null for unused IDs
+    private byte[][] routes = new byte[1024][];
+    // Index in the route of the intersection where the car is now
+    private int[] hops = new int[1024];
+    // Number of IDs ever used, IDs of cars which left are reused first
+    private int vehicleCount = 0;
+    private int[] freeIds = new int[1024];
+    private int freeCount = 0;
+
+    private long step = 0;
+    private long addedVehicles = 0;
+    private long exitedVehicles = 0;
+
+    public RoadNetwork(int rows, int columns) {
+        this(rows, columns, index -> new SimulationRunner(Collections.emptyIterator(), false));
+    }
+
+    /**
+     * @param intersection creates intersection with the given index (row * columns + column)
+     */
+    RoadNetwork(int rows, int columns, IntFunction<SimulationRunner> intersection) {
+        if (rows < 1 || columns < 1) {
+            throw new IllegalArgumentException("Network needs at least one intersection");
+        }
+        this.rows = rows;
+        this.columns = columns;
+
+        intersections = new SimulationRunner[rows * columns];
+        for (int i = 0; i < intersections.length; i++) {
+            intersections[i] = intersection.apply(i);
+        }
+    }
+
+    /**
+     * Adds car to the network. Cars can't be added while the network is running,
+     * except by the traffic given to {@link #run(long, int, Runnable)}.
+     * @param row row of the intersection where the car appears (0 is the northernmost)
+     * @param column column of that intersection (0 is the westernmost)
+     * @param startRoad road of that intersection on which the car appears
+     * @param route direction in which the car leaves every intersection on its way,
+     *              after the last one it leaves the network
+     * @return ID of the car
+     */
+    public int addVehicle(int row, int column, WorldDirection startRoad, List<WorldDirection> route) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            throw new IllegalArgumentException("No intersection at " + row + ", " + column);
+        }
+        if (route.isEmpty()) {
+            throw new IllegalArgumentException("Route can't be empty");
+        }
+
+        // Check if the route is possible before adding anything
+        byte[] exits = new byte[route.size()];
+        int intersection = row * columns + column;
+        WorldDirection entry = startRoad;
+        for (int hop = 0; hop < exits.length; hop++) {
+            WorldDirection exit = route.get(hop);
+            if (exit == entry) {
+                throw new IllegalArgumentException("Cars can't turn back, hop " + hop);
+            }
+            exits[hop] = (byte) exit.ordinal();
+            if (hop + 1 < exits.length) {
+                intersection = neighbour(intersection, exit);
+                if (intersection < 0) {
+                    throw new IllegalArgumentException("Route leaves the network at hop " + hop);
+                }
+                entry = exit.opposite();
+            }
+        }
+
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (vehicleCount == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many cars in the network");
+            }
+            if (vehicleCount == routes.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE, routes.length * 2L);
+                routes = Arrays.copyOf(routes, capacity);
+                hops = Arrays.copyOf(hops, capacity);
+            }
+            id = vehicleCount++;
+        }
+        routes[id] = exits;
+        hops[id] = 0;
+        addedVehicles++;
+
+        intersections[row * columns + column].addCar(id, startRoad, route.getFirst());
+        return id;
+    }
+
+    /**
+     * Adds car on a random road coming into the network from outside, with a random
+     * route: at every intersection it goes in any direction except back, until it
+     * leaves the network or makes rows + columns hops.
+     * @param random source of the randomness, the same seed gives the same cars
+     * @return ID of the car
+     */
+    public int addRandomVehicle(Random random) {
+        // Roads from outside: north of the first row, south of the last one, west and east of the columns
+        int entry = random.nextInt(2 * (rows + columns));
+        int row;
+        int column;
+        WorldDirection startRoad;
+        if (entry < 2 * columns) {
+            startRoad = entry < columns ? WorldDirection.NORTH : WorldDirection.SOUTH;
+            row = entry < columns ? 0 : rows - 1;
+            column = entry % columns;
+        } else {
+            entry -= 2 * columns;
+            startRoad = entry < rows ? WorldDirection.WEST : WorldDirection.EAST;
+            row = entry % rows;
+            column = entry < rows ? 0 : columns - 1;
+        }
+
+        List<WorldDirection> route = new ArrayList<>();
+        int intersection = row * columns + column;
+        WorldDirection from = startRoad;
+        while (intersection >= 0 && route.size() < rows + columns) {
+            WorldDirection exit;
+            do {
+                exit = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+            } while (exit == from);
+            route.add(exit);
+            intersection = neighbour(intersection, exit);
+            from = exit.opposite();
+        }
+        return addVehicle(row, column, startRoad, route);
+    }
+
+    /**
+     * Performs given number of steps on all intersections.
+     * @param steps number of steps
+     * @param threads number of worker threads, at most one per row is used
+     */
+    public void run(long steps, int threads) {
+        run(steps, threads, () -> {});
+    }
+
+    /**
+     * Performs given number of steps on all intersections, with cars arriving during the run.
+     * The same worker threads are used for all the steps.
+     * @param steps number of steps
+     * @param threads number of worker threads, at most one per row is used
+     * @param traffic adds cars arriving before every step, e.g. with {@link #addRandomVehicle},
+     *                it's called by one thread at a time while no intersection is stepped
+     */
+    public void run(long steps, int threads, Runnable traffic) {
+        int workers = Math.max(1, Math.min(threads, rows));
+        Partition[] partitions = new Partition[workers];
+        int[] owner = new int[intersections.length];
+        for (int p = 0; p < workers; p++) {
+            int first = rows * p / workers * columns;
+            int end = rows * (p + 1) / workers * columns;
+            partitions[p] = new Partition(p, first, end, workers, partitions, owner);
+            Arrays.fill(owner, first, end, p);
+        }
+
+        if (steps > 0) {
+            traffic.run();
+        }
+        try {
+            if (workers == 1) {
+                for (long s = 0; s < steps; s++) {
+                    int parity = (int) ((step + s) & 1);
+                    partitions[0].stepIntersections(parity);
+                    betweenSteps(partitions, s + 1 < steps ? traffic : null);
+                    partitions[0].receiveCars(parity);
+                }
+            } else {
+                runParallel(partitions, steps, traffic);
+            }
+        } finally {
+            step += steps;
+            releaseExited(partitions);
+        }
+    }
+
+    private void runParallel(Partition[] partitions, long steps, Runnable traffic) {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Run by the last worker reaching the barrier, while the others wait there
+        long[] finished = {0};
+        CyclicBarrier barrier = new CyclicBarrier(partitions.length,
+                () -> betweenSteps(partitions, ++finished[0] < steps ? traffic : null));
+        Thread[] threads = new Thread[partitions.length];
+
+        for (Partition partition : partitions) {
+            threads[partition.index] = new Thread(() -> {
+                try {
+                    for (long s = 0; s < steps && failure.get() == null; s++) {
+                        int parity = (int) ((step + s) & 1);
+                        partition.stepIntersections(parity);
+                        barrier.await();
+                        if (failure.get() != null) {
+                            break;
+                        }
+                        partition.receiveCars(parity);
+                    }
+                } catch (BrokenBarrierException | InterruptedException e) {
+                    // Another worker failed, its exception is reported
+                } catch (Throwable e) {
+                    if (failure.compareAndSet(null, e)) {
+                        // Workers waiting at the barrier or reaching it later get an exception
+                        // instead of waiting for this one forever
+                        for (Thread thread : threads) {
+                            if (thread != Thread.currentThread()) {
+                                thread.interrupt();
+                            }
+                        }
+                    }
+                }
+            }, "network-worker-" + partition.index);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Network simulation was interrupted", e);
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("Network simulation failed", failure.get());
+        }
+    }
+
+    /**
+     * Work done by one thread between stepping the intersections and receiving cars:
+     * IDs of cars which left are freed and cars arriving before the next step are added.
+     * @param traffic null after the last step
+     */
+    private void betweenSteps(Partition[] partitions, Runnable traffic) {
+        releaseExited(partitions);
+        if (traffic != null) {
+            traffic.run();
+        }
+    }
+
+    private void releaseExited(Partition[] partitions) {
+        for (Partition partition : partitions) {
+            exitedVehicles += partition.exitedIds.size;
+            for (int i = 0; i < partition.exitedIds.size; i++) {
+                int id = partition.exitedIds.data[i];
+                routes[id] = null;
+                if (freeCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+                }
+                freeIds[freeCount++] = id;
+            }
+            partition.exitedIds.clear();
+        }
+    }
+
+    /**
+     * @return number of steps performed so far
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return number of cars added to the network so far
+     */
+    public long getAddedVehicles() {
+        return addedVehicles;
+    }
+
+    /**
+     * @return number of cars that finished their routes and left the network
+     */
+    public long getExitedVehicles() {
+        return exitedVehicles;
+    }
+
+    /**
+     * @return number of cars waiting at all intersections
+     */
+    public long getQueuedVehicles() {
+        long queued = 0;
+        for (SimulationRunner intersection : intersections) {
+            queued += intersection.getQueuedCars();
+        }
+        return queued;
+    }
+
+    /**
+     * @return number of cars waiting at the given intersection
+     */
+    public int getQueuedVehicles(int row, int column) {
+        return intersections[row * columns + column].getQueuedCars();
+    }
+
+    /**
+     * Finds intersection next to the given one.
+     * @return index of the neighbour or -1 if there is none in that direction
+     */
+    private int neighbour(int intersection, WorldDirection direction) {
+        int row = intersection / columns;
+        int column = intersection % columns;
+        switch (direction) {
+            case NORTH -> row--;
+            case SOUTH -> row++;
+            case WEST -> column--;
+            case EAST -> column++;
+        }
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            return -1;
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Intersections handled by one worker and cars it hands over to the others.
+     */
+    private class Partition {
+        private final int index;
+        private final int first;
+        private final int end;
+        private final Partition[] partitions;
+        private final int[] owner;
+
+        // outboxes[target partition][step parity], written only by this partition's worker.
+        // Two buffers per target, so that writing in the next step doesn't collide
+        // with the target still reading cars from the previous one.
+        private final HandoffBuffer[][] outboxes;
+
+        // Cars which left the network, their IDs are freed between steps
+        private final HandoffBuffer exitedIds = new HandoffBuffer();
+
+        // Intersection being stepped and parity of the step, used by departures
+        private int current;
+        private int parity;
+
+        private final IntConsumer departures = this::carLeft;
+
+        Partition(int index, int first, int end, int workers, Partition[] partitions, int[] owner) {
+            this.index = index;
+            this.first = first;
+            this.end = end;
+            this.partitions = partitions;
+            this.owner = owner;
+            outboxes = new HandoffBuffer[workers][2];
+            for (HandoffBuffer[] buffers : outboxes) {
+                buffers[0] = new HandoffBuffer();
+                buffers[1] = new HandoffBuffer();
+            }
+        }
+
+        void stepIntersections(int parity) {
+            this.parity = parity;
+            for (HandoffBuffer[] buffers : outboxes) {
+                buffers[parity].clear();
+            }
+            for (current = first; current < end; current++) {
+                intersections[current].step(departures);
+            }
+        }
+
+        /**
+         * Moves cars handed over in this step to the queues of their next intersections.
+         * Senders are read in a fixed order, so the result is deterministic.
+         */
+        void receiveCars(int parity) {
+            for (Partition sender : partitions) {
+                HandoffBuffer buffer = sender.outboxes[index][parity];
+                for (int i = 0; i < buffer.size; i += 3) {
+                    int id = buffer.data[i];
+                    int intersection = buffer.data[i + 1];
+                    WorldDirection entry = DIRECTIONS[buffer.data[i + 2]];
+                    intersections[intersection].addCar(id, entry, DIRECTIONS[routes[id][hops[id]]]);
+                }
+            }
+        }
+
+        private void carLeft(int id) {
+            byte[] route = routes[id];
+            int hop = hops[id];
+            WorldDirection exit = DIRECTIONS[route[hop]];
+            if (hop + 1 == route.length) {
+                exitedIds.add(id);
+                return;
+            }
+            // Car is owned by this worker until it's handed over, so it can update its hop
+            hops[id] = hop + 1;
+            int next = neighbour(current, exit);
+            outboxes[owner[next]][parity].add(id, next, exit.opposite().ordinal());
+        }
+    }
+
+    /**
+     * Growable buffer of (car ID, intersection, entry road) triples, or of single IDs.
+     */
+    private static class HandoffBuffer {
+        private int[] data = new int[48];
+        private int size = 0;
+
+        void add(int id) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = id;
+        }
+
+        void add(int id, int intersection, int entry) {
+            if (size + 3 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size] = id;
+            data[size + 1] = intersection;
+            data[size + 2] = entry;
+            size += 3;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
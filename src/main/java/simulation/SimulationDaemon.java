@@ -0,0 +1,237 @@
+package simulation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import util.Command;
+import util.SimulationInstructionsLoader;
+import util.StepStatusWriter;
+import util.VehicleIds;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the simulation on a live stream of commands instead of a finished file.
+ * Every line of the input is one command in the same JSON form as in the
+ * instructions file, e.g. {"type":"step"}. Commands are applied as soon as they
+ * arrive and after every step its departures are written as one line,
+ * {"leftVehicles":[...]}, and flushed right away.
+ * Input can be a stream (e.g. stdin) or a Unix domain socket, where every
+ * connection gets its own intersection and runs on a separate virtual thread,
+ * so a client waiting for data doesn't hold a platform thread.
+ * Steps taking longer than the latency budget (from reading the command
+ * to flushing its line) are reported to the log.
+ * Every session has its own dictionary of vehicle IDs and an ID is released
+ * once its car has left and was written, so a long session keeps only IDs
+ * of the waiting cars (except IDs of lines rejected after the ID was read).
+ */
+public class SimulationDaemon implements Closeable {
+
+    // Only that many overruns are logged one by one in a session, the rest are only counted
+    private static final int LOGGED_OVERRUNS = 10;
+
+    private final long stepBudgetNanos;
+    private final PrintStream log;
+
+    // Open while listen() is running
+    private volatile ServerSocketChannel server;
+    private volatile Path socketPath;
+    private volatile boolean closed = false;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Statistics of one stream of commands.
+     * @param commands number of applied commands
+     * @param steps number of steps
+     * @param skippedLines number of lines that weren't valid commands
+     * @param overBudget number of steps that took longer than the budget
+     * @param maxStepNanos longest step, in nanoseconds
+     */
+    public record SessionSummary(long commands, long steps, long skippedLines, long overBudget, long maxStepNanos) {}
+
+    /**
+     * @param stepBudgetNanos latency budget of one step in nanoseconds
+     * @param log stream for warnings and summaries, e.g. System.err
+     */
+    public SimulationDaemon(long stepBudgetNanos, PrintStream log) {
+        if (stepBudgetNanos <= 0) {
+            throw new IllegalArgumentException("Step budget has to be positive: " + stepBudgetNanos);
+        }
+        this.stepBudgetNanos = stepBudgetNanos;
+        this.log = log;
+    }
+
+    /**
+     * Simulates one intersection on commands read from the input until it ends.
+     * Output isn't closed.
+     * @param in newline delimited commands
+     * @param out receives a line with departures after every step
+     * @return statistics of the stream
+     */
+    public SessionSummary serve(InputStream in, OutputStream out) {
+        VehicleIds vehicleIds = new VehicleIds();
+        ObjectReader commandReader = SimulationInstructionsLoader.commandReader(vehicleIds);
+        SimulationRunner runner = new SimulationRunner(List.of(), false);
+        runner.setVehicleIds(vehicleIds);
+        // Lines are flushed by the writer, so closing it isn't needed
+        StepStatusWriter writer = StepStatusWriter.lines(out, true, vehicleIds);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        long commands = 0;
+        long steps = 0;
+        long skippedLines = 0;
+        long overBudget = 0;
+        long maxStepNanos = 0;
+        long lineNumber = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long start = System.nanoTime();
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                Command command = parse(commandReader, vehicleIds, line, lineNumber);
+                if (command == null) {
+                    skippedLines++;
+                    continue;
+                }
+                commands++;
+                if (command.type == Command.CommandType.addVehicle) {
+                    runner.addCar(command.vehicleId, command.startRoad, command.endRoad);
+                    continue;
+                }
+
+                writer.startStep();
+                runner.step(vehicleId -> {
+                    writer.vehicleLeft(vehicleId);
+                    // Already copied to the writer's buffer
+                    vehicleIds.release(vehicleId);
+                });
+                writer.endStep();
+                steps++;
+
+                long latency = System.nanoTime() - start;
+                maxStepNanos = Math.max(maxStepNanos, latency);
+                if (latency > stepBudgetNanos && ++overBudget <= LOGGED_OVERRUNS) {
+                    log.printf("Step %d took %d us, budget is %d us%n",
+                            steps, latency / 1000, stepBudgetNanos / 1000);
+                }
+            }
+        } catch (IOException e) {
+            // Connection broken by the client, what was done so far is still summarized
+            log.println("Error reading commands: " + e.getMessage());
+        }
+
+        SessionSummary summary = new SessionSummary(commands, steps, skippedLines, overBudget, maxStepNanos);
+        log.printf("Session finished: %d commands, %d steps, %d skipped lines, %d steps over budget, longest step %d us%n",
+                commands, steps, skippedLines, overBudget, maxStepNanos / 1000);
+        return summary;
+    }
+
+    /**
+     * @return command from the line, null if it isn't a valid command
+     */
+    private Command parse(ObjectReader commandReader, VehicleIds vehicleIds, String line, long lineNumber) {
+        try {
+            Command command = commandReader.readValue(line);
+            if (command.type == null || command.type == Command.CommandType.addVehicle
+                    && (command.startRoad == null || command.endRoad == null)) {
+                // No car will release the ID
+                vehicleIds.release(command.vehicleId);
+                log.println("Skipping incomplete command in line " + lineNumber);
+                return null;
+            }
+            if (command.type != Command.CommandType.addVehicle) {
+                vehicleIds.release(command.vehicleId);
+            }
+            return command;
+        } catch (JsonProcessingException e) {
+            log.println("Skipping invalid command in line " + lineNumber + ": " + e.getOriginalMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Accepts connections on a Unix domain socket until {@link #close()} is called,
+     * every connection is a separate session with its own intersection.
+     * Socket file is removed at the end.
+     * @param socketPath path of the socket file, it can't exist yet
+     */
+    public void listen(Path socketPath) {
+        try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+            this.socketPath = socketPath;
+            server = channel;
+            if (closed) {
+                channel.close();
+            }
+            try {
+                while (true) {
+                    SocketChannel connection = channel.accept();
+                    connections.add(connection);
+                    sessions.submit(() -> serveConnection(connection));
+                }
+            } catch (ClosedChannelException e) {
+                // close() was called
+            } finally {
+                server = null;
+                Files.deleteIfExists(socketPath);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error listening on " + socketPath, e);
+        }
+    }
+
+    private void serveConnection(SocketChannel connection) {
+        try (connection) {
+            serve(Channels.newInputStream(connection), Channels.newOutputStream(connection));
+        } catch (IOException | RuntimeException e) {
+            // Usually the client went away while its output was written
+            log.println("Connection failed: " + e.getMessage());
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones and removes the socket file.
+     * JVM can exit right after it (e.g. in a shutdown hook), so the file isn't left to listen().
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            ServerSocketChannel channel = server;
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(socketPath);
+            }
+            for (SocketChannel connection : connections) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing daemon", e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package simulation;
+
+import model.LightsConfiguration;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Metrics of one simulation, exposed as an MBean. Values are written only by the
+ * thread running the simulation and read by JMX threads, so there are no locks:
+ * the writer publishes every value with a release store and readers load it
+ * with acquire. Writing costs about as much as a plain store and never waits for readers.
+ * SimulationRunner publishes values every few thousand steps, not on every one.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+    private static final VarHandle STEPS;
+    private static final VarHandle COMMANDS;
+    private static final VarHandle STEPS_PER_SECOND;
+    private static final VarHandle CONFIGURATION;
+    private static final VarHandle PHASE_SWITCHES;
+    private static final VarHandle FALLBACKS;
+    private static final VarHandle QUEUE_LENGTHS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STEPS = lookup.findVarHandle(SimulationMetrics.class, "steps", long.class);
+            COMMANDS = lookup.findVarHandle(SimulationMetrics.class, "commands", long.class);
+            STEPS_PER_SECOND = lookup.findVarHandle(SimulationMetrics.class, "stepsPerSecond", double.class);
+            CONFIGURATION = lookup.findVarHandle(SimulationMetrics.class, "configuration", LightsConfiguration.class);
+            PHASE_SWITCHES = lookup.findVarHandle(SimulationMetrics.class, "phaseSwitches", long.class);
+            FALLBACKS = lookup.findVarHandle(SimulationMetrics.class, "emptyLaneFallbacks", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Written only through the VarHandles
+    private long steps;
+    private long commands;
+    private double stepsPerSecond;
+    private LightsConfiguration configuration;
+    private long phaseSwitches;
+    private long emptyLaneFallbacks;
+    private final int[] queueLengths = new int[8];
+
+    // Used by the simulation thread only, for steps per second
+    private long lastPublishedSteps = 0;
+    private long lastPublishedTime = System.nanoTime();
+
+    /**
+     * Called by the simulation thread. Steps per second are counted since the previous call,
+     * so the rate doesn't depend on how often, or by how many readers, it's read.
+     * @param steps steps done so far
+     * @param commands commands done so far
+     */
+    void publishProgress(long steps, long commands) {
+        long now = System.nanoTime();
+        if (now > lastPublishedTime) {
+            STEPS_PER_SECOND.setRelease(this, (steps - lastPublishedSteps) * 1e9 / (now - lastPublishedTime));
+            lastPublishedSteps = steps;
+            lastPublishedTime = now;
+        }
+        STEPS.setRelease(this, steps);
+        COMMANDS.setRelease(this, commands);
+    }
+
+    /**
+     * Called by the simulation thread.
+     * @param configuration configuration of the last step, null before the first one
+     * @param phaseSwitches switches counted by the controller
+     * @param emptyLaneFallbacks third mode fallbacks counted by the controller
+     */
+    void publishController(LightsConfiguration configuration, long phaseSwitches, long emptyLaneFallbacks) {
+        CONFIGURATION.setRelease(this, configuration);
+        PHASE_SWITCHES.setRelease(this, phaseSwitches);
+        FALLBACKS.setRelease(this, emptyLaneFallbacks);
+    }
+
+    /**
+     * Called by the simulation thread.
+     * @param lane index of the lane, in the order of {@link #getQueueLengths()}
+     * @param length number of cars on the lane
+     */
+    void publishQueueLength(int lane, int length) {
+        QUEUE_LENGTHS.setRelease(queueLengths, lane, length);
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, so they can be
+     * seen e.g. in JConsole as trafficlights:type=Simulation,name=...
+     * @param name name of the simulation, has to be unique in the process
+     */
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName(name));
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("Simulation " + name + " is already registered", e);
+        } catch (JMException e) {
+            throw new RuntimeException("Error registering simulation metrics", e);
+        }
+    }
+
+    /**
+     * Removes the metrics registered with {@link #register(String)}.
+     * @param name name given when registering
+     */
+    public void unregister(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (JMException e) {
+            throw new RuntimeException("Error unregistering simulation metrics", e);
+        }
+    }
+
+    static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("trafficlights:type=Simulation,name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public long getSteps() {
+        return (long) STEPS.getAcquire(this);
+    }
+
+    @Override
+    public long getCommandsProcessed() {
+        return (long) COMMANDS.getAcquire(this);
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return (double) STEPS_PER_SECOND.getAcquire(this);
+    }
+
+    @Override
+    public String getCurrentConfiguration() {
+        LightsConfiguration current = (LightsConfiguration) CONFIGURATION.getAcquire(this);
+        return current == null ? "none" : current.getMode() + " " + current.getWhereGreen();
+    }
+
+    @Override
+    public int[] getQueueLengths() {
+        int[] lengths = new int[queueLengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = (int) QUEUE_LENGTHS.getAcquire(queueLengths, i);
+        }
+        return lengths;
+    }
+
+    @Override
+    public long getPhaseSwitches() {
+        return (long) PHASE_SWITCHES.getAcquire(this);
+    }
+
+    @Override
+    public long getEmptyLaneFallbacks() {
+        return (long) FALLBACKS.getAcquire(this);
+    }
+}
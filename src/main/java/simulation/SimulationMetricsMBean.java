@@ -0,0 +1,32 @@
+package simulation;
+
+/**
+ * Attributes of a running simulation visible through JMX.
+ */
+public interface SimulationMetricsMBean {
+
+    long getSteps();
+
+    long getCommandsProcessed();
+
+    /**
+     * @return steps per second between the two latest updates of the metrics
+     * (every few thousand steps), the same for every reader
+     */
+    double getStepsPerSecond();
+
+    /**
+     * @return configuration used in the last step, e.g. "twoRightLanes NORTH"
+     */
+    String getCurrentConfiguration();
+
+    /**
+     * @return lengths of all lanes: north right, north left, south right, south left,
+     * west right, west left, east right, east left
+     */
+    int[] getQueueLengths();
+
+    long getPhaseSwitches();
+
+    long getEmptyLaneFallbacks();
+}
@@ -3,9 +3,18 @@ package simulation;
 import model.*;
 import util.Command;
 import util.CommandLineWriter;
-
+import util.StepStatusSink;
+import util.StepStatusWriter;
+import util.VehicleIds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * This class is responsible for running the simulation.
@@ -20,35 +29,445 @@ public class SimulationRunner implements Runnable{
     private final CarQueue westernRoad = new CarQueue(WorldDirection.WEST);
     private final CarQueue easternRoad = new CarQueue(WorldDirection.EAST);
 
-    private final Controller controller = new Controller();
+    private final ControllerStrategy controller;
 
-    private final List<Command> commands;
+    // Commands are consumed one by one, so they can be streamed from the input file
+    private final Iterator<Command> commands;
 
     private int stepCounter = 0;
 
-    private final List<List<Integer>> stepStatuses = new LinkedList<>();
+    // Output of run() without a sink
+    private final StepStatusStore stepStatuses = new StepStatusStore();
 
     private CommandLineWriter writer = new CommandLineWriter();
 
     private final boolean ifDraw;
 
+    // Configuration used in the last step
+    private LightsConfiguration lastConfiguration;
+
+    // Kinds of lanes for handling many steps at once
+    private static final int LEFT_LANE = 0;
+    private static final int RIGHT_LANE = 1;
+    private static final int GREEN_ARROW = 2;
+
+    // Lanes with green light used by stableSteps(), reused so that it doesn't allocate
+    private final CarQueue[] greenRoads = new CarQueue[4];
+    private final int[] greenLanes = new int[4];
+    private final int[] leaving = new int[4];
+
+    // Progress, saved in snapshots
+    private long commandsDone = 0;
+    private long stepsDone = 0;
+
+    // Null if snapshots aren't taken
+    private SnapshotWriter snapshots;
+    private long snapshotInterval;
+    private long lastSnapshotStep = 0;
+    private StepStatusWriter snapshotOutput;
+
+    // Null if metrics aren't published
+    private SimulationMetrics metrics;
+    private long lastPublishedStep = 0;
+    // Values are published every that many steps, so it costs almost nothing per step
+    private static final long METRICS_INTERVAL = 4096;
+
+    // Null if wait times aren't recorded
+    private WaitTimes waitTimes;
+
+    // IDs of the cars which aren't "vehicle<N>" are coded here, needed for snapshots
+    private VehicleIds vehicleIds = new VehicleIds();
+
     public SimulationRunner(List<Command> commands, boolean ifDraw) {
+        this(commands.iterator(), ifDraw);
+    }
+
+    /**
+     * Creates runner reading commands lazily, e.g. straight from
+     * {@link util.CommandReader}. Each command is read only when
+     * the simulation gets to it.
+     * @param commands commands to perform, in order
+     * @param ifDraw whether to draw the intersection to the console
+     */
+    public SimulationRunner(Iterator<Command> commands, boolean ifDraw) {
+        this(commands, ifDraw, new Controller());
+    }
+
+    /**
+     * Creates runner with a different lights policy than the default {@link Controller}.
+     * @param commands commands to perform, in order
+     * @param ifDraw whether to draw the intersection to the console
+     * @param controller policy deciding which lights are green, used only by this runner
+     */
+    public SimulationRunner(Iterator<Command> commands, boolean ifDraw, ControllerStrategy controller) {
         this.commands = commands;
         this.ifDraw = ifDraw;
+        this.controller = controller;
+    }
+
+    /**
+     * Makes run() take a snapshot every given number of steps. Snapshots are
+     * taken between steps, when many steps are done at once it can be a bit later.
+     * Output of run() has to be a {@link StepStatusWriter}, it's flushed before
+     * every snapshot, so the output file has everything the snapshot counts.
+     * @param snapshots writer saving the snapshots, closing it is up to the caller
+     * @param interval number of steps between snapshots
+     */
+    public void enableSnapshots(SnapshotWriter snapshots, long interval){
+        if(interval < 1){
+            throw new IllegalArgumentException("Snapshot interval has to be positive: " + interval);
+        }
+        this.snapshots = snapshots;
+        this.snapshotInterval = interval;
+    }
+
+    /**
+     * Makes the runner publish its progress, queues and controller statistics
+     * to the metrics while running, every few thousand steps and at the end of run().
+     * @param metrics metrics of this simulation, e.g. registered in JMX
+     */
+    public void setMetrics(SimulationMetrics metrics){
+        this.metrics = metrics;
+        publishMetrics();
+    }
+
+    /**
+     * Replaces the writer drawing the intersection when ifDraw is on,
+     * e.g. with one drawing only every few steps.
+     * @param writer writer used for drawing
+     */
+    public void setCommandLineWriter(CommandLineWriter writer){
+        this.writer = writer;
+    }
+
+    /**
+     * Keeps cars of all roads outside of the Java heap, see {@link CarQueue#useOffHeapLanes()}.
+     * Has to be called before the simulation starts (and before restoring a snapshot).
+     */
+    public void useOffHeapLanes(){
+        for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+            road.useOffHeapLanes();
+        }
+    }
+
+    /**
+     * Makes run() record how long every car waited before leaving the intersection.
+     * @param waitTimes histograms for the wait times
+     */
+    public void setWaitTimes(WaitTimes waitTimes){
+        this.waitTimes = waitTimes;
+    }
+
+    /**
+     * Sets the dictionary in which vehicle IDs of the commands are coded, e.g.
+     * {@link util.CommandSource#vehicleIds()} of the input. Snapshots save names
+     * of the queued cars from it and restoring puts them back into it.
+     * @param vehicleIds dictionary of this run
+     */
+    public void setVehicleIds(VehicleIds vehicleIds){
+        this.vehicleIds = vehicleIds;
+    }
+
+    /**
+     * Restores queues and controller from the snapshot and skips commands
+     * which were done before it. Has to be called before run(), output of run()
+     * should continue the output saved with the snapshot.
+     * @param snapshot state of an earlier simulation with the same commands
+     */
+    public void restore(Snapshot snapshot){
+        try(DataInputStream in = new DataInputStream(snapshot.stateStream())){
+            stepCounter = in.readInt();
+            for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+                road.readFrom(in);
+            }
+            controller.restoreState(in);
+            readVehicleNames(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading snapshot", e);
+        }
+
+        for(long i = 0; i < snapshot.commands(); i++){
+            if(!commands.hasNext()){
+                throw new IllegalStateException("Snapshot is further than the end of the commands");
+            }
+            commands.next();
+        }
+        commandsDone = snapshot.commands();
+        stepsDone = snapshot.steps();
+        lastSnapshotStep = stepsDone;
     }
 
     /** Run simulation. Performs every command passed
-     * on a list to the constructor and saves output.
+     * to the constructor and saves output.
      */
     public void run(){
-        for(Command command : commands){
+        run(stepStatuses);
+    }
+
+    /**
+     * Run simulation, passing output of every step to the sink as soon as
+     * the step is done. Nothing is saved in {@link #getStepStatuses()}.
+     * Steps while there are no cars, up to the next arrival, are done all at once
+     * (unless the intersection is drawn), which gives the same output much faster.
+     * @param output receives cars that left the intersection on every step
+     */
+    public void run(StepStatusSink output){
+        // Created once, so that steps don't allocate anything
+        IntConsumer departures = output::vehicleLeft;
+
+        if(snapshots != null){
+            if(!(output instanceof StepStatusWriter writer)){
+                throw new IllegalStateException("Snapshots need output written by StepStatusWriter");
+            }
+            snapshotOutput = writer;
+        }
+
+        while(commands.hasNext()){
+            Command command = commands.next();
             if(command.type == Command.CommandType.addVehicle){
-                addCar(new Car(command.vehicleId, command.startRoad, command.endRoad), command.startRoad);
+                addCar(command.vehicleId, command.startRoad, command.endRoad);
+                commandsDone++;
+            } else if(ifDraw){
+                output.startStep();
+                step(departures);
+                output.endStep();
+                countSteps(1);
+            } else {
+                // Until the next car arrives everything depends only on the queues,
+                // so all steps before it are done together
+                long steps = 1;
+                Command arrival = null;
+                while(commands.hasNext()){
+                    Command next = commands.next();
+                    if(next.type == Command.CommandType.addVehicle){
+                        arrival = next;
+                        break;
+                    }
+                    steps++;
+                }
+                runSteps(steps, output, departures);
+                if(arrival != null){
+                    addCar(arrival.vehicleId, arrival.startRoad, arrival.endRoad);
+                    commandsDone++;
+                }
+            }
+        }
+        if(metrics != null){
+            publishMetrics();
+        }
+    }
+
+    /**
+     * Performs steps during which no car arrives. Steps while all queues are empty
+     * are skipped at once and while the lights configuration doesn't change,
+     * cars leaving in many steps are taken from the lanes together.
+     */
+    private void runSteps(long steps, StepStatusSink output, IntConsumer departures){
+        while(steps > 0){
+            if(queuesEmpty()){
+                long skipped = controller.skipIdleSteps(steps);
+                output.emptySteps(skipped);
+                countSteps(skipped);
+                steps -= skipped;
+                if(steps == 0){
+                    break;
+                }
+                // Otherwise controller still sees some cars, normal step will update it
+            }
+
+            output.startStep();
+            step(departures);
+            output.endStep();
+            countSteps(1);
+            steps--;
+
+            if(steps > 0){
+                long stable = stableSteps(steps, output);
+                countSteps(stable);
+                steps -= stable;
+            }
+        }
+    }
+
+    /**
+     * Counts finished steps (each one is a command) and takes a snapshot
+     * if enough of them passed since the last one.
+     */
+    private void countSteps(long steps){
+        commandsDone += steps;
+        stepsDone += steps;
+        if(snapshots != null && stepsDone - lastSnapshotStep >= snapshotInterval){
+            snapshots.submit(takeSnapshot());
+            lastSnapshotStep = stepsDone;
+        }
+        if(metrics != null && stepsDone - lastPublishedStep >= METRICS_INTERVAL){
+            publishMetrics();
+        }
+    }
+
+    private void publishMetrics(){
+        lastPublishedStep = stepsDone;
+        metrics.publishProgress(stepsDone, commandsDone);
+        metrics.publishController(lastConfiguration, controller.getPhaseSwitches(),
+                controller.getEmptyLaneFallbacks());
+        int lane = 0;
+        for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+            metrics.publishQueueLength(lane++, road.getRightLaneLength());
+            metrics.publishQueueLength(lane++, road.getLeftLaneLength());
+        }
+    }
+
+    /**
+     * Copies state of the simulation. Only encoding to an array is done here,
+     * saving it to the file is left to the snapshot writer's thread.
+     */
+    private Snapshot takeSnapshot(){
+        snapshotOutput.flush();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(stepCounter);
+            for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+                road.writeTo(out);
+            }
+            controller.saveState(out);
+            writeVehicleNames(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating snapshot", e);
+        }
+        return new Snapshot(commandsDone, stepsDone, snapshotOutput.getLength(), snapshotOutput.isPretty(),
+                snapshotOutput.hasSteps(), bytes.toByteArray());
+    }
+
+    /**
+     * Saves IDs of queued cars which aren't "vehicle<N>", their codes are valid
+     * only in this program, so restoring needs them to give the cars the same codes.
+     */
+    private void writeVehicleNames(DataOutputStream out) throws IOException {
+        int named = 0;
+        for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+            for(int i = 0; i < road.getRightLaneLength(); i++){
+                named += road.rightLaneIdAt(i) < 0 ? 1 : 0;
+            }
+            for(int i = 0; i < road.getLeftLaneLength(); i++){
+                named += road.leftLaneIdAt(i) < 0 ? 1 : 0;
+            }
+        }
+        out.writeInt(named);
+        for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+            for(int i = 0; i < road.getRightLaneLength(); i++){
+                writeVehicleName(out, road.rightLaneIdAt(i));
+            }
+            for(int i = 0; i < road.getLeftLaneLength(); i++){
+                writeVehicleName(out, road.leftLaneIdAt(i));
+            }
+        }
+    }
+
+    private void writeVehicleName(DataOutputStream out, int vehicleId) throws IOException {
+        if(vehicleId < 0){
+            out.writeInt(vehicleId);
+            out.writeUTF(vehicleIds.name(vehicleId));
+        }
+    }
+
+    private void readVehicleNames(DataInputStream in) throws IOException {
+        int named = in.readInt();
+        for(int i = 0; i < named; i++){
+            int vehicleId = in.readInt();
+            vehicleIds.restore(vehicleId, in.readUTF());
+        }
+    }
+
+    /**
+     * Performs next steps with the same lights configuration as the last one, as many
+     * as the controller allows and as long as no lane with green light becomes empty
+     * (it could make the controller change the configuration).
+     * Gives the same output and queues as calling step() for each of them.
+     * @param maxSteps maximum number of steps
+     * @param output receives cars that left on every step
+     * @return number of performed steps
+     */
+    private long stableSteps(long maxSteps, StepStatusSink output){
+        int steps = (int) Math.min(maxSteps, controller.stableSteps());
+        if(steps <= 0){
+            return 0;
+        }
+
+        // Lanes with green light in the order in which step() lets cars leave
+        WorldDirection whereGreen = lastConfiguration.getWhereGreen();
+        int count = 0;
+        if(lastConfiguration.getMode() == LightsConfiguration.LightsMode.twoRightLanes){
+            count = addGreenLane(count, whereGreen, RIGHT_LANE);
+            count = addGreenLane(count, whereGreen.opposite(), RIGHT_LANE);
+        } else if(lastConfiguration.getMode() == LightsConfiguration.LightsMode.twoLeftLanes){
+            count = addGreenLane(count, whereGreen, LEFT_LANE);
+            count = addGreenLane(count, whereGreen.opposite(), LEFT_LANE);
+            count = addGreenLane(count, whereGreen.leftTurn(), GREEN_ARROW);
+            count = addGreenLane(count, whereGreen.rightTurn(), GREEN_ARROW);
+        } else {
+            count = addGreenLane(count, whereGreen, LEFT_LANE);
+            count = addGreenLane(count, whereGreen, RIGHT_LANE);
+            count = addGreenLane(count, whereGreen.rightTurn(), GREEN_ARROW);
+        }
+
+        // In third mode controller doesn't check for empty lanes
+        boolean emptyLaneMatters = lastConfiguration.getMode() != LightsConfiguration.LightsMode.leftAndRightLane;
+        for(int i = 0; i < count; i++){
+            int length = greenLanes[i] == LEFT_LANE
+                    ? greenRoads[i].getLeftLaneLength() : greenRoads[i].getRightLaneLength();
+            if(greenLanes[i] == GREEN_ARROW){
+                // Only cars going right leave, lane becomes empty only if all of them do
+                leaving[i] = greenRoads[i].rightTurnsAhead(steps);
+                if(emptyLaneMatters && leaving[i] == length && length > 0){
+                    steps = Math.min(steps, length);
+                }
             } else {
-                List<Integer> carsLeft = step();
-                stepStatuses.add(carsLeft);
+                leaving[i] = Math.min(steps, length);
+                if(emptyLaneMatters && length > 0){
+                    steps = Math.min(steps, length);
+                }
+            }
+        }
+
+        for(int step = 0; step < steps; step++){
+            output.startStep();
+            for(int i = 0; i < count; i++){
+                if(step < leaving[i]){
+                    output.vehicleLeft(greenLanes[i] == LEFT_LANE
+                            ? greenRoads[i].leftLaneIdAt(step) : greenRoads[i].rightLaneIdAt(step));
+                    if(waitTimes != null){
+                        recordWait(greenRoads[i], greenLanes[i] == LEFT_LANE, step, stepsDone + step);
+                    }
+                }
             }
+            output.endStep();
+        }
+
+        for(int i = 0; i < count; i++){
+            int left = Math.min(leaving[i], steps);
+            if(greenLanes[i] == LEFT_LANE){
+                greenRoads[i].dropLeftLane(left);
+            } else {
+                greenRoads[i].dropRightLane(left);
+            }
+        }
+
+        controller.skipStableSteps(steps);
+        // Same updates as step() does, controller isn't told about
+        // the green arrow road in third mode there either
+        int updatedRoads = lastConfiguration.getMode() == LightsConfiguration.LightsMode.leftAndRightLane
+                ? 1 : count;
+        for(int i = 0; i < updatedRoads; i++){
+            controller.updateQueueLengths(greenRoads[i].getRightLaneLength(), greenRoads[i].getLeftLaneLength(),
+                    greenRoads[i].getDirection());
         }
+        return steps;
+    }
+
+    private int addGreenLane(int index, WorldDirection direction, int lane){
+        greenRoads[index] = directionToRoad(direction);
+        greenLanes[index] = lane;
+        return index + 1;
     }
 
     /**
@@ -56,6 +475,32 @@ public class SimulationRunner implements Runnable{
      * @return List of lists of cars that left on every step.
      */
     public List<List<Integer>> getStepStatuses(){
+        return stepStatuses.asLists();
+    }
+
+    /**
+     * @return number of cars waiting on all roads of the intersection
+     */
+    public int getQueuedCars(){
+        int queued = 0;
+        for(CarQueue road : List.of(northernRoad, southernRoad, westernRoad, easternRoad)){
+            queued += road.getRightLaneLength() + road.getLeftLaneLength();
+        }
+        return queued;
+    }
+
+    private boolean queuesEmpty(){
+        return northernRoad.getRightLaneLength() + northernRoad.getLeftLaneLength()
+                + southernRoad.getRightLaneLength() + southernRoad.getLeftLaneLength()
+                + westernRoad.getRightLaneLength() + westernRoad.getLeftLaneLength()
+                + easternRoad.getRightLaneLength() + easternRoad.getLeftLaneLength() == 0;
+    }
+
+    /**
+     * Return simulation's output in the compact form it's stored in.
+     * @return cars that left on every step of {@link #run()}
+     */
+    public StepStatusStore getStepStatusStore(){
         return stepStatuses;
     }
 
@@ -65,7 +510,22 @@ public class SimulationRunner implements Runnable{
      * @return list of IDs of cars that left the intersection on this step.
      */
     public List<Integer> step(){
+        List<Integer> carsLeft = new LinkedList<>();
+        step(carsLeft::add);
+        return carsLeft;
+    }
+
+    /**
+     * Performs one step of the simulation, passing IDs of cars that left
+     * the intersection to the given consumer. Unlike {@link #step()}
+     * it doesn't allocate anything, so the same consumer can be reused
+     * for every step.
+     * @param departures receives IDs of cars that left the intersection, in order
+     * @return number of cars that left the intersection on this step
+     */
+    public int step(IntConsumer departures){
         LightsConfiguration currentConfiguration = controller.step();
+        lastConfiguration = currentConfiguration;
         if(ifDraw){
             writer.draw(stepCounter++, currentConfiguration,
                     northernRoad.getRightLaneLength(), northernRoad.getLeftLaneLength(),
@@ -80,7 +540,7 @@ public class SimulationRunner implements Runnable{
             // Opposite to road with green light - also green light
             CarQueue road2 = directionToRoad(currentConfiguration.getWhereGreen().opposite());
 
-            return oppositeRightLanes(road1, road2);
+            return oppositeRightLanes(road1, road2, departures);
 
         } else if (currentConfiguration.getMode() == LightsConfiguration.LightsMode.twoLeftLanes) {
             // Opposite to road with green light - also green light
@@ -90,14 +550,14 @@ public class SimulationRunner implements Runnable{
             CarQueue road3 = directionToRoad(currentConfiguration.getWhereGreen().leftTurn());
             CarQueue road4 = directionToRoad(currentConfiguration.getWhereGreen().rightTurn());
 
-            return oppositeLeftLanes(road1, road2, road3, road4);
+            return oppositeLeftLanes(road1, road2, road3, road4, departures);
 
         } else {
             // Road with green arrow, one on our left when we are on road1
             // So .rightTurn(), because it works from opposite direction
             CarQueue road2 = directionToRoad(currentConfiguration.getWhereGreen().rightTurn());
 
-            return bothLanesOneDirection(road1, road2);
+            return bothLanesOneDirection(road1, road2, departures);
         }
     }
 
@@ -109,17 +569,28 @@ public class SimulationRunner implements Runnable{
      * @param startRoad road on which that car appears
      */
     public void addCar(Car car, WorldDirection startRoad) {
-        CarQueue road = switch (startRoad) {
-            case NORTH -> northernRoad;
-            case SOUTH -> southernRoad;
-            case WEST -> westernRoad;
-            case EAST -> easternRoad;
-        };
+        addCar(car.getId(), startRoad, car.getTurn());
+    }
 
-        if(car.getTurn().equals(TurnDirection.LEFT)){
-            road.addLeftLane(car);
+    /**
+     * Register new car arriving at the intersection, without
+     * creating Car object for it.
+     * @param vehicleId ID of the new car
+     * @param startRoad road on which that car appears
+     * @param endRoad road on which that car leaves
+     */
+    public void addCar(int vehicleId, WorldDirection startRoad, WorldDirection endRoad) {
+        addCar(vehicleId, startRoad, TurnDirection.between(startRoad, endRoad));
+    }
+
+    private void addCar(int vehicleId, WorldDirection startRoad, TurnDirection turn) {
+        CarQueue road = directionToRoad(startRoad);
+
+        // Car waits from the next step, counted by run()
+        if(turn == TurnDirection.LEFT){
+            road.addLeftLane(vehicleId, (int) stepsDone);
         } else {
-            road.addRightLane(car);
+            road.addRightLane(vehicleId, turn, (int) stepsDone);
         }
 
         controller.updateQueueLengths(road.getRightLaneLength(), road.getLeftLaneLength(), startRoad);
@@ -130,13 +601,14 @@ public class SimulationRunner implements Runnable{
      * for 2 opposite directions.
      * @param road1 Road with green light
      * @param road2 Road opposite to road1 (also with green light)
-     * @return List of IDs of cars that leave the intersection
+     * @param departures receives IDs of cars that leave the intersection
+     * @return number of cars that leave the intersection
      */
-    private List<Integer> oppositeRightLanes(CarQueue road1, CarQueue road2) {
-        List<Integer> carsLeft = new LinkedList<>();
+    private int oppositeRightLanes(CarQueue road1, CarQueue road2, IntConsumer departures) {
+        int carsLeft = 0;
 
-        road1.leaveRightLane().ifPresent(c -> carsLeft.add(c.getId()) );
-        road2.leaveRightLane().ifPresent(c -> carsLeft.add(c.getId()) );
+        carsLeft += leaveRightLane(road1, departures);
+        carsLeft += leaveRightLane(road2, departures);
 
         // Controller updates its data
         controller.updateQueueLengths(road1.getRightLaneLength(), road1.getLeftLaneLength(), road1.getDirection());
@@ -152,18 +624,20 @@ public class SimulationRunner implements Runnable{
      * @param road2 Road opposite to road1 (also with green light)
      * @param greenArrowRoad3 road with green arrow
      * @param greenArrowRoad4 other road with green arrow
-     * @return List of IDs of cars that leave the intersection
+     * @param departures receives IDs of cars that leave the intersection
+     * @return number of cars that leave the intersection
      */
-    private List<Integer> oppositeLeftLanes(CarQueue road1, CarQueue road2,
-                                            CarQueue greenArrowRoad3, CarQueue greenArrowRoad4) {
-        List<Integer> carsLeft = new LinkedList<>();
+    private int oppositeLeftLanes(CarQueue road1, CarQueue road2,
+                                  CarQueue greenArrowRoad3, CarQueue greenArrowRoad4,
+                                  IntConsumer departures) {
+        int carsLeft = 0;
 
         // Cars moving from left lanes
-        road1.leaveLeftLane().ifPresent(c -> carsLeft.add(c.getId()));
-        road2.leaveLeftLane().ifPresent(c -> carsLeft.add(c.getId()));
+        carsLeft += leaveLeftLane(road1, departures);
+        carsLeft += leaveLeftLane(road2, departures);
 
-        greenArrowRoad3.leaveRightLaneGreenArrow().ifPresent(c -> carsLeft.add(c.getId()));
-        greenArrowRoad4.leaveRightLaneGreenArrow().ifPresent(c -> carsLeft.add(c.getId()));
+        carsLeft += leaveGreenArrow(greenArrowRoad3, departures);
+        carsLeft += leaveGreenArrow(greenArrowRoad4, departures);
 
 
         // Controller updates its data
@@ -182,16 +656,17 @@ public class SimulationRunner implements Runnable{
      * Handle green light for both lanes in one direction.
      * @param road Road with green light
      * @param greenArrowRoad road to its left, with green arrow
-     * @return List of IDs of cars that leave the intersection
+     * @param departures receives IDs of cars that leave the intersection
+     * @return number of cars that leave the intersection
      */
-    private List<Integer> bothLanesOneDirection(CarQueue road, CarQueue greenArrowRoad) {
-        List<Integer> carsLeft = new LinkedList<>();
+    private int bothLanesOneDirection(CarQueue road, CarQueue greenArrowRoad, IntConsumer departures) {
+        int carsLeft = 0;
 
-        road.leaveLeftLane().ifPresent(c -> carsLeft.add(c.getId()));
-        road.leaveRightLane().ifPresent(c -> carsLeft.add(c.getId()));
+        carsLeft += leaveLeftLane(road, departures);
+        carsLeft += leaveRightLane(road, departures);
 
         // Green arrow for turning right from the road to our left (doesn't create collision)
-        greenArrowRoad.leaveRightLaneGreenArrow().ifPresent(c -> carsLeft.add(c.getId()));
+        carsLeft += leaveGreenArrow(greenArrowRoad, departures);
 
         // Controller updates its data
         controller.updateQueueLengths(road.getRightLaneLength(), road.getLeftLaneLength(), road.getDirection());
@@ -199,6 +674,58 @@ public class SimulationRunner implements Runnable{
         return carsLeft;
     }
 
+    /*
+     * Cars leave through methods below, so that their wait times can be recorded
+     * while they are still in the lane.
+     */
+
+    private int leaveLeftLane(CarQueue road, IntConsumer departures){
+        if(waitTimes != null && road.getLeftLaneLength() > 0){
+            recordWait(road, true, 0, stepsDone);
+        }
+        return leave(road.leaveLeftLane(), departures);
+    }
+
+    private int leaveRightLane(CarQueue road, IntConsumer departures){
+        if(waitTimes != null && road.getRightLaneLength() > 0){
+            recordWait(road, false, 0, stepsDone);
+        }
+        return leave(road.leaveRightLane(), departures);
+    }
+
+    private int leaveGreenArrow(CarQueue road, IntConsumer departures){
+        if(waitTimes != null && road.rightTurnsAhead(1) == 1){
+            recordWait(road, false, 0, stepsDone);
+        }
+        return leave(road.leaveRightLaneGreenArrow(), departures);
+    }
+
+    /**
+     * Records wait time of a car leaving on the given step.
+     * @param road road of the car
+     * @param leftLane whether the car is on the left lane
+     * @param position position of the car in the lane
+     * @param step number of the step on which it leaves
+     */
+    private void recordWait(CarQueue road, boolean leftLane, int position, long step){
+        // Steps are kept as ints, difference is right as long as nobody waits 2^31 steps
+        if(leftLane){
+            waitTimes.record(road.getDirection(), TurnDirection.LEFT, (int) step - road.leftLaneArrivalAt(position));
+        } else {
+            waitTimes.record(road.getDirection(), road.rightLaneTurnAt(position),
+                    (int) step - road.rightLaneArrivalAt(position));
+        }
+    }
+
+    // Queues return NO_CAR instead of ID when no car has left
+    private static int leave(int vehicleId, IntConsumer departures) {
+        if(vehicleId == CarQueue.NO_CAR){
+            return 0;
+        }
+        departures.accept(vehicleId);
+        return 1;
+    }
+
     /**
      * Map directions to roads.
      * @param direction direction to get a road
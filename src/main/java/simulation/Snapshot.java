@@ -0,0 +1,85 @@
+package simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * State of a simulation in the middle of a run, taken by {@link SimulationRunner}
+ * every few steps. Queues and controller are kept already encoded in the state bytes,
+ * so that the snapshot can be saved by another thread while the simulation goes on.
+ * <p>
+ * File starts with "TLCS" and version byte, then the fields in order:
+ * commands and steps as longs, output length as long, two booleans,
+ * length of the state and the state itself.
+ *
+ * @param commands number of commands already done, simulation continues from the next one
+ * @param steps number of steps already done
+ * @param outputLength number of bytes written to the output file until this point
+ * @param prettyOutput whether the output is pretty printed
+ * @param outputHasSteps whether the output has any steps
+ * @param state encoded queues and controller
+ */
+public record Snapshot(long commands, long steps, long outputLength, boolean prettyOutput,
+                       boolean outputHasSteps, byte[] state) {
+
+    private static final byte[] MAGIC = {'T', 'L', 'C', 'S'};
+    // Version 2 has arrival steps of cars in the lanes, version 3 IDs of cars which aren't "vehicle<N>"
+    private static final byte VERSION = 3;
+
+    /**
+     * @param path path to the snapshot file
+     * @return snapshot saved in the file
+     */
+    public static Snapshot read(Path path) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                throw new IOException("Not a snapshot file: " + path);
+            }
+            long commands = in.readLong();
+            long steps = in.readLong();
+            long outputLength = in.readLong();
+            boolean prettyOutput = in.readBoolean();
+            boolean outputHasSteps = in.readBoolean();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            return new Snapshot(commands, steps, outputLength, prettyOutput, outputHasSteps, state);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading snapshot", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to the stream, in the format of the file.
+     * @param stream where the snapshot is written, it isn't closed
+     * @throws IOException if writing fails
+     */
+    void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(commands);
+        out.writeLong(steps);
+        out.writeLong(outputLength);
+        out.writeBoolean(prettyOutput);
+        out.writeBoolean(outputHasSteps);
+        out.writeInt(state.length);
+        out.write(state);
+        out.flush();
+    }
+
+    /**
+     * @return stream reading the encoded queues and controller
+     */
+    InputStream stateStream() {
+        return new ByteArrayInputStream(state);
+    }
+}
@@ -0,0 +1,87 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves snapshots to a file on a background thread, so the simulation
+ * doesn't wait for the disk. Only the newest snapshot matters, if a new one
+ * comes before the previous was written, the previous is skipped.
+ * Snapshot is written to a temporary file first and then moved over the old one,
+ * so the file always has a whole snapshot, even if the program dies while writing.
+ */
+public class SnapshotWriter implements Closeable {
+
+    private final Path path;
+    private final Path temporaryPath;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Snapshot waiting for the writer thread
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+
+    private volatile IOException failure;
+
+    /**
+     * @param path path to the snapshot file, it's overwritten by every snapshot
+     */
+    public SnapshotWriter(Path path) {
+        this.path = path;
+        this.temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Schedules writing of the snapshot, returns right away.
+     * @param snapshot state of the simulation
+     */
+    public void submit(Snapshot snapshot) {
+        // Task is already scheduled if there was a pending snapshot, it will take this one
+        if (pending.getAndSet(snapshot) == null) {
+            executor.execute(this::writePending);
+        }
+    }
+
+    private void writePending() {
+        Snapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null || failure != null) {
+            return;
+        }
+        try {
+            try (OutputStream out = Files.newOutputStream(temporaryPath)) {
+                snapshot.writeTo(out);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Waits until scheduled snapshots are written.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing snapshot", e);
+        }
+        if (failure != null) {
+            throw new RuntimeException("Error writing snapshot", failure);
+        }
+    }
+}
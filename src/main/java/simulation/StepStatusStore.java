@@ -0,0 +1,197 @@
+package simulation;
+
+import util.StepStatusSink;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Keeps simulation output in a compact form. IDs of all cars that left
+ * are stored one after another in a single int column and for every step
+ * only the index where its cars end is kept (like a CSR matrix).
+ * Any step can be accessed in O(1) and nothing is boxed.
+ * Optionally, the columns can be moved to memory mapped files once they grow
+ * past a given threshold. Indexes are ints, so at most Integer.MAX_VALUE - 8 cars
+ * and steps can be stored (see {@link IntColumn}), more throw IllegalStateException.
+ */
+public class StepStatusStore implements StepStatusSink, Closeable {
+
+    // IDs of cars that left, step after step
+    private final IntColumn vehicleIds;
+
+    // stepEnds[i] - index in vehicleIds after the last car of step i
+    private final IntColumn stepEnds;
+
+    /**
+     * Creates store keeping everything on the heap.
+     */
+    public StepStatusStore() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates store which moves its data to temporary files once it gets bigger
+     * than the given threshold.
+     * @param spillThreshold number of cars (or steps) kept on the heap
+     * @param spillDirectory directory for the temporary files, null for the default one
+     */
+    public StepStatusStore(long spillThreshold, Path spillDirectory) {
+        this(spillThreshold, spillDirectory, IntColumn.MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize number of cars (and of steps) after which adding more throws
+     */
+    StepStatusStore(long spillThreshold, Path spillDirectory, long maxSize) {
+        vehicleIds = new IntColumn(spillThreshold, spillDirectory, maxSize);
+        stepEnds = new IntColumn(spillThreshold, spillDirectory, maxSize);
+    }
+
+    @Override
+    public void startStep() {
+    }
+
+    @Override
+    public void vehicleLeft(int vehicleId) {
+        vehicleIds.add(vehicleId);
+    }
+
+    @Override
+    public void endStep() {
+        // Column throws before it gets bigger than an int
+        stepEnds.add((int) vehicleIds.size());
+    }
+
+    /**
+     * Empty steps only repeat the end of the previous step,
+     * so they are added to the column all at once.
+     * @param count number of steps
+     */
+    @Override
+    public void emptySteps(long count) {
+        stepEnds.addRepeated((int) vehicleIds.size(), count);
+    }
+
+    /**
+     * @return number of stored steps
+     */
+    public int stepCount() {
+        return (int) stepEnds.size();
+    }
+
+    /**
+     * @return number of cars that left in all stored steps
+     */
+    public long departureCount() {
+        return vehicleIds.size();
+    }
+
+    /**
+     * @param step index of the step
+     * @return number of cars that left on the given step
+     */
+    public int stepSize(int step) {
+        return stepEnd(step) - stepStart(step);
+    }
+
+    /**
+     * @param step index of the step
+     * @param i index of the car in that step
+     * @return ID of the i-th car that left on the given step
+     */
+    public int vehicleAt(int step, int i) {
+        int end = stepEnd(step);
+        int start = stepStart(step);
+        if (i < 0 || start + i >= end) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return vehicleIds.get(start + i);
+    }
+
+    /**
+     * Passes IDs of cars that left on the given step to the consumer, in order.
+     * @param step index of the step
+     * @param action consumer of the IDs
+     */
+    public void forEachInStep(int step, IntConsumer action) {
+        int end = stepEnd(step);
+        for (int i = stepStart(step); i < end; i++) {
+            action.accept(vehicleIds.get(i));
+        }
+    }
+
+    /**
+     * Replays all stored steps to the given sink, e.g. to save them to a file.
+     * @param sink receiver of the steps
+     */
+    public void writeTo(StepStatusSink sink) {
+        int start = 0;
+        for (long step = 0; step < stepEnds.size(); step++) {
+            int end = stepEnds.get(step);
+            sink.startStep();
+            for (int i = start; i < end; i++) {
+                sink.vehicleLeft(vehicleIds.get(i));
+            }
+            sink.endStep();
+            start = end;
+        }
+    }
+
+    /**
+     * Read only view of the stored steps as lists of IDs. IDs are
+     * boxed only when they are accessed.
+     * @return list of steps, each with list of cars that left
+     */
+    public List<List<Integer>> asLists() {
+        return new AbstractList<>() {
+            @Override
+            public List<Integer> get(int step) {
+                int end = stepEnd(step);
+                int start = stepStart(step);
+                int size = end - start;
+                return new AbstractList<>() {
+                    @Override
+                    public Integer get(int i) {
+                        if (i < 0 || i >= size) {
+                            throw new IndexOutOfBoundsException(i);
+                        }
+                        return vehicleIds.get(start + i);
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return stepCount();
+            }
+        };
+    }
+
+    /**
+     * Removes temporary files, if the data was moved to them.
+     */
+    @Override
+    public void close() {
+        vehicleIds.close();
+        stepEnds.close();
+    }
+
+    private int stepStart(int step) {
+        return step == 0 ? 0 : stepEnds.get(step - 1);
+    }
+
+    private int stepEnd(int step) {
+        if (step < 0 || step >= stepEnds.size()) {
+            throw new IndexOutOfBoundsException(step);
+        }
+        return stepEnds.get(step);
+    }
+}
@@ -0,0 +1,93 @@
+package simulation;
+
+/**
+ * Histogram of wait times (in steps) with fixed log-linear buckets. Values below
+ * 2^SUB_BUCKET_BITS have their own buckets, every higher power of 2 range is split into
+ * 2^SUB_BUCKET_BITS equal buckets, so every value is known with about 3% precision.
+ * All buckets are allocated up front and recording only increments a counter,
+ * so it doesn't allocate anything.
+ */
+public class WaitTimeHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Enough for every non-negative int
+    private static final int BUCKETS = (Integer.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private int max = 0;
+
+    /**
+     * @param wait wait time in steps, not negative
+     */
+    public void record(int wait) {
+        counts[bucket(wait)]++;
+        count++;
+        if (wait > max) {
+            max = wait;
+        }
+    }
+
+    /**
+     * Adds all values recorded by the other histogram.
+     * @param other histogram to add
+     */
+    public void add(WaitTimeHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Value below which the given fraction of recorded values is. It's the highest
+     * value of the bucket in which the percentile falls (but not higher than max).
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return wait time in steps, 0 if nothing was recorded
+     */
+    public int percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (int) Math.min(max, highestInBucket(i));
+            }
+        }
+        return max;
+    }
+
+    static int bucket(int value) {
+        if (value < SUB_BUCKETS) {
+            return value;
+        }
+        // Position of the highest bit decides the range, next bits the bucket in it
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return group * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestInBucket(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        if (group == 0) {
+            return bucket;
+        }
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (group - 1);
+        return lowest + (1L << (group - 1)) - 1;
+    }
+}
@@ -0,0 +1,103 @@
+package simulation;
+
+import model.TurnDirection;
+import model.WorldDirection;
+
+import java.io.PrintStream;
+
+/**
+ * Wait times of cars which left the intersection, in a separate histogram
+ * for every road and turn direction. Wait time is the number of steps between
+ * arrival of the car and the step on which it left (0 if it left on the first step).
+ */
+public class WaitTimes {
+
+    private static final WorldDirection[] DIRECTIONS = WorldDirection.values();
+    private static final TurnDirection[] TURNS = TurnDirection.values();
+
+    // histograms[startRoad][turn], indexed by ordinals
+    private final WaitTimeHistogram[][] histograms = new WaitTimeHistogram[DIRECTIONS.length][TURNS.length];
+
+    public WaitTimes() {
+        for (WaitTimeHistogram[] road : histograms) {
+            for (int turn = 0; turn < road.length; turn++) {
+                road[turn] = new WaitTimeHistogram();
+            }
+        }
+    }
+
+    /**
+     * Called for every car leaving the intersection.
+     * @param startRoad road from which the car came
+     * @param turn where the car went
+     * @param wait wait time in steps
+     */
+    public void record(WorldDirection startRoad, TurnDirection turn, int wait) {
+        histograms[startRoad.ordinal()][turn.ordinal()].record(wait);
+    }
+
+    /**
+     * @param startRoad road from which cars came
+     * @param turn where cars went
+     * @return histogram of these cars, it's the one used for recording
+     */
+    public WaitTimeHistogram get(WorldDirection startRoad, TurnDirection turn) {
+        return histograms[startRoad.ordinal()][turn.ordinal()];
+    }
+
+    /**
+     * @param startRoad road from which cars came
+     * @return wait times of all cars from that road
+     */
+    public WaitTimeHistogram forRoad(WorldDirection startRoad) {
+        WaitTimeHistogram result = new WaitTimeHistogram();
+        for (TurnDirection turn : TURNS) {
+            result.add(get(startRoad, turn));
+        }
+        return result;
+    }
+
+    /**
+     * @param turn turn direction
+     * @return wait times of all cars going that way
+     */
+    public WaitTimeHistogram forTurn(TurnDirection turn) {
+        WaitTimeHistogram result = new WaitTimeHistogram();
+        for (WorldDirection road : DIRECTIONS) {
+            result.add(get(road, turn));
+        }
+        return result;
+    }
+
+    /**
+     * @return wait times of all cars
+     */
+    public WaitTimeHistogram total() {
+        WaitTimeHistogram result = new WaitTimeHistogram();
+        for (WorldDirection road : DIRECTIONS) {
+            result.add(forRoad(road));
+        }
+        return result;
+    }
+
+    /**
+     * Prints table with number of cars, percentiles and maximum wait time
+     * for every road, every turn direction and all cars.
+     * @param out where the report is printed
+     */
+    public void printReport(PrintStream out) {
+        out.printf("%-10s %12s %8s %8s %8s %8s%n", "wait", "cars", "p50", "p99", "p999", "max");
+        for (WorldDirection road : DIRECTIONS) {
+            printRow(out, road.name(), forRoad(road));
+        }
+        for (TurnDirection turn : TURNS) {
+            printRow(out, turn.name(), forTurn(turn));
+        }
+        printRow(out, "ALL", total());
+    }
+
+    private static void printRow(PrintStream out, String name, WaitTimeHistogram histogram) {
+        out.printf("%-10s %12d %8d %8d %8d %8d%n", name, histogram.getCount(), histogram.percentile(0.5),
+                histogram.percentile(0.99), histogram.percentile(0.999), histogram.getMax());
+    }
+}
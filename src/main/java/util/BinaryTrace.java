@@ -0,0 +1,150 @@
+package util;
+
+import model.WorldDirection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Binary format of the instructions, several times smaller than JSON
+ * and read without parsing.
+ * <p>
+ * File starts with the 4 bytes of {@link #MAGIC} and a version byte. Then every command
+ * is one record. First byte of the record has the type on the lowest bit (1 for addVehicle),
+ * ordinal of the start road on the next 2 bits and ordinal of the end road on the 2 bits
+ * after them. For addVehicle the byte is followed by the difference between its ID and the ID
+ * of the previous added car (0 before the first one), zigzag encoded as a varint
+ * (7 bits per byte, the highest bit means that more bytes follow).
+ * <p>
+ * IDs which aren't "vehicle<N>" (negative codes in {@link VehicleIds}) are saved
+ * by name, since codes are only valid in the dictionary which gave them: bit 5 of the first byte
+ * is set and it's followed by the length of the ID in UTF-8 as a varint and its bytes.
+ * Version 1 has no such records.
+ */
+public final class BinaryTrace {
+
+    static final byte[] MAGIC = {'T', 'L', 'C', 'B'};
+    static final byte VERSION = 2;
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    static final int ADD_VEHICLE = 1;
+    static final int NAMED = 1 << 5;
+
+    // Longer IDs can't be saved by name
+    static final int MAX_NAME_LENGTH = 1024;
+
+    // Longest record - type byte, 2 bytes of the length and the longest name
+    static final int MAX_RECORD_LENGTH = 3 + MAX_NAME_LENGTH;
+
+    private static final WorldDirection[] DIRECTIONS = WorldDirection.values();
+
+    private BinaryTrace() {
+    }
+
+    /**
+     * @param path path to a file
+     * @return whether the file should be read as binary trace
+     */
+    public static boolean isBinary(String path) {
+        return path.endsWith(".bin");
+    }
+
+    /**
+     * Converts instructions between JSON and binary format, the direction
+     * is chosen by the extension of the input file. If the output file ends
+     * with .ndjson, instructions are saved as newline delimited JSON instead.
+     * @param input path to the instructions file, JSON, NDJSON (.ndjson) or binary (.bin)
+     * @param output path to the converted file
+     * @return number of converted commands
+     */
+    public static long convert(String input, String output) {
+        try (CommandSource commands = SimulationInstructionsLoader.openInstructions(input)) {
+            VehicleIds vehicleIds = commands.vehicleIds();
+            if (NdjsonCommandReader.isNdjson(output)) {
+                return SimulationInstructionsWriter.saveInstructionLines(commands, output, vehicleIds);
+            }
+            // NDJSON is converted to JSON, unless the output is a .bin file
+            if (isBinary(input) || NdjsonCommandReader.isNdjson(input) && !isBinary(output)) {
+                return SimulationInstructionsWriter.saveInstructions(commands, output, vehicleIds);
+            }
+            return save(commands, output, vehicleIds);
+        }
+    }
+
+    /**
+     * Saves commands as a binary trace.
+     * @param commands commands to save, with only "vehicle<N>" IDs, e.g. generated ones
+     * @param path path to the binary trace, it's overwritten
+     * @return number of saved commands
+     */
+    public static long save(Iterator<Command> commands, String path) {
+        return save(commands, path, new VehicleIds());
+    }
+
+    /**
+     * Saves commands as a binary trace.
+     * @param commands commands to save
+     * @param path path to the binary trace, it's overwritten
+     * @param vehicleIds dictionary in which IDs of the commands are coded
+     * @return number of saved commands
+     */
+    public static long save(Iterator<Command> commands, String path, VehicleIds vehicleIds) {
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(new FileOutputStream(path), vehicleIds)) {
+            long count = 0;
+            while (commands.hasNext()) {
+                writer.write(commands.next());
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing binary trace", e);
+        }
+    }
+
+    /**
+     * Encodes commands as a binary trace in memory, e.g. to run many simulations
+     * on the same input without reading it again. Trace has to be smaller than 2 GB.
+     * @param commands commands to encode, with only "vehicle<N>" IDs, e.g. generated ones
+     * @return read-only buffer with the trace, for {@link BinaryTraceReader#BinaryTraceReader(ByteBuffer)}
+     */
+    public static ByteBuffer encode(Iterator<Command> commands) {
+        return encode(commands, new VehicleIds());
+    }
+
+    /**
+     * Encodes commands as a binary trace in memory, IDs which aren't "vehicle<N>"
+     * are saved by name, so the trace doesn't depend on the dictionary.
+     * @param commands commands to encode
+     * @param vehicleIds dictionary in which IDs of the commands are coded
+     * @return read-only buffer with the trace, for {@link BinaryTraceReader#BinaryTraceReader(ByteBuffer)}
+     */
+    public static ByteBuffer encode(Iterator<Command> commands, VehicleIds vehicleIds) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(bytes, vehicleIds)) {
+            while (commands.hasNext()) {
+                writer.write(commands.next());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error encoding binary trace", e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+    }
+
+    static int recordType(Command command) {
+        if (command.type != Command.CommandType.addVehicle) {
+            return 0;
+        }
+        return ADD_VEHICLE | command.startRoad.ordinal() << 1 | command.endRoad.ordinal() << 3;
+    }
+
+    static WorldDirection startRoad(int typeByte) {
+        return DIRECTIONS[typeByte >> 1 & 3];
+    }
+
+    static WorldDirection endRoad(int typeByte) {
+        return DIRECTIONS[typeByte >> 3 & 3];
+    }
+}
@@ -0,0 +1,220 @@
+package util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads commands from a binary trace (see {@link BinaryTrace}) mapped to memory.
+ * File is mapped in windows of up to 1 GB, so it can be of any size.
+ * Records are decoded straight from the mapped buffer and, to avoid creating
+ * an object per command, the same Command is returned every time. It has to be
+ * copied if it's needed after the next call to {@link #next()}.
+ * Trace can also be read from memory (see {@link BinaryTrace#encode}), many readers
+ * can read the same buffer at once.
+ */
+public class BinaryTraceReader implements CommandSource {
+
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    // Null when the trace is in memory
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private ByteBuffer window;
+    // Position of the window in the file
+    private long windowStart;
+
+    private int previousId = 0;
+
+    private final Command command = new Command();
+
+    private final VehicleIds vehicleIds;
+
+    // IDs saved by name are decoded here, so that they don't create Strings
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private final CharBuffer name = CharBuffer.allocate(BinaryTrace.MAX_NAME_LENGTH);
+
+    /**
+     * @param path path to the binary trace
+     */
+    public BinaryTraceReader(Path path) {
+        this(path, new VehicleIds());
+    }
+
+    /**
+     * @param path path to the binary trace
+     * @param vehicleIds dictionary in which IDs saved by name are coded
+     */
+    public BinaryTraceReader(Path path, VehicleIds vehicleIds) {
+        this.vehicleIds = vehicleIds;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open instructions file", e);
+        }
+        try {
+            fileSize = channel.size();
+            if (fileSize < BinaryTrace.HEADER_LENGTH) {
+                throw new IOException("File is too short to be a binary trace");
+            }
+            map(0);
+            readHeader();
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    /**
+     * Reads trace kept in memory. Buffer isn't modified, reader has its own position.
+     * @param trace whole binary trace, from its position to its limit
+     */
+    public BinaryTraceReader(ByteBuffer trace) {
+        this(trace, new VehicleIds());
+    }
+
+    /**
+     * Reads trace kept in memory. Buffer isn't modified, reader has its own position.
+     * @param trace whole binary trace, from its position to its limit
+     * @param vehicleIds dictionary in which IDs saved by name are coded
+     */
+    public BinaryTraceReader(ByteBuffer trace, VehicleIds vehicleIds) {
+        this.vehicleIds = vehicleIds;
+        channel = null;
+        window = trace.slice();
+        fileSize = window.limit();
+        windowStart = 0;
+        try {
+            if (fileSize < BinaryTrace.HEADER_LENGTH) {
+                throw new IOException("Buffer is too short to be a binary trace");
+            }
+            readHeader();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[BinaryTrace.MAGIC.length];
+        window.get(magic);
+        if (!Arrays.equals(magic, BinaryTrace.MAGIC)) {
+            throw new IOException("File is not a binary trace");
+        }
+        byte version = window.get();
+        if (version < 1 || version > BinaryTrace.VERSION) {
+            throw new IOException("Unsupported binary trace version " + version);
+        }
+    }
+
+    @Override
+    public VehicleIds vehicleIds() {
+        return vehicleIds;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return windowStart + window.position() < fileSize;
+    }
+
+    /**
+     * @return next command, the same object every time with changed fields
+     */
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        // Move the window if the record could cross its end
+        if (window.remaining() < BinaryTrace.MAX_RECORD_LENGTH && windowStart + window.limit() < fileSize) {
+            map(windowStart + window.position());
+        }
+
+        try {
+            int type = window.get();
+            if ((type & BinaryTrace.ADD_VEHICLE) == 0) {
+                command.type = Command.CommandType.step;
+                command.vehicleId = 0;
+                command.startRoad = null;
+                command.endRoad = null;
+            } else {
+                if ((type & BinaryTrace.NAMED) != 0) {
+                    command.vehicleId = readName(readVarint());
+                } else {
+                    int zigzag = readVarint();
+                    previousId += (zigzag >>> 1) ^ -(zigzag & 1);
+                    command.vehicleId = previousId;
+                }
+                command.type = Command.CommandType.addVehicle;
+                command.startRoad = BinaryTrace.startRoad(type);
+                command.endRoad = BinaryTrace.endRoad(type);
+            }
+            return command;
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Binary trace ends in the middle of a command", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing instructions file", e);
+        }
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = window.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new RuntimeException("Incorrect vehicle ID in binary trace");
+    }
+
+    /**
+     * @param length length of the ID in bytes
+     * @return code of the ID in the dictionary of this reader
+     */
+    private int readName(int length) {
+        int end = window.position() + length;
+        if (length > BinaryTrace.MAX_NAME_LENGTH || end > window.limit()) {
+            throw new RuntimeException("Incorrect vehicle ID in binary trace");
+        }
+        int limit = window.limit();
+        window.limit(end);
+        name.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(window, name, true);
+        window.limit(limit);
+        if (result.isError() || window.position() != end) {
+            throw new RuntimeException("Incorrect vehicle ID in binary trace");
+        }
+        return vehicleIds.code(name.array(), 0, name.position());
+    }
+
+    private void map(long start) {
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+            windowStart = start;
+        } catch (IOException e) {
+            throw new RuntimeException("Error mapping instructions file", e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes commands in the binary format described in {@link BinaryTrace}.
+ */
+public class BinaryTraceWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final VehicleIds vehicleIds;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+
+    private int previousId = 0;
+
+    /**
+     * @param out stream to write to, it's closed together with this writer
+     * @param vehicleIds dictionary in which IDs of the written commands are coded
+     * @throws IOException if the header can't be written
+     */
+    public BinaryTraceWriter(OutputStream out, VehicleIds vehicleIds) throws IOException {
+        this.out = out;
+        this.vehicleIds = vehicleIds;
+        out.write(BinaryTrace.MAGIC);
+        out.write(BinaryTrace.VERSION);
+    }
+
+    /**
+     * @param command command to write, it isn't kept, so it can be reused
+     * @throws IOException if writing fails
+     */
+    public void write(Command command) throws IOException {
+        if (position + BinaryTrace.MAX_RECORD_LENGTH > buffer.length) {
+            flushBuffer();
+        }
+        int type = BinaryTrace.recordType(command);
+        if (type != 0 && command.vehicleId < 0) {
+            writeName(type, command.vehicleId);
+            return;
+        }
+        buffer[position++] = (byte) type;
+        if (type != 0) {
+            // Overflow is fine, reader adds the difference the same way
+            int delta = command.vehicleId - previousId;
+            previousId = command.vehicleId;
+            writeVarint((delta << 1) ^ (delta >> 31));
+        }
+    }
+
+    private void writeName(int type, int code) throws IOException {
+        byte[] name = vehicleIds.name(code).getBytes(StandardCharsets.UTF_8);
+        if (name.length > BinaryTrace.MAX_NAME_LENGTH) {
+            throw new IOException("Vehicle ID is too long for binary trace: " + vehicleIds.name(code));
+        }
+        buffer[position++] = (byte) (type | BinaryTrace.NAMED);
+        writeVarint(name.length);
+        System.arraycopy(name, 0, buffer, position, name.length);
+        position += name.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -13,7 +13,7 @@ public class Command {
 
     public CommandType type;
 
-    // vehicleId is stored only as int,
+    // vehicleId is stored only as int code (see VehicleIds),
     // strings starting with "vehicle" are pointless and waste memory
     @JsonDeserialize(using = VehicleIdDeserializer.class)
     public int vehicleId;
@@ -2,37 +2,174 @@ package util;
 
 import model.LightsConfiguration;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Draws the intersection with lengths of all lanes to the console.
+ * The picture is kept in a char array and only fields with numbers are
+ * overwritten on every frame. Fields have fixed width, so the picture
+ * doesn't move for bigger numbers (above 99999 they are shown as e.g. 123k or 45M).
+ * Every frame is passed to the output in one write.
+ * Frames can be drawn only every few steps or only when something changed,
+ * because drawing every step of a long simulation takes most of its time.
+ */
 public class CommandLineWriter {
-    private final String template =
+
+    private static final int FIELD_WIDTH = 5;
+
+    // Letters mark fields for numbers, FIELD_WIDTH letters each
+    private static final String TEMPLATE =
             """
-                             a b              
-                            ┌┴─┴─┼───┐        
-                            │↓| ↓│ ↑ │        
-                     ┌──────┘ |  │   └─────── 
-                     │←                     ←g
-                     │───────         ------- 
-                    e│→                     ←h
-                     │-------         ─────── 
-                    f│→                     → 
-                     └─────┐   │  | ┌──────── 
-                           │ ↓ │ ↑|↑│         
-                           └───┼─┬─┬┘         
-                                 c d          """;
+                     aaaaa bbbbb
+                        ┌┴─┴─┼───┐
+                        │↓| ↓│ ↑ │
+                 ┌──────┘ |  │   └───────
+                 │←                     ←ggggg
+                 │───────         -------
+            eeeee│→                     ←hhhhh
+                 │-------         ───────
+            fffff│→                     →
+                 └─────┐   │  | ┌────────
+                       │ ↓ │ ↑|↑│
+                       └───┼─┬─┬┘
+                         ccccc ddddd""";
+
+    // Letters of the fields in order of draw() parameters
+    private static final char[] FIELD_LETTERS = {'a', 'b', 'd', 'c', 'f', 'e', 'g', 'h'};
+
+    // Fields on the left side of their lanes are aligned to the right
+    private static final String RIGHT_ALIGNED = "acef";
+
+    private final Writer out;
+    private final int drawEvery;
+    private final boolean onlyOnChange;
+
+    private final char[] picture = TEMPLATE.toCharArray();
+    private final int[] fieldOffsets = new int[FIELD_LETTERS.length];
+    private final boolean[] rightAligned = new boolean[FIELD_LETTERS.length];
+    private final char[] digits = new char[FIELD_WIDTH];
+
+    // Whole frame with the header, reused
+    private final StringBuilder frame = new StringBuilder();
+    private char[] frameChars = new char[0];
+
+    private final String[] configurationNames = new String[LightsConfiguration.COUNT];
+
+    // Last drawn state, for drawing only changes
+    private LightsConfiguration lastConfiguration;
+    private final int[] lastLengths = new int[FIELD_LETTERS.length];
+
+    /**
+     * Writer drawing every step to the standard output.
+     */
+    public CommandLineWriter() {
+        this(new OutputStreamWriter(System.out, System.out.charset()), 1, false);
+    }
+
+    /**
+     * @param out where frames are written, it's flushed after every frame
+     * @param drawEvery only steps with numbers divisible by it are drawn
+     * @param onlyOnChange if true, step is drawn only if lights or any lane length
+     *                     changed since the last drawn one
+     */
+    public CommandLineWriter(Writer out, int drawEvery, boolean onlyOnChange) {
+        if (drawEvery < 1) {
+            throw new IllegalArgumentException("Steps between frames have to be positive: " + drawEvery);
+        }
+        this.out = out;
+        this.drawEvery = drawEvery;
+        this.onlyOnChange = onlyOnChange;
+
+        for (int i = 0; i < FIELD_LETTERS.length; i++) {
+            fieldOffsets[i] = TEMPLATE.indexOf(String.valueOf(FIELD_LETTERS[i]).repeat(FIELD_WIDTH));
+            rightAligned[i] = RIGHT_ALIGNED.indexOf(FIELD_LETTERS[i]) >= 0;
+        }
+    }
 
     public void draw(int step, LightsConfiguration lightsConfiguration, int northRight, int northLeft, int southRight, int southLeft,
                       int westRight, int westLeft, int eastRight, int eastLeft){
-        String output;
-        output = template.replace("a", Integer.toString(northRight));
-        output = output.replace("b", Integer.toString(northLeft));
-        output = output.replace("c", Integer.toString(southLeft));
-        output = output.replace("d", Integer.toString(southRight));
-        output = output.replace("e", Integer.toString(westLeft));
-        output = output.replace("f", Integer.toString(westRight));
-        output = output.replace("g", Integer.toString(eastRight));
-        output = output.replace("h", Integer.toString(eastLeft));
-
-        System.out.println("Step: " + step);
-        System.out.println("Lights configuration: " + lightsConfiguration);
-        System.out.println(output + "\n\n");
+        if (step % drawEvery != 0) {
+            return;
+        }
+        if (onlyOnChange && lightsConfiguration == lastConfiguration
+                && lastLengths[0] == northRight && lastLengths[1] == northLeft
+                && lastLengths[2] == southRight && lastLengths[3] == southLeft
+                && lastLengths[4] == westRight && lastLengths[5] == westLeft
+                && lastLengths[6] == eastRight && lastLengths[7] == eastLeft) {
+            return;
+        }
+        lastConfiguration = lightsConfiguration;
+
+        setField(0, northRight);
+        setField(1, northLeft);
+        setField(2, southRight);
+        setField(3, southLeft);
+        setField(4, westRight);
+        setField(5, westLeft);
+        setField(6, eastRight);
+        setField(7, eastLeft);
+
+        frame.setLength(0);
+        frame.append("Step: ").append(step).append('\n');
+        frame.append("Lights configuration: ").append(configurationName(lightsConfiguration)).append('\n');
+        frame.append(picture).append("\n\n\n");
+
+        if (frameChars.length < frame.length()) {
+            frameChars = new char[frame.length()];
+        }
+        frame.getChars(0, frame.length(), frameChars, 0);
+        try {
+            out.write(frameChars, 0, frame.length());
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error drawing to the console", e);
+        }
+    }
+
+    private String configurationName(LightsConfiguration configuration) {
+        // Configurations are shared instances, but others can be passed too
+        if (configuration != LightsConfiguration.ofIndex(configuration.index())) {
+            return configuration.toString();
+        }
+        if (configurationNames[configuration.index()] == null) {
+            configurationNames[configuration.index()] = configuration.toString();
+        }
+        return configurationNames[configuration.index()];
+    }
+
+    /**
+     * Writes the number into its field, padded with spaces.
+     */
+    private void setField(int field, int value) {
+        lastLengths[field] = value;
+
+        // Digits are put at the end of the buffer
+        int start = FIELD_WIDTH;
+        char suffix = 0;
+        if (value >= 10_000_000) {
+            value /= 1_000_000;
+            suffix = 'M';
+        } else if (value >= 100_000) {
+            value /= 1000;
+            suffix = 'k';
+        }
+        if (suffix != 0) {
+            digits[--start] = suffix;
+        }
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        int length = FIELD_WIDTH - start;
+        int offset = fieldOffsets[field];
+        int padding = FIELD_WIDTH - length;
+        int numberOffset = rightAligned[field] ? offset + padding : offset;
+        for (int i = 0; i < FIELD_WIDTH; i++) {
+            picture[offset + i] = ' ';
+        }
+        System.arraycopy(digits, start, picture, numberOffset, length);
     }
 }
@@ -0,0 +1,128 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads commands from the instructions file one at a time.
+ * Only the command currently being read is kept in memory, so the
+ * simulation can start right after the file is opened and memory
+ * doesn't depend on the length of the input.
+ */
+public class CommandReader implements CommandSource {
+
+    private final JsonParser parser;
+
+    private final ObjectReader commandReader;
+
+    private final VehicleIds vehicleIds;
+
+    // Parser is already on the START_OBJECT of the next command
+    private boolean nextReady = false;
+
+    private boolean finished = false;
+
+    /**
+     * @param parser parser positioned on the START_ARRAY token of the commands array
+     * @param commandReader reader used to bind single command objects, with the dictionary
+     *                      as its attribute (see {@link SimulationInstructionsLoader#commandReader(VehicleIds)})
+     * @param vehicleIds dictionary of vehicle IDs used by the reader
+     */
+    CommandReader(JsonParser parser, ObjectReader commandReader, VehicleIds vehicleIds) {
+        this.parser = parser;
+        this.commandReader = commandReader;
+        this.vehicleIds = vehicleIds;
+    }
+
+    /**
+     * Moves the parser to the beginning of the "commands" array,
+     * skipping any other fields of the top level object.
+     * @param parser parser at the beginning of the document
+     * @throws IOException if the document has no commands array
+     */
+    static void seekCommandsArray(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Instructions file should contain a JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("commands") && value == JsonToken.START_ARRAY) {
+                return;
+            }
+            parser.skipChildren();
+        }
+        throw new IOException("Instructions file has no commands array");
+    }
+
+    @Override
+    public VehicleIds vehicleIds() {
+        return vehicleIds;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextReady) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                nextReady = true;
+            } else if (token == JsonToken.END_ARRAY) {
+                finished = true;
+            } else {
+                throw new IOException("Unexpected token in commands array: " + token);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+        return nextReady;
+    }
+
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        nextReady = false;
+
+        try {
+            return commandReader.readValue(parser);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    /**
+     * Remaining commands as a sequential stream. Closing the stream
+     * closes this reader.
+     * @return stream of commands
+     */
+    public Stream<Command> stream() {
+        Spliterator<Command> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing instructions file", e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package util;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Commands read one by one from an instructions file of any format.
+ * Has to be closed after the simulation is finished.
+ */
+public interface CommandSource extends Iterator<Command>, Closeable {
+
+    /**
+     * @return dictionary in which vehicle IDs of the commands are coded,
+     * the output of the run has to use the same one
+     */
+    VehicleIds vehicleIds();
+
+    /**
+     * Closes the file, errors are wrapped in RuntimeException.
+     */
+    @Override
+    void close();
+}
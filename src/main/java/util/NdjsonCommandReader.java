@@ -0,0 +1,246 @@
+package util;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads commands from a newline delimited JSON file (.ndjson), one command per line,
+ * e.g. {"type":"step"}. Blank lines are skipped.
+ * <p>
+ * Reading can start at any byte offset: if it's in the middle of a line, that line
+ * is skipped and reading starts from the next one. With an end offset only lines
+ * starting before it are read, so a file split at any offsets into ranges
+ * is read by separate readers with every line read exactly once.
+ * {@link #position()} tells where to start to continue a partial read.
+ */
+public class NdjsonCommandReader implements CommandSource {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ObjectReader commandReader;
+    private final VehicleIds vehicleIds;
+    private final long end;
+
+    // Bytes of the file from bufferOffset, unread ones are between start and limit
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private long bufferOffset;
+    private int start = 0;
+    private int limit = 0;
+    private boolean endOfFile = false;
+
+    // Read ahead by hasNext()
+    private Command next;
+    private long nextOffset;
+
+    /**
+     * @param path path to the file
+     * @return whether the file should be read as newline delimited JSON
+     */
+    public static boolean isNdjson(String path) {
+        return path.endsWith(".ndjson");
+    }
+
+    /**
+     * Reads the whole file.
+     * @param path path to the instructions file
+     */
+    public NdjsonCommandReader(Path path) {
+        this(path, new VehicleIds());
+    }
+
+    /**
+     * Reads the whole file.
+     * @param path path to the instructions file
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     */
+    public NdjsonCommandReader(Path path, VehicleIds vehicleIds) {
+        this(path, 0, Long.MAX_VALUE, vehicleIds);
+    }
+
+    /**
+     * Reads lines starting in the given range of bytes.
+     * @param path path to the instructions file
+     * @param start offset from which to read, the line containing it is skipped
+     *              unless it starts exactly there
+     * @param end offset before which the last read line starts
+     */
+    public NdjsonCommandReader(Path path, long start, long end) {
+        this(path, start, end, new VehicleIds());
+    }
+
+    /**
+     * Reads lines starting in the given range of bytes, e.g. one of many ranges
+     * read at once, which share the dictionary.
+     * @param path path to the instructions file
+     * @param start offset from which to read, the line containing it is skipped
+     *              unless it starts exactly there
+     * @param end offset before which the last read line starts
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     */
+    public NdjsonCommandReader(Path path, long start, long end, VehicleIds vehicleIds) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Incorrect range of bytes: " + start + "-" + end);
+        }
+        this.end = end;
+        this.commandReader = SimulationInstructionsLoader.commandReader(vehicleIds);
+        this.vehicleIds = vehicleIds;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open instructions file", e);
+        }
+
+        try {
+            if (start > 0) {
+                // Previous byte tells if a line starts at the offset
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                channel.read(previous, start - 1);
+                bufferOffset = start - 1;
+                if (previous.get(0) == '\n') {
+                    bufferOffset = start;
+                } else {
+                    skipLine();
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    @Override
+    public VehicleIds vehicleIds() {
+        return vehicleIds;
+    }
+
+    /**
+     * @return offset of the line after the last returned command, reader started there
+     * would return the rest of the commands
+     */
+    public long position() {
+        return next != null ? nextOffset : bufferOffset + start;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        try {
+            while (bufferOffset + start < end) {
+                long lineOffset = bufferOffset + start;
+                int lineEnd = findLineEnd();
+                if (lineEnd < 0) {
+                    return false;
+                }
+                int lineStart = start;
+                start = Math.min(lineEnd + 1, limit);
+
+                int length = trimmedLength(lineStart, lineEnd);
+                if (length == 0) {
+                    continue;
+                }
+                try {
+                    next = commandReader.readValue(buffer, lineStart, length);
+                } catch (IOException e) {
+                    throw new IOException("Invalid command at byte " + lineOffset, e);
+                }
+                nextOffset = lineOffset;
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Command command = next;
+        next = null;
+        return command;
+    }
+
+    /**
+     * Finds the end of the line at the start of unread bytes, reading more of the file if needed.
+     * @return index of the '\n' ending the line, or limit if the last line has none,
+     * -1 if there are no more lines
+     */
+    private int findLineEnd() throws IOException {
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            if (endOfFile) {
+                return start < limit ? limit : -1;
+            }
+            // Indexes move when the buffer is compacted
+            int unread = limit - start;
+            fill();
+            scanned = unread;
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int lineEnd = findLineEnd();
+        if (lineEnd >= 0) {
+            start = Math.min(lineEnd + 1, limit);
+        }
+    }
+
+    /**
+     * Moves unread bytes to the beginning of the buffer (growing it for very long lines)
+     * and reads more of the file after them.
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            bufferOffset += start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit), bufferOffset + limit);
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * @return length of the line without trailing whitespace (including '\r' of Windows line ends)
+     */
+    private int trimmedLength(int lineStart, int lineEnd) {
+        int length = lineEnd - lineStart;
+        while (length > 0 && buffer[lineStart + length - 1] <= ' ') {
+            length--;
+        }
+        return length;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing instructions file", e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads instructions file using many threads. The file is mapped to memory,
+ * the commands array is split into chunks between commands and every chunk
+ * is parsed by a separate task. Finding the split points only looks at the
+ * structure of the JSON (brackets and strings), so it's much faster than parsing.
+ * Commands are returned in the same order as in the file.
+ * Newline delimited JSON is simply split into equal ranges of bytes, every range
+ * is read by a separate {@link NdjsonCommandReader}. All tasks code vehicle IDs
+ * in the same dictionary.
+ */
+public class ParallelInstructionsLoader {
+
+    // Chunks smaller than that aren't worth a separate task
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    // More chunks than threads, so that threads finishing early get more work
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // Size of the windows in which the file is mapped for finding split points
+    private static final long SCAN_WINDOW_SIZE = 1L << 30;
+
+    /**
+     * Range of bytes with whole commands, separated by commas.
+     */
+    private record Chunk(long start, long end) {}
+
+    private interface ChunkParser {
+        List<Command> parse(Chunk chunk) throws IOException;
+    }
+
+    /**
+     * Loads commands with a new dictionary of vehicle IDs, for inputs with only "vehicle<N>" IDs.
+     * @param path path to the instructions file
+     * @param parallelism number of threads parsing the file
+     * @return list of commands in the order of the file
+     */
+    public static List<Command> loadInstructions(String path, int parallelism) {
+        return loadInstructions(path, parallelism, new VehicleIds());
+    }
+
+    /**
+     * @param path path to the instructions file
+     * @param parallelism number of threads parsing the file
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     * @return list of commands in the order of the file
+     */
+    public static List<Command> loadInstructions(String path, int parallelism, VehicleIds vehicleIds) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+        }
+        File file = new File(path);
+        if (!file.exists()) {
+            throw new RuntimeException("Could not find instructions file");
+        }
+
+        if (NdjsonCommandReader.isNdjson(path)) {
+            return loadLines(file, parallelism, vehicleIds);
+        }
+
+        ObjectMapper mapper = SimulationInstructionsLoader.createMapper();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long arrayStart = findCommandsArray(mapper, file);
+            long targetSize = Math.max(MIN_CHUNK_SIZE, channel.size() / ((long) parallelism * CHUNKS_PER_THREAD));
+            List<Chunk> chunks = split(channel, arrayStart, targetSize);
+            return parse(channel, chunks, SimulationInstructionsLoader.commandReader(mapper, vehicleIds), parallelism);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    /**
+     * Readers skip the line in which their range starts, so ranges don't have to end
+     * between lines.
+     */
+    private static List<Command> loadLines(File file, int parallelism, VehicleIds vehicleIds) {
+        long size = file.length();
+        int parts = (int) Math.max(1, Math.min((long) parallelism * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            chunks.add(new Chunk(size * i / parts, size * (i + 1) / parts));
+        }
+        try {
+            return collect(chunks, chunk -> {
+                try (NdjsonCommandReader reader = new NdjsonCommandReader(file.toPath(), chunk.start(), chunk.end(),
+                        vehicleIds)) {
+                    List<Command> commands = new ArrayList<>();
+                    reader.forEachRemaining(commands::add);
+                    return commands;
+                }
+            }, parallelism);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading instructions", e);
+        }
+    }
+
+    /**
+     * Uses Jackson to find the commands array, other fields are skipped like in {@link CommandReader}.
+     * @return offset of the '[' starting the array
+     */
+    private static long findCommandsArray(ObjectMapper mapper, File file) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(file)) {
+            CommandReader.seekCommandsArray(parser);
+            return parser.currentTokenLocation().getByteOffset();
+        }
+    }
+
+    /**
+     * Goes through the commands array and splits it into chunks of about the target size,
+     * always between two commands.
+     */
+    private static List<Chunk> split(FileChannel channel, long arrayStart, long targetSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long size = channel.size();
+
+        // Nesting inside the commands array, 0 - between commands
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        long chunkStart = -1;
+        long lastCommandEnd = -1;
+
+        for (long windowStart = arrayStart + 1; windowStart < size; windowStart += SCAN_WINDOW_SIZE) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(SCAN_WINDOW_SIZE, size - windowStart));
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = window.get(i);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+                switch (b) {
+                    case '"' -> inString = true;
+                    case '{', '[' -> {
+                        if (depth == 0) {
+                            long offset = windowStart + i;
+                            if (chunkStart < 0) {
+                                chunkStart = offset;
+                            } else if (offset - chunkStart >= targetSize) {
+                                chunks.add(new Chunk(chunkStart, lastCommandEnd));
+                                chunkStart = offset;
+                            }
+                        }
+                        depth++;
+                    }
+                    case '}', ']' -> {
+                        if (depth == 0) {
+                            // End of the commands array
+                            if (chunkStart >= 0) {
+                                chunks.add(new Chunk(chunkStart, lastCommandEnd));
+                            }
+                            return chunks;
+                        }
+                        depth--;
+                        if (depth == 0) {
+                            lastCommandEnd = windowStart + i + 1;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        throw new IOException("Commands array isn't closed");
+    }
+
+    private static List<Command> parse(FileChannel channel, List<Chunk> chunks, ObjectReader reader,
+                                       int parallelism) throws IOException {
+        return collect(chunks, chunk -> parseChunk(channel, chunk, reader), parallelism);
+    }
+
+    /**
+     * Parses every chunk in a separate task and joins the results in the order of chunks.
+     */
+    private static List<Command> collect(List<Chunk> chunks, ChunkParser parser, int parallelism)
+            throws IOException {
+        if (chunks.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<List<Command>>> futures = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                futures.add(pool.submit(() -> parser.parse(chunk)));
+            }
+
+            List<List<Command>> parts = new ArrayList<>();
+            int total = 0;
+            for (Future<List<Command>> future : futures) {
+                List<Command> part = future.get();
+                parts.add(part);
+                total += part.size();
+            }
+            List<Command> commands = new ArrayList<>(total);
+            parts.forEach(commands::addAll);
+            return commands;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Loading instructions was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Error reading instructions", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses commands from one chunk. Chunk is put between brackets,
+     * so Jackson can read it as an array.
+     */
+    private static List<Command> parseChunk(FileChannel channel, Chunk chunk, ObjectReader reader)
+            throws IOException {
+        MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start(),
+                chunk.end() - chunk.start());
+        InputStream array = new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(new byte[]{'['}),
+                new ByteBufferBackedInputStream(bytes),
+                new ByteArrayInputStream(new byte[]{']'}))));
+
+        List<Command> commands = new ArrayList<>();
+        try (MappingIterator<Command> iterator = reader.readValues(array)) {
+            iterator.forEachRemaining(commands::add);
+        }
+        return commands;
+    }
+}
@@ -1,39 +1,174 @@
 package util;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SimulationInstructionsLoader {
+    /**
+     * Loads commands with a new dictionary of vehicle IDs, for inputs with only
+     * "vehicle<N>" IDs. Otherwise the dictionary is needed to write them back,
+     * see {@link #loadInstructions(String, VehicleIds)}.
+     * @param path path to the instructions file
+     * @return all commands of the file
+     */
     public static List<Command> loadInstructions(String path) {
+        return loadInstructions(path, new VehicleIds());
+    }
+
+    /**
+     * @param path path to the instructions file
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     * @return all commands of the file
+     */
+    public static List<Command> loadInstructions(String path, VehicleIds vehicleIds) {
+        if (BinaryTrace.isBinary(path)) {
+            // Binary reader reuses one command, so they have to be copied
+            try (BinaryTraceReader reader = new BinaryTraceReader(Path.of(path), vehicleIds)) {
+                List<Command> commands = new ArrayList<>();
+                reader.forEachRemaining(command -> commands.add(copy(command)));
+                return commands;
+            }
+        }
+        if (NdjsonCommandReader.isNdjson(path)) {
+            try (NdjsonCommandReader reader = openLines(path, vehicleIds)) {
+                List<Command> commands = new ArrayList<>();
+                reader.forEachRemaining(commands::add);
+                return commands;
+            }
+        }
+
+        // Reads commands one by one instead of building the whole JSON tree first
+        try (CommandReader reader = streamInstructions(path, vehicleIds)) {
+            List<Command> commands = new ArrayList<>();
+            reader.forEachRemaining(commands::add);
+            return commands;
+        }
+    }
+
+    /**
+     * Opens instructions file of any supported format for reading commands one at a time,
+     * binary trace if the file name ends with .bin, newline delimited JSON if it ends
+     * with .ndjson, JSON otherwise.
+     * Commands from a binary trace are reused, see {@link BinaryTraceReader}.
+     * Vehicle IDs are coded in a new dictionary, see {@link CommandSource#vehicleIds()}.
+     * @param path path to the instructions file
+     * @return source positioned before the first command
+     */
+    public static CommandSource openInstructions(String path) {
+        return openInstructions(path, new VehicleIds());
+    }
+
+    /**
+     * Opens instructions file like {@link #openInstructions(String)}, vehicle IDs
+     * are coded in the given dictionary, e.g. one restored from a snapshot.
+     * @param path path to the instructions file
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     * @return source positioned before the first command
+     */
+    public static CommandSource openInstructions(String path, VehicleIds vehicleIds) {
+        if (BinaryTrace.isBinary(path)) {
+            if (!new File(path).exists()) {
+                throw new RuntimeException("Could not find instructions file");
+            }
+            return new BinaryTraceReader(Path.of(path), vehicleIds);
+        }
+        if (NdjsonCommandReader.isNdjson(path)) {
+            return openLines(path, vehicleIds);
+        }
+        return streamInstructions(path, vehicleIds);
+    }
+
+    private static NdjsonCommandReader openLines(String path, VehicleIds vehicleIds) {
+        if (!new File(path).exists()) {
+            throw new RuntimeException("Could not find instructions file");
+        }
+        return new NdjsonCommandReader(Path.of(path), vehicleIds);
+    }
+
+    /**
+     * Opens instructions file for reading commands one at a time.
+     * Reader should be closed after the simulation is finished.
+     * @param path path to the instructions file
+     * @return reader positioned before the first command
+     */
+    public static CommandReader streamInstructions(String path) {
+        return streamInstructions(path, new VehicleIds());
+    }
+
+    /**
+     * Opens instructions file for reading commands one at a time.
+     * @param path path to the instructions file
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     * @return reader positioned before the first command
+     */
+    public static CommandReader streamInstructions(String path, VehicleIds vehicleIds) {
         File instructionsJSON = new File(path);
         if (!instructionsJSON.exists()) {
             throw new RuntimeException("Could not find instructions file");
         }
 
+        JsonParser parser = null;
         try {
-            // Using ObjectMapper from Jackson library to read and write to JSONs
-            ObjectMapper mapper = new ObjectMapper();
-            // My enums are in caps and in input file are not, so mapper has
-            // to accept case-insensitive enums
-            mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS, true);
-
-            JsonNode node = mapper.readTree(instructionsJSON);
-            JsonNode commands = node.get("commands");
-
-            // Returns list of commands from JSON
-            return mapper.readerFor(new TypeReference<List<Command>>() {})
-                    .readValue(commands);
+            ObjectMapper mapper = createMapper();
+            parser = mapper.getFactory().createParser(instructionsJSON);
+            CommandReader.seekCommandsArray(parser);
 
+            return new CommandReader(parser, commandReader(mapper, vehicleIds), vehicleIds);
 
         } catch (IOException | IllegalArgumentException e) {
+            closeQuietly(parser);
             // Can't salvage anything when there is an exception here
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @param vehicleIds dictionary in which vehicle IDs are coded
+     * @return reader of single commands, e.g. from separate lines of a stream
+     */
+    public static ObjectReader commandReader(VehicleIds vehicleIds) {
+        return commandReader(createMapper(), vehicleIds);
+    }
+
+    static ObjectReader commandReader(ObjectMapper mapper, VehicleIds vehicleIds) {
+        // Read by VehicleIdDeserializer
+        return mapper.readerFor(Command.class).withAttribute(VehicleIds.class, vehicleIds);
+    }
+
+    static ObjectMapper createMapper() {
+        // Using ObjectMapper from Jackson library to read and write to JSONs
+        ObjectMapper mapper = new ObjectMapper();
+        // My enums are in caps and in input file are not, so mapper has
+        // to accept case-insensitive enums
+        mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS, true);
+        return mapper;
+    }
+
+    private static Command copy(Command command) {
+        Command copy = new Command();
+        copy.type = command.type;
+        copy.vehicleId = command.vehicleId;
+        copy.startRoad = command.startRoad;
+        copy.endRoad = command.endRoad;
+        return copy;
+    }
+
+    private static void closeQuietly(JsonParser parser) {
+        if (parser == null) {
+            return;
+        }
+        try {
+            parser.close();
+        } catch (IOException ignored) {
+            // Already failing with a more important exception
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Saves commands in the format of the instructions file, so generated
+ * traffic can be reused as an input. Commands are written one by one
+ * as they come from the iterator, nothing is collected in memory.
+ * Instructions can also be saved as newline delimited JSON, one command per line.
+ * Commands with IDs which aren't "vehicle<N>" need the dictionary in which they were coded.
+ */
+public class SimulationInstructionsWriter {
+
+    /**
+     * @param commands commands to save, with only "vehicle<N>" IDs, e.g. generated ones
+     * @param path path to the instructions file, it's overwritten
+     * @return number of saved commands
+     */
+    public static long saveInstructions(Iterator<Command> commands, String path) {
+        return saveInstructions(commands, path, new VehicleIds());
+    }
+
+    /**
+     * @param commands commands to save
+     * @param path path to the instructions file, it's overwritten
+     * @param vehicleIds dictionary in which IDs of the commands are coded
+     * @return number of saved commands
+     */
+    public static long saveInstructions(Iterator<Command> commands, String path, VehicleIds vehicleIds) {
+        try (JsonGenerator generator = new ObjectMapper().getFactory()
+                .createGenerator(new File(path), JsonEncoding.UTF8)) {
+            long count = 0;
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("commands");
+            while (commands.hasNext()) {
+                writeCommand(generator, commands.next(), vehicleIds);
+                count++;
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing instructions file", e);
+        }
+    }
+
+    /**
+     * Saves commands as newline delimited JSON, readable by {@link NdjsonCommandReader}.
+     * @param commands commands to save, with only "vehicle<N>" IDs, e.g. generated ones
+     * @param path path to the file, it's overwritten
+     * @return number of saved commands
+     */
+    public static long saveInstructionLines(Iterator<Command> commands, String path) {
+        return saveInstructionLines(commands, path, new VehicleIds());
+    }
+
+    /**
+     * Saves commands as newline delimited JSON, readable by {@link NdjsonCommandReader}.
+     * @param commands commands to save
+     * @param path path to the file, it's overwritten
+     * @param vehicleIds dictionary in which IDs of the commands are coded
+     * @return number of saved commands
+     */
+    public static long saveInstructionLines(Iterator<Command> commands, String path, VehicleIds vehicleIds) {
+        try (JsonGenerator generator = new ObjectMapper().getFactory()
+                .createGenerator(new File(path), JsonEncoding.UTF8)) {
+            // Lines are ended by writeCommand(), without it Jackson puts spaces between root values
+            generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+            long count = 0;
+            while (commands.hasNext()) {
+                writeCommand(generator, commands.next(), vehicleIds);
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing instructions file", e);
+        }
+    }
+
+    private static void writeCommand(JsonGenerator generator, Command command, VehicleIds vehicleIds)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", command.type.name());
+        if (command.type == Command.CommandType.addVehicle) {
+            generator.writeStringField("vehicleId", vehicleIds.name(command.vehicleId));
+            // Input files use lowercase directions
+            generator.writeStringField("startRoad", command.startRoad.name().toLowerCase());
+            generator.writeStringField("endRoad", command.endRoad.name().toLowerCase());
+        }
+        generator.writeEndObject();
+        // Line per command, so huge files can still be looked through
+        generator.writeRaw('\n');
+    }
+}
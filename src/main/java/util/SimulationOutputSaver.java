@@ -1,21 +1,43 @@
 package util;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import simulation.StepStatusStore;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class SimulationOutputSaver {
 
     private final File savedOutput;
 
+    // Dictionary of the run, IDs of the cars in the output are coded in it
+    private final VehicleIds vehicleIds;
+
+    // Output file ends with .ndjson, every step is saved as a separate line
+    private final boolean lines;
+
+    /**
+     * Saver of output with only "vehicle<N>" IDs, e.g. of generated traffic.
+     * @param path path to the output file, .json or .ndjson
+     */
     public SimulationOutputSaver(String path) {
+        this(path, new VehicleIds());
+    }
+
+    /**
+     * @param path path to the output file, .json or .ndjson
+     * @param vehicleIds dictionary of the run, e.g. {@link CommandSource#vehicleIds()} of its input
+     */
+    public SimulationOutputSaver(String path, VehicleIds vehicleIds) {
+        this.vehicleIds = vehicleIds;
         try {
-            if( path == null || !path.substring(path.length() - 5).equals(".json")){
+            if( path == null || !path.endsWith(".json") && !NdjsonCommandReader.isNdjson(path)){
                 throw new IOException("Incorrect file extension " + path);
             }
+            lines = NdjsonCommandReader.isNdjson(path);
             savedOutput = new File(path);
             savedOutput.createNewFile();
 
@@ -24,42 +46,88 @@ public class SimulationOutputSaver {
         }
     }
 
-    public void saveSimulationOutput(List<List<Integer>> output) {
-        StepStatuses stepStatuses = new StepStatuses();
-
-
-        for(List<Integer> vehiclesLeft : output) {
-            LeftVehicles temp = new LeftVehicles();
-            for(Integer vehicleID : vehiclesLeft) {
-                temp.addId(vehicleID);
+    /**
+     * Opens writer which saves step statuses to the output file
+     * while the simulation is running.
+     * @param pretty whether output should be pretty printed or compact, ignored for .ndjson files
+     * @return writer, output is complete after finish() and it has to be closed
+     */
+    public StepStatusWriter openStepStatusWriter(boolean pretty) {
+        try {
+            if (lines) {
+                return StepStatusWriter.lines(new FileOutputStream(savedOutput), false, vehicleIds);
             }
-            stepStatuses.add(temp);
+            return new StepStatusWriter(new FileOutputStream(savedOutput), pretty, vehicleIds);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
         }
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-
+    /**
+     * Opens writer which appends lines to the .ndjson output file, after the ones
+     * already there. Every line is flushed at the end of its step, so the file
+     * can be followed (e.g. with tail -f) while the simulation is running.
+     * @return writer of lines
+     */
+    public StepStatusWriter appendStepStatusWriter() {
+        if (!lines) {
+            throw new IllegalStateException("Only .ndjson output can be appended: " + savedOutput);
+        }
         try {
-            mapper.writerWithDefaultPrettyPrinter().writeValue(savedOutput, stepStatuses);
+            return StepStatusWriter.continueLines(new FileOutputStream(savedOutput, true),
+                    savedOutput.length(), true, vehicleIds);
         } catch (IOException e) {
             throw new RuntimeException("Error writing to output file", e);
         }
     }
 
+    /**
+     * Opens writer which continues output saved earlier in the file. Everything
+     * after the given length (output of steps done after a snapshot) is removed first.
+     * @param length length of the output to keep
+     * @param pretty format of the kept output, ignored for .ndjson files
+     * @param anyStep whether the kept output has any steps
+     * @return writer, output is complete after finish() and it has to be closed
+     */
+    public StepStatusWriter resumeStepStatusWriter(long length, boolean pretty, boolean anyStep) {
+        try {
+            if (savedOutput.length() < length) {
+                throw new IOException("Output file is shorter than in the snapshot: " + savedOutput);
+            }
+            try (FileChannel channel = FileChannel.open(savedOutput.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            if (lines) {
+                return StepStatusWriter.continueLines(new FileOutputStream(savedOutput, true), length, false, vehicleIds);
+            }
+            return StepStatusWriter.continueOutput(new FileOutputStream(savedOutput, true), pretty, length, anyStep,
+                    vehicleIds);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
+        }
+    }
 
-    // Wrappers for lists, only to properly save to JSON
-    private class LeftVehicles{
-        public List<String> leftVehicles = new LinkedList<>();
-
-        public void addId(Integer vehicleID) {
-            leftVehicles.add("vehicle" + vehicleID.toString());
+    /**
+     * Saves output kept in the compact store, without converting it to lists.
+     * @param output cars that left on every step
+     */
+    public void saveSimulationOutput(StepStatusStore output) {
+        try (StepStatusWriter writer = openStepStatusWriter(true)) {
+            output.writeTo(writer);
+            writer.finish();
         }
     }
 
-    private class StepStatuses{
-        public List<LeftVehicles> stepStatuses = new LinkedList<>();
-        public void add(LeftVehicles leftVehicles) {
-            stepStatuses.add(leftVehicles);
+    public void saveSimulationOutput(List<List<Integer>> output) {
+        try (StepStatusWriter writer = openStepStatusWriter(true)) {
+            for (List<Integer> vehiclesLeft : output) {
+                writer.startStep();
+                for (int vehicleId : vehiclesLeft) {
+                    writer.vehicleLeft(vehicleId);
+                }
+                writer.endStep();
+            }
+            writer.finish();
         }
     }
 }
-
@@ -0,0 +1,83 @@
+package util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Bounded queue for exactly one producer thread and one consumer thread.
+ * Elements are kept in a ring array, each side only writes its own index
+ * and publishes it with a release store, so there are no locks and no CAS.
+ * Methods don't block, waiting is left to the caller.
+ * @param <T> type of elements
+ */
+public class SpscQueue<T> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle ITEMS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(SpscQueue.class, "head", long.class);
+            TAIL = lookup.findVarHandle(SpscQueue.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object[] items;
+    private final int mask;
+
+    // Next element to take, written only by the consumer
+    private long head = 0;
+    // Next free place, written only by the producer
+    private long tail = 0;
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of 2
+     */
+    public SpscQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity has to be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size *= 2;
+        }
+        items = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Called only by the producer.
+     * @param item element to add, not null
+     * @return false if the queue is full
+     */
+    public boolean offer(T item) {
+        long currentTail = tail;
+        if (currentTail - (long) HEAD.getAcquire(this) == items.length) {
+            return false;
+        }
+        ITEMS.setRelease(items, (int) currentTail & mask, item);
+        TAIL.setRelease(this, currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Called only by the consumer.
+     * @return first element or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long currentHead = head;
+        if (currentHead == (long) TAIL.getAcquire(this)) {
+            return null;
+        }
+        int index = (int) currentHead & mask;
+        T item = (T) ITEMS.getAcquire(items, index);
+        items[index] = null;
+        HEAD.setRelease(this, currentHead + 1);
+        return item;
+    }
+}
@@ -0,0 +1,36 @@
+package util;
+
+/**
+ * Receives simulation output step by step, as soon as
+ * the cars leave the intersection.
+ */
+public interface StepStatusSink {
+
+    /**
+     * Called before the first car of a step is reported.
+     */
+    void startStep();
+
+    /**
+     * Registers car that left the intersection in the current step.
+     * @param vehicleId ID of the car
+     */
+    void vehicleLeft(int vehicleId);
+
+    /**
+     * Called after all cars of the current step were reported.
+     */
+    void endStep();
+
+    /**
+     * Registers many consecutive steps in which no car left.
+     * Sinks can override it to handle them all at once.
+     * @param count number of steps
+     */
+    default void emptySteps(long count) {
+        for (long i = 0; i < count; i++) {
+            startStep();
+            endStep();
+        }
+    }
+}
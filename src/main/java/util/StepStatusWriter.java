@@ -0,0 +1,362 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes simulation output straight to the output stream while the
+ * simulation is running, so step statuses never have to be kept in memory.
+ * Output has the same format as the one produced by Jackson
+ * (pretty printed with its default printer, or compact), or has one
+ * compact step per line, without the enclosing object (see {@link #lines}).
+ * JSON is encoded by hand, vehicle IDs are written digit by digit
+ * into the buffer, without creating "vehicle" + id strings, other IDs
+ * are copied from bytes kept by the {@link VehicleIds} of the run.
+ * The document is closed by {@link #finish()}, not by {@link #close()}.
+ */
+public class StepStatusWriter implements StepStatusSink, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Longest "vehicle<N>" ID is "vehicle2147483647" plus quotes, comma and spaces
+    private static final int MAX_ID_LENGTH = 32;
+
+    private final OutputStream out;
+    private final VehicleIds vehicleIds;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+
+    private enum Format {
+        PRETTY, COMPACT, LINES
+    }
+
+    // Fragments of the output, different for every format
+    private final byte[] header;
+    private final byte[] stepSeparator;
+    private final byte[] stepStart;
+    private final byte[] vehicleSeparator;
+    private final byte[] stepEndEmpty;
+    private final byte[] stepEnd;
+    private final byte[] footerEmpty;
+    private final byte[] footer;
+
+    // Separator and empty step, repeated to fill most of the buffer, created on first use
+    private byte[] emptyStepsBlock;
+    private int emptyStepsPerBlock;
+
+    private static final byte[] VEHICLE_PREFIX = bytes("\"" + VehicleIds.PREFIX);
+
+    private final boolean pretty;
+    private final boolean flushEveryStep;
+
+    private boolean anyStep = false;
+    private boolean anyVehicleInStep = false;
+    private boolean finished = false;
+
+    // Bytes already sent to the stream, including ones written before resuming
+    private long written = 0;
+
+    /**
+     * @param out stream to write the output to, it's closed together with this writer
+     * @param pretty if true, output is formatted like Jackson's default pretty printer,
+     *               otherwise it's written without any whitespace
+     */
+    public StepStatusWriter(OutputStream out, boolean pretty) {
+        this(out, pretty, new VehicleIds());
+    }
+
+    /**
+     * @param out stream to write the output to, it's closed together with this writer
+     * @param pretty if true, output is formatted like Jackson's default pretty printer,
+     *               otherwise it's written without any whitespace
+     * @param vehicleIds dictionary in which IDs of the cars are coded
+     */
+    public StepStatusWriter(OutputStream out, boolean pretty, VehicleIds vehicleIds) {
+        this(out, pretty ? Format.PRETTY : Format.COMPACT, -1, false, false, vehicleIds);
+    }
+
+    /**
+     * Creates writer of newline delimited JSON: every step is written as
+     * {"leftVehicles":[...]} in a separate line, nothing else is written.
+     * @param out stream to write the output to, it's closed together with this writer
+     * @param flushEveryStep if true, every line is sent to the stream as soon as the step ends
+     * @param vehicleIds dictionary in which IDs of the cars are coded
+     * @return writer of lines
+     */
+    public static StepStatusWriter lines(OutputStream out, boolean flushEveryStep, VehicleIds vehicleIds) {
+        return new StepStatusWriter(out, Format.LINES, -1, false, flushEveryStep, vehicleIds);
+    }
+
+    /**
+     * Creates writer of lines (like {@link #lines}) which appends them to lines written earlier,
+     * e.g. by a previous run or before a snapshot.
+     * @param out stream positioned right after the earlier lines
+     * @param length number of bytes of the earlier lines
+     * @param flushEveryStep if true, every line is sent to the stream as soon as the step ends
+     * @param vehicleIds dictionary in which IDs of the cars are coded
+     * @return writer continuing the lines
+     */
+    public static StepStatusWriter continueLines(OutputStream out, long length, boolean flushEveryStep,
+                                                 VehicleIds vehicleIds) {
+        return new StepStatusWriter(out, Format.LINES, length, length > 0, flushEveryStep, vehicleIds);
+    }
+
+    /**
+     * Creates writer which continues output written earlier, e.g. when the
+     * simulation is resumed from a snapshot. Header isn't written again.
+     * @param out stream positioned right after the earlier output
+     * @param pretty format of the earlier output
+     * @param length number of bytes of the earlier output
+     * @param anyStep whether the earlier output has any steps
+     * @param vehicleIds dictionary in which IDs of the cars are coded
+     * @return writer continuing the output
+     */
+    public static StepStatusWriter continueOutput(OutputStream out, boolean pretty, long length, boolean anyStep,
+                                                  VehicleIds vehicleIds) {
+        return new StepStatusWriter(out, pretty ? Format.PRETTY : Format.COMPACT, length, anyStep, false,
+                vehicleIds);
+    }
+
+    // length is -1 for a new output
+    private StepStatusWriter(OutputStream out, Format format, long length, boolean anyStep, boolean flushEveryStep,
+                             VehicleIds vehicleIds) {
+        this.out = out;
+        this.vehicleIds = vehicleIds;
+        this.pretty = format == Format.PRETTY;
+        this.flushEveryStep = flushEveryStep;
+
+        if (format == Format.LINES) {
+            header = new byte[0];
+            stepSeparator = new byte[0];
+            stepStart = bytes("{\"leftVehicles\":[");
+            vehicleSeparator = bytes(",");
+            stepEndEmpty = bytes("]}\n");
+            stepEnd = stepEndEmpty;
+            footerEmpty = new byte[0];
+            footer = footerEmpty;
+        } else if (pretty) {
+            // Jackson's pretty printer uses system line separator
+            String lf = System.lineSeparator();
+            header = bytes("{" + lf + "  \"stepStatuses\" : [ ");
+            stepSeparator = bytes(", ");
+            stepStart = bytes("{" + lf + "    \"leftVehicles\" : [ ");
+            vehicleSeparator = bytes(", ");
+            stepEndEmpty = bytes("]" + lf + "  }");
+            stepEnd = bytes(" ]" + lf + "  }");
+            footerEmpty = bytes("]" + lf + "}");
+            footer = bytes(" ]" + lf + "}");
+        } else {
+            header = bytes("{\"stepStatuses\":[");
+            stepSeparator = bytes(",");
+            stepStart = bytes("{\"leftVehicles\":[");
+            vehicleSeparator = bytes(",");
+            stepEndEmpty = bytes("]}");
+            stepEnd = stepEndEmpty;
+            footerEmpty = bytes("]}");
+            footer = footerEmpty;
+        }
+
+        if (length < 0) {
+            write(header);
+        } else {
+            written = length;
+            this.anyStep = anyStep;
+        }
+    }
+
+    @Override
+    public void startStep() {
+        if (anyStep) {
+            write(stepSeparator);
+        }
+        write(stepStart);
+        anyStep = true;
+        anyVehicleInStep = false;
+    }
+
+    @Override
+    public void vehicleLeft(int vehicleId) {
+        if (position + MAX_ID_LENGTH > buffer.length) {
+            flushBuffer();
+        }
+        if (anyVehicleInStep) {
+            write(vehicleSeparator);
+        }
+        if (vehicleId >= 0) {
+            write(VEHICLE_PREFIX);
+            writeInt(vehicleId);
+            buffer[position++] = '"';
+        } else {
+            write(vehicleIds.jsonBytes(vehicleId));
+        }
+        anyVehicleInStep = true;
+    }
+
+    @Override
+    public void endStep() {
+        write(anyVehicleInStep ? stepEnd : stepEndEmpty);
+        if (flushEveryStep) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes many empty steps at once, copying a prepared block
+     * with the same text repeated instead of writing every step separately.
+     * @param count number of steps
+     */
+    @Override
+    public void emptySteps(long count) {
+        if (count <= 0) {
+            return;
+        }
+        // First one may have no separator before it
+        startStep();
+        endStep();
+        count--;
+
+        int stepLength = stepSeparator.length + stepStart.length + stepEndEmpty.length;
+        if (emptyStepsBlock == null) {
+            emptyStepsPerBlock = BUFFER_SIZE / 2 / stepLength;
+            emptyStepsBlock = new byte[emptyStepsPerBlock * stepLength];
+            for (int i = 0; i < emptyStepsPerBlock; i++) {
+                int offset = i * stepLength;
+                System.arraycopy(stepSeparator, 0, emptyStepsBlock, offset, stepSeparator.length);
+                offset += stepSeparator.length;
+                System.arraycopy(stepStart, 0, emptyStepsBlock, offset, stepStart.length);
+                offset += stepStart.length;
+                System.arraycopy(stepEndEmpty, 0, emptyStepsBlock, offset, stepEndEmpty.length);
+            }
+        }
+
+        while (count > 0) {
+            int steps = (int) Math.min(count, emptyStepsPerBlock);
+            int length = steps * stepLength;
+            if (position + length > buffer.length) {
+                flushBuffer();
+            }
+            System.arraycopy(emptyStepsBlock, 0, buffer, position, length);
+            position += length;
+            count -= steps;
+        }
+        if (flushEveryStep) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends buffered output to the underlying stream.
+     */
+    public void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
+        }
+    }
+
+    /**
+     * @return number of bytes of the output so far, including buffered ones
+     */
+    public long getLength() {
+        return written + position;
+    }
+
+    /**
+     * @return whether any step was written
+     */
+    public boolean hasSteps() {
+        return anyStep;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    /**
+     * Finishes the JSON document, called once after the last step of a successful run.
+     * The document isn't finished by {@link #close()}, so that output of a run which
+     * failed halfway stays truncated instead of looking like a complete one.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        write(anyStep ? footer : footerEmpty);
+        finished = true;
+        flush();
+    }
+
+    /**
+     * Sends what's left in the buffer and closes the stream,
+     * the JSON document is complete only if {@link #finish()} was called.
+     */
+    @Override
+    public void close() {
+        flushBuffer();
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
+        }
+    }
+
+    /**
+     * Writes decimal representation of the non-negative number into the buffer.
+     * Buffer must have space for it.
+     */
+    private void writeInt(int value) {
+        int rest = value;
+        int digits = 1;
+        for (int i = rest / 10; i != 0; i /= 10) {
+            digits++;
+        }
+
+        int index = position + digits;
+        position = index;
+        do {
+            buffer[--index] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+    }
+
+    private void write(byte[] bytes) {
+        if (position + bytes.length > buffer.length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                // Only a very long vehicle ID
+                writeDirectly(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeDirectly(byte[] bytes) {
+        try {
+            out.write(bytes);
+            written += bytes.length;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buffer, 0, position);
+            written += position;
+            position = 0;
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing to output file", e);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
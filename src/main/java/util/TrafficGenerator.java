@@ -0,0 +1,222 @@
+package util;
+
+import model.WorldDirection;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Generates commands from a random traffic model instead of reading them from a file.
+ * On every step, number of cars arriving from each direction is drawn from
+ * Poisson distribution and their end roads are drawn from the turn probabilities.
+ * Arrival rates can be scaled over time by a profile, e.g. with rush hours.
+ * <p>
+ * The same seed always gives the same commands. Nothing is kept apart from
+ * the current state, so the number of commands is limited only by time.
+ * To avoid creating billions of objects, the same Command is returned every time,
+ * it has to be copied if it's needed after the next call to {@link #next()}.
+ * IDs are "vehicle0", "vehicle1" and so on, after "vehicle2147483647" (Integer.MAX_VALUE)
+ * they start from "vehicle0" again, so they never need a dictionary (see {@link VehicleIds}).
+ */
+public class TrafficGenerator implements Iterator<Command> {
+
+    private static final WorldDirection[] DIRECTIONS = WorldDirection.values();
+
+    // Above it Knuth's method gets slow and exp(-lambda) too small,
+    // so bigger rates are split into a sum of smaller ones
+    private static final double MAX_KNUTH_LAMBDA = 30;
+
+    private final SplittableRandom random;
+
+    private final long steps;
+
+    // Mean number of cars per step from every direction, indexed by ordinal
+    private final double[] arrivalRates;
+
+    // cumulativeTurns[start][end] - probability that a car from start goes to end or an earlier direction
+    private final double[][] cumulativeTurns;
+
+    private final double[] profile;
+    private final long stepsPerProfileSlot;
+
+    private final Command command = new Command();
+
+    private long step = 0;
+    private int direction = 0;
+    // Cars still to add from the current direction in the current step
+    private int pendingArrivals = -1;
+    private int nextVehicleId = 0;
+
+    /**
+     * @param seed seed of the random generator
+     * @param steps number of steps to generate
+     * @param arrivalRates mean number of cars arriving per step from every direction (indexed by ordinal)
+     * @param turnProbabilities turnProbabilities[start][end] - relative probability that a car
+     *                          from start road goes to end road, start == end has to be 0
+     * @param profile multipliers of the arrival rates, one for every slot of time,
+     *                after the last one it starts from the beginning
+     * @param stepsPerProfileSlot how many steps one slot of the profile lasts
+     */
+    public TrafficGenerator(long seed, long steps, double[] arrivalRates, double[][] turnProbabilities,
+                            double[] profile, long stepsPerProfileSlot) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("Number of steps can't be negative: " + steps);
+        }
+        if (arrivalRates.length != DIRECTIONS.length || turnProbabilities.length != DIRECTIONS.length) {
+            throw new IllegalArgumentException("Rates and turn probabilities are needed for all 4 directions");
+        }
+        if (profile.length == 0 || stepsPerProfileSlot < 1) {
+            throw new IllegalArgumentException("Profile needs at least one slot of at least one step");
+        }
+
+        this.random = new SplittableRandom(seed);
+        this.steps = steps;
+        this.arrivalRates = arrivalRates.clone();
+        this.profile = profile.clone();
+        this.stepsPerProfileSlot = stepsPerProfileSlot;
+
+        cumulativeTurns = new double[DIRECTIONS.length][DIRECTIONS.length];
+        for (int start = 0; start < DIRECTIONS.length; start++) {
+            if (arrivalRates[start] < 0) {
+                throw new IllegalArgumentException("Arrival rate can't be negative");
+            }
+            if (turnProbabilities[start][start] != 0) {
+                throw new IllegalArgumentException("Cars can't turn back to " + DIRECTIONS[start]);
+            }
+            double sum = 0;
+            for (int end = 0; end < DIRECTIONS.length; end++) {
+                if (turnProbabilities[start][end] < 0) {
+                    throw new IllegalArgumentException("Turn probability can't be negative");
+                }
+                sum += turnProbabilities[start][end];
+                cumulativeTurns[start][end] = sum;
+            }
+            if (sum == 0 && arrivalRates[start] > 0) {
+                throw new IllegalArgumentException("No possible end road for cars from " + DIRECTIONS[start]);
+            }
+            for (int end = 0; end < DIRECTIONS.length; end++) {
+                cumulativeTurns[start][end] /= sum;
+            }
+        }
+    }
+
+    /**
+     * Generator with the same rate from every direction, every end road equally likely
+     * and no changes over time.
+     * @param seed seed of the random generator
+     * @param steps number of steps to generate
+     * @param rate mean number of cars arriving per step from each direction
+     */
+    public static TrafficGenerator uniform(long seed, long steps, double rate) {
+        return new TrafficGenerator(seed, steps, new double[]{rate, rate, rate, rate},
+                uniformTurns(), new double[]{1}, 1);
+    }
+
+    /**
+     * @return turn probabilities where all three possible end roads are equally likely
+     */
+    public static double[][] uniformTurns() {
+        double[][] turns = new double[DIRECTIONS.length][DIRECTIONS.length];
+        for (int start = 0; start < DIRECTIONS.length; start++) {
+            for (int end = 0; end < DIRECTIONS.length; end++) {
+                turns[start][end] = start == end ? 0 : 1;
+            }
+        }
+        return turns;
+    }
+
+    /**
+     * Profile of one day in 24 slots (hours) with morning and afternoon peaks
+     * and almost no traffic at night.
+     * @return multipliers of the arrival rates
+     */
+    public static double[] rushHourProfile() {
+        return new double[]{
+                0.1, 0.05, 0.05, 0.05, 0.1, 0.3, 0.7, 1.6, 2.0, 1.4, 0.9, 0.9,
+                1.0, 1.0, 0.9, 1.1, 1.6, 2.0, 1.7, 1.1, 0.7, 0.5, 0.3, 0.2
+        };
+    }
+
+    @Override
+    public boolean hasNext() {
+        return step < steps;
+    }
+
+    /**
+     * @return next command, the same object every time with changed fields
+     */
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        // Cars from all directions first, then the step
+        while (direction < DIRECTIONS.length) {
+            if (pendingArrivals < 0) {
+                pendingArrivals = poisson(arrivalRates[direction] * currentMultiplier());
+            }
+            if (pendingArrivals > 0) {
+                pendingArrivals--;
+                command.type = Command.CommandType.addVehicle;
+                command.vehicleId = nextVehicleId;
+                nextVehicleId = followingId(nextVehicleId);
+                command.startRoad = DIRECTIONS[direction];
+                command.endRoad = randomEndRoad(direction);
+                return command;
+            }
+            direction++;
+            pendingArrivals = -1;
+        }
+
+        direction = 0;
+        step++;
+        command.type = Command.CommandType.step;
+        command.vehicleId = 0;
+        command.startRoad = null;
+        command.endRoad = null;
+        return command;
+    }
+
+    /**
+     * @return ID of the car after the one with the given ID, codes stay non-negative
+     */
+    static int followingId(int vehicleId) {
+        return vehicleId == Integer.MAX_VALUE ? 0 : vehicleId + 1;
+    }
+
+    private double currentMultiplier() {
+        return profile[(int) ((step / stepsPerProfileSlot) % profile.length)];
+    }
+
+    private WorldDirection randomEndRoad(int start) {
+        double[] cumulative = cumulativeTurns[start];
+        double u = random.nextDouble();
+        for (int end = 0; end < cumulative.length - 1; end++) {
+            if (u < cumulative[end]) {
+                return DIRECTIONS[end];
+            }
+        }
+        return DIRECTIONS[cumulative.length - 1];
+    }
+
+    /**
+     * Knuth's method, mean of the result is lambda.
+     * Sum of Poisson variables is Poisson, so big lambdas are split into parts.
+     */
+    private int poisson(double lambda) {
+        int result = 0;
+        while (lambda > MAX_KNUTH_LAMBDA) {
+            result += poisson(MAX_KNUTH_LAMBDA);
+            lambda -= MAX_KNUTH_LAMBDA;
+        }
+        double limit = Math.exp(-lambda);
+        double product = random.nextDouble();
+        while (product > limit) {
+            result++;
+            product *= random.nextDouble();
+        }
+        return result;
+    }
+}
@@ -1,22 +1,27 @@
 package util;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 
 import java.io.IOException;
 
 /**
- * Parser to keep vehicleIdx as int x,
- * not String, to save space
+ * Parser to keep vehicleId as int code from {@link VehicleIds},
+ * not String, to save space. Code is taken straight from the characters
+ * in the parser's buffer, without creating a String. The dictionary is
+ * an attribute of the reader, see {@link SimulationInstructionsLoader#commandReader(VehicleIds)}.
  */
 public class VehicleIdDeserializer extends JsonDeserializer<Integer> {
     @Override
     public Integer deserialize(JsonParser p, DeserializationContext dc) throws IOException {
-        String text = p.getText();
-        if (text.startsWith("vehicle")) {
-            return Integer.parseInt(text.substring(7));
+        if (p.currentToken() != JsonToken.VALUE_STRING) {
+            throw new IOException("Invalid vehicleId format: " + p.getText());
         }
-        throw new IOException("Invalid vehicleId format: " + text);
+        if (!(dc.getAttribute(VehicleIds.class) instanceof VehicleIds vehicleIds)) {
+            throw new IOException("Reader of commands has no dictionary of vehicle IDs");
+        }
+        return vehicleIds.code(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
     }
-}
\ No newline at end of file
+}
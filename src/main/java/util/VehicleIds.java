@@ -0,0 +1,311 @@
+package util;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of vehicle IDs of one run, the simulation works only with int codes of them.
+ * IDs like "vehicle123" (digits without leading zeros, up to Integer.MAX_VALUE)
+ * are coded as the number, parsed straight from the characters without creating
+ * a String, and aren't kept. Any other ID gets the next negative code (-1, -2, ...)
+ * from an open-addressing hash table, which is also searched by characters, so only
+ * a new ID creates its String. The reader, the runner and the writers of one run
+ * share one dictionary and it's dropped together with the run. Methods are synchronized,
+ * so e.g. a parser thread and a writer thread can use it at once.
+ */
+public final class VehicleIds {
+
+    static final String PREFIX = "vehicle";
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Only IDs which aren't "vehicle<N>" are kept
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    // JSON string of the ID with quotes, created on first write
+    private byte[][] json = new byte[INITIAL_CAPACITY][];
+    // How many times the ID was coded and not released, see release()
+    private int[] uses = new int[INITIAL_CAPACITY];
+    // Open addressing with linear probing, index of the name + 1, 0 is an empty slot
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    // Index of the next new name, names can have gaps after restoring
+    private int count = 0;
+    // Indexes of released names, reused before the next new one
+    private int[] free = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+    private int size = 0;
+
+    /**
+     * @param id vehicle ID from the input
+     * @return code of the ID, the same for the same ID
+     */
+    public int code(String id) {
+        return code(id.toCharArray(), 0, id.length());
+    }
+
+    /**
+     * Code of the ID given as characters, e.g. straight from the buffer of the JSON parser.
+     * @param chars characters of the ID
+     * @param offset index of the first character
+     * @param length number of characters
+     * @return code of the ID, the same for the same ID
+     */
+    public int code(char[] chars, int offset, int length) {
+        int number = parseNumber(chars, offset, length);
+        if (number >= 0) {
+            return number;
+        }
+        return nameCode(chars, offset, length);
+    }
+
+    /**
+     * @param code code returned by {@link #code}
+     * @return the vehicle ID
+     */
+    public String name(int code) {
+        if (code >= 0) {
+            return PREFIX + code;
+        }
+        synchronized (this) {
+            return entry(code);
+        }
+    }
+
+    /**
+     * ID as a JSON string, for IDs which aren't "vehicle<N>". Bytes are kept,
+     * so an ID written many times is encoded only once.
+     * @param code negative code returned by {@link #code}
+     * @return UTF-8 bytes of the ID in quotes, escaped, mustn't be modified
+     */
+    synchronized byte[] jsonBytes(int code) {
+        String name = entry(code);
+        int index = -1 - code;
+        if (json[index] == null) {
+            // Escaped the same way as by Jackson
+            byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(name);
+            byte[] quoted = new byte[escaped.length + 2];
+            quoted[0] = '"';
+            System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+            quoted[quoted.length - 1] = '"';
+            json[index] = quoted;
+        }
+        return json[index];
+    }
+
+    /**
+     * Forgets the ID once every car coded with it is gone, e.g. has left and was written
+     * to the output, so a dictionary used for a long time keeps only IDs of waiting cars.
+     * The code can then be given to another ID. "vehicle<N>" codes are ignored.
+     * @param code code returned by {@link #code}, released at most once per call of code()
+     */
+    public synchronized void release(int code) {
+        if (code >= 0) {
+            return;
+        }
+        entry(code);
+        int index = -1 - code;
+        if (--uses[index] > 0) {
+            return;
+        }
+        remove(index);
+        size--;
+        names[index] = null;
+        json[index] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = index;
+    }
+
+    /**
+     * @return number of IDs kept by name
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Puts the ID under the given code, e.g. when a snapshot with cars having these
+     * codes is restored before their IDs are read again.
+     * @param code negative code of the ID
+     * @param name the vehicle ID
+     * @throws IllegalStateException if the code or the ID is already used for something else
+     */
+    public synchronized void restore(int code, String name) {
+        if (code >= 0 || code == Integer.MIN_VALUE) {
+            throw new IllegalArgumentException("Only IDs with negative codes are kept: " + code);
+        }
+        int index = -1 - code;
+        if (index < count && names[index] != null) {
+            if (!names[index].equals(name)) {
+                throw new IllegalStateException("Vehicle code " + code + " is already used for " + names[index]);
+            }
+            uses[index]++;
+            return;
+        }
+        char[] chars = name.toCharArray();
+        int hash = hash(chars, 0, chars.length);
+        if (find(chars, 0, chars.length, hash) >= 0) {
+            throw new IllegalStateException("Vehicle " + name + " already has another code");
+        }
+        if (index < count) {
+            // Released one, it can't be given to a new ID anymore
+            for (int i = 0; i < freeCount; i++) {
+                if (free[i] == index) {
+                    free[i] = free[--freeCount];
+                    break;
+                }
+            }
+        }
+        while (index >= names.length) {
+            grow();
+        }
+        add(index, name, hash);
+        count = Math.max(count, index + 1);
+    }
+
+    /**
+     * @return number as in "vehicle<N>", or -1 if the ID isn't like that
+     */
+    private static int parseNumber(char[] chars, int offset, int length) {
+        int digits = length - PREFIX.length();
+        // Leading zeros would be lost when the ID is written back
+        if (digits < 1 || digits > 10 || digits > 1 && chars[offset + PREFIX.length()] == '0') {
+            return -1;
+        }
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (chars[offset + i] != PREFIX.charAt(i)) {
+                return -1;
+            }
+        }
+        long value = 0;
+        for (int i = offset + PREFIX.length(); i < offset + length; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value <= Integer.MAX_VALUE ? (int) value : -1;
+    }
+
+    private synchronized int nameCode(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        int index = find(chars, offset, length, hash);
+        if (index < 0) {
+            if (freeCount > 0) {
+                index = free[--freeCount];
+            } else {
+                if (count == Integer.MAX_VALUE - 1) {
+                    // Code after it would be Integer.MIN_VALUE, which means no car
+                    throw new IllegalStateException("Too many vehicle IDs");
+                }
+                index = count++;
+                if (index == names.length) {
+                    grow();
+                }
+            }
+            add(index, new String(chars, offset, length), hash);
+        } else {
+            uses[index]++;
+        }
+        return -1 - index;
+    }
+
+    private int find(char[] chars, int offset, int length, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && matches(names[index], chars, offset, length)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void add(int index, String name, int hash) {
+        names[index] = name;
+        hashes[index] = hash;
+        uses[index] = 1;
+        size++;
+        insert(index, hash);
+    }
+
+    private void insert(int index, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Removes the name from the table, entries after it in the same run of slots
+     * are moved back, so that searches don't stop at the empty slot too early.
+     */
+    private void remove(int index) {
+        int mask = table.length - 1;
+        int slot = hashes[index] & mask;
+        while (table[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int empty = slot;
+        for (slot = (slot + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hashes[table[slot] - 1] & mask;
+            // Entry can fill the empty slot if its home isn't between the empty slot and its slot
+            if (((slot - home) & mask) >= ((slot - empty) & mask)) {
+                table[empty] = table[slot];
+                empty = slot;
+            }
+        }
+        table[empty] = 0;
+    }
+
+    /**
+     * Doubles the arrays, table stays at most half full.
+     */
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        json = Arrays.copyOf(json, capacity);
+        uses = Arrays.copyOf(uses, capacity);
+        table = new int[capacity * 2];
+        for (int index = 0; index < count; index++) {
+            if (names[index] != null) {
+                insert(index, hashes[index]);
+            }
+        }
+    }
+
+    private String entry(int code) {
+        int index = -1 - code;
+        if (code >= 0 || index >= count || names[index] == null) {
+            throw new IllegalArgumentException("Unknown vehicle code " + code);
+        }
+        return names[index];
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        // Spread the bits, the table uses only the lowest ones
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -3,8 +3,6 @@ package model;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.util.Optional;
-
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -26,6 +24,7 @@ public class CarQueueTest {
     @Test
     public void testAddToLeftLane() {
         Car mockCar = mock(Car.class);
+        when(mockCar.getId()).thenReturn(1);
         carQueue.addLeftLane(mockCar);
         assertEquals(1, carQueue.getLeftLaneLength());
     }
@@ -33,43 +32,46 @@ public class CarQueueTest {
     @Test
     public void testAddToRightLane() {
         Car mockCar = mock(Car.class);
+        when(mockCar.getId()).thenReturn(1);
+        when(mockCar.getTurn()).thenReturn(TurnDirection.FORWARD);
         carQueue.addRightLane(mockCar);
         assertEquals(1, carQueue.getRightLaneLength());
     }
 
     @Test
     public void testLeaveLeftLaneEmpty() {
-        assertTrue(carQueue.leaveLeftLane().isEmpty());
+        assertEquals(CarQueue.NO_CAR, carQueue.leaveLeftLane());
     }
 
     @Test
     public void testLeaveLeftLane() {
         Car mockCar = mock(Car.class);
+        when(mockCar.getId()).thenReturn(7);
         carQueue.addLeftLane(mockCar);
-        Optional<Car> result = carQueue.leaveLeftLane();
-        assertTrue(result.isPresent());
-        assertEquals(mockCar, result.get());
+        int result = carQueue.leaveLeftLane();
+        assertEquals(7, result);
         assertEquals(0, carQueue.getLeftLaneLength());
     }
 
     @Test
     public void testLeaveRightLaneEmpty() {
-        assertTrue(carQueue.leaveRightLane().isEmpty());
+        assertEquals(CarQueue.NO_CAR, carQueue.leaveRightLane());
     }
 
     @Test
     public void testLeaveRightLane() {
         Car mockCar = mock(Car.class);
+        when(mockCar.getId()).thenReturn(7);
+        when(mockCar.getTurn()).thenReturn(TurnDirection.FORWARD);
         carQueue.addRightLane(mockCar);
-        Optional<Car> result = carQueue.leaveRightLane();
-        assertTrue(result.isPresent());
-        assertEquals(mockCar, result.get());
+        int result = carQueue.leaveRightLane();
+        assertEquals(7, result);
         assertEquals(0, carQueue.getRightLaneLength());
     }
 
     @Test
     public void testLeaveRightLaneGreenArrow_Empty() {
-        assertTrue(carQueue.leaveRightLaneGreenArrow().isEmpty());
+        assertEquals(CarQueue.NO_CAR, carQueue.leaveRightLaneGreenArrow());
     }
 
     @Test
@@ -77,8 +79,8 @@ public class CarQueueTest {
         Car mockCar = mock(Car.class);
         when(mockCar.getTurn()).thenReturn(TurnDirection.FORWARD);
         carQueue.addRightLane(mockCar);
-        Optional<Car> result = carQueue.leaveRightLaneGreenArrow();
-        assertTrue(result.isEmpty());
+        int result = carQueue.leaveRightLaneGreenArrow();
+        assertEquals(CarQueue.NO_CAR, result);
         // Car wasn't removed because it's not turning right
         assertEquals(1, carQueue.getRightLaneLength());
     }
@@ -86,14 +88,29 @@ public class CarQueueTest {
     @Test
     public void testLeaveRightLaneGreenArrow_TurningRight() {
         Car mockCar = mock(Car.class);
+        when(mockCar.getId()).thenReturn(7);
         when(mockCar.getTurn()).thenReturn(TurnDirection.RIGHT);
         carQueue.addRightLane(mockCar);
-        Optional<Car> result = carQueue.leaveRightLaneGreenArrow();
-        assertTrue(result.isPresent());
-        assertEquals(mockCar, result.get());
+        int result = carQueue.leaveRightLaneGreenArrow();
+        assertEquals(7, result);
         assertEquals(0, carQueue.getRightLaneLength());
     }
 
+    @Test
+    public void testLanesKeepOrder() {
+        carQueue.addRightLane(1, TurnDirection.RIGHT);
+        carQueue.addRightLane(2, TurnDirection.FORWARD);
+        carQueue.addLeftLane(3);
+        carQueue.addLeftLane(4);
+
+        assertEquals(1, carQueue.leaveRightLaneGreenArrow());
+        assertEquals(CarQueue.NO_CAR, carQueue.leaveRightLaneGreenArrow());
+        assertEquals(2, carQueue.leaveRightLane());
+        assertEquals(3, carQueue.leaveLeftLane());
+        assertEquals(4, carQueue.leaveLeftLane());
+        assertEquals(CarQueue.NO_CAR, carQueue.leaveLeftLane());
+    }
+
     @Test
     public void testGetDirection() {
         assertEquals(WorldDirection.NORTH, carQueue.getDirection());
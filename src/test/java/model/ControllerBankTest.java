@@ -0,0 +1,74 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerBankTest {
+
+    @Test
+    void vectorModuleAddedInTests() {
+        // Otherwise the vectorized version wouldn't be tested
+        assertTrue(ControllerBank.isVectorAvailable());
+        assertTrue(new ControllerBank(4).isVectorized());
+    }
+
+    @Test
+    void sameAsControllersTest() {
+        for (boolean vectorized : new boolean[]{true, false}) {
+            // Number of intersections not divisible by the vector length, so the rest is stepped without vectors
+            assertSameAsControllers(1003, Controller.DEFAULT_STEPS_PER_CYCLE, Controller.DEFAULT_MINIMUM_STEPS,
+                    Controller.DEFAULT_CYCLE, vectorized);
+        }
+    }
+
+    @Test
+    void sameAsControllersWithOtherParametersTest() {
+        List<LightsConfiguration> cycle = List.of(
+                LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.WEST),
+                LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.NORTH),
+                LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.WEST));
+        for (boolean vectorized : new boolean[]{true, false}) {
+            assertSameAsControllers(257, 23, 3, cycle, vectorized);
+            assertSameAsControllers(64, 7, 1, cycle.subList(0, 1), vectorized);
+            // Fewer steps per cycle than configurations
+            assertSameAsControllers(64, 2, 1, Controller.DEFAULT_CYCLE, vectorized);
+        }
+    }
+
+    private static void assertSameAsControllers(int count, int stepsPerCycle, int minimumSteps,
+                                                List<LightsConfiguration> cycle, boolean vectorized) {
+        ControllerBank bank = new ControllerBank(count, stepsPerCycle, minimumSteps, cycle, vectorized);
+        Controller[] controllers = new Controller[count];
+        for (int i = 0; i < count; i++) {
+            controllers[i] = new Controller(stepsPerCycle, minimumSteps, cycle);
+        }
+
+        Random random = new Random(count);
+        WorldDirection[] directions = WorldDirection.values();
+        for (int step = 0; step < 2000; step++) {
+            // Some intersections get new lengths, often empty lanes, sometimes long queues
+            for (int change = 0; change < count / 3; change++) {
+                int i = random.nextInt(count);
+                WorldDirection direction = directions[random.nextInt(directions.length)];
+                int bound = random.nextInt(4) == 0 ? 1000 : 4;
+                int right = random.nextInt(bound);
+                int left = random.nextInt(bound);
+                bank.updateQueueLengths(i, right, left, direction);
+                controllers[i].updateQueueLengths(right, left, direction);
+            }
+
+            bank.step();
+            for (int i = 0; i < count; i++) {
+                assertEquals(controllers[i].step(), bank.getConfiguration(i), "step " + step + ", intersection " + i);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(controllers[i].getPhaseSwitches(), bank.getPhaseSwitches(i));
+            assertEquals(controllers[i].getEmptyLaneFallbacks(), bank.getEmptyLaneFallbacks(i));
+        }
+    }
+}
@@ -10,7 +10,6 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -232,9 +231,9 @@ class ControllerTest {
         eastLeft.setAccessible(true);
         Field westLeft = controller.getClass().getDeclaredField("lengthWestLeft");
         westLeft.setAccessible(true);
-        Field steps = controller.getClass().getDeclaredField("STEPS_PER_CYCLE");
+        Field steps = controller.getClass().getDeclaredField("stepsPerCycle");
         steps.setAccessible(true);
-        Field minSteps = controller.getClass().getDeclaredField("MINIMUM_STEPS");
+        Field minSteps = controller.getClass().getDeclaredField("minimumSteps");
         minSteps.setAccessible(true);
         Field cycleField = controller.getClass().getDeclaredField("cycle");
         cycleField.setAccessible(true);
@@ -244,13 +243,13 @@ class ControllerTest {
         recalculateProportions.invoke(controller);
 
         assertEquals((int)steps.get(controller) / cycle.size(),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(0)));
+                ((int[])durations.get(controller))[0]);
         assertEquals((int)steps.get(controller) / cycle.size(),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(1)));
+                ((int[])durations.get(controller))[1]);
         assertEquals((int)steps.get(controller) / cycle.size(),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(2)));
+                ((int[])durations.get(controller))[2]);
         assertEquals((int)steps.get(controller) / cycle.size(),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(3)));
+                ((int[])durations.get(controller))[3]);
 
         // All equal
         int val = 8;
@@ -266,13 +265,13 @@ class ControllerTest {
         recalculateProportions.invoke(controller);
         int allCars = 8*8;
         assertEquals(2*val * (int)steps.get(controller) / allCars,
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(0)));
+                ((int[])durations.get(controller))[0]);
         assertEquals(2*val * (int)steps.get(controller) / allCars,
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(1)));
+                ((int[])durations.get(controller))[1]);
         assertEquals(2*val * (int)steps.get(controller) / allCars,
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(2)));
+                ((int[])durations.get(controller))[2]);
         assertEquals(2*val * (int)steps.get(controller) / allCars,
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(3)));
+                ((int[])durations.get(controller))[3]);
 
 
         // Some proportions
@@ -288,13 +287,13 @@ class ControllerTest {
         recalculateProportions.invoke(controller);
 
         assertEquals(expectedValue(1, 1, allCars, (int)steps.get(controller), (int)minSteps.get(controller)),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(0)));
+                ((int[])durations.get(controller))[0]);
         assertEquals(expectedValue(2, 2, allCars, (int)steps.get(controller), (int)minSteps.get(controller)),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(1)));
+                ((int[])durations.get(controller))[1]);
         assertEquals(expectedValue(5, 5, allCars, (int)steps.get(controller), (int)minSteps.get(controller)),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(2)));
+                ((int[])durations.get(controller))[2]);
         assertEquals(expectedValue(1, 1, allCars, (int)steps.get(controller), (int)minSteps.get(controller)),
-                ((Map<LightsConfiguration, Integer>)durations.get(controller)).get(cycle.get(3)));
+                ((int[])durations.get(controller))[3]);
 
     }
     private int expectedValue(int one, int two, int allCars, int steps, int minSteps) {
@@ -333,4 +332,190 @@ class ControllerTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    void emptyLaneFallbackSameAsConditionsTest() throws Exception {
+        Method avoidEmptyGreen = controller.getClass().getDeclaredMethod("avoidEmptyGreenLight");
+        avoidEmptyGreen.setAccessible(true);
+        Field currentConfig = controller.getClass().getDeclaredField("currentConfiguration");
+        currentConfig.setAccessible(true);
+
+        // Every combination of empty lanes for every configuration from the cycle
+        for (LightsConfiguration.LightsMode mode : List.of(
+                LightsConfiguration.LightsMode.twoRightLanes, LightsConfiguration.LightsMode.twoLeftLanes)) {
+            for (WorldDirection direction : List.of(WorldDirection.NORTH, WorldDirection.WEST)) {
+                currentConfig.set(controller, LightsConfiguration.of(mode, direction));
+                for (int mask = 0; mask < 256; mask++) {
+                    int[] lengths = new int[8];
+                    for (int lane = 0; lane < 8; lane++) {
+                        lengths[lane] = (mask >> lane & 1) * (lane + 1);
+                    }
+                    controller.updateQueueLengths(lengths[0], lengths[1], WorldDirection.NORTH);
+                    controller.updateQueueLengths(lengths[2], lengths[3], WorldDirection.SOUTH);
+                    controller.updateQueueLengths(lengths[4], lengths[5], WorldDirection.WEST);
+                    controller.updateQueueLengths(lengths[6], lengths[7], WorldDirection.EAST);
+
+                    assertEquals(expectedFallback(mode, direction, lengths), avoidEmptyGreen.invoke(controller),
+                            mode + " " + direction + " " + mask);
+                }
+            }
+        }
+    }
+
+    // Conditions checked by the controller before the lookup table,
+    // lengths are north right, north left, south right, ..., east left
+    private Optional<LightsConfiguration> expectedFallback(LightsConfiguration.LightsMode mode,
+                                                           WorldDirection direction, int[] lengths) {
+        boolean right = mode == LightsConfiguration.LightsMode.twoRightLanes;
+        int a = direction == WorldDirection.NORTH ? 0 : 3;
+        int b = direction == WorldDirection.NORTH ? 1 : 2;
+        WorldDirection[] roads = {WorldDirection.NORTH, WorldDirection.SOUTH, WorldDirection.WEST, WorldDirection.EAST};
+        int greenA = lengths[2 * a + (right ? 0 : 1)];
+        int greenB = lengths[2 * b + (right ? 0 : 1)];
+        int otherA = lengths[2 * a + (right ? 1 : 0)];
+        int otherB = lengths[2 * b + (right ? 1 : 0)];
+        if (greenB == 0 && otherA > 0) {
+            return Optional.of(new LightsConfiguration(LightsConfiguration.LightsMode.leftAndRightLane, roads[a]));
+        } else if (greenA == 0 && otherB > 0) {
+            return Optional.of(new LightsConfiguration(LightsConfiguration.LightsMode.leftAndRightLane, roads[b]));
+        }
+        return Optional.empty();
+    }
+
+    @Test
+    void stepReturnsSharedConfigurationsTest() {
+        controller.updateQueueLengths(3, 0, WorldDirection.NORTH);
+        for (int i = 0; i < 50; i++) {
+            LightsConfiguration configuration = controller.step();
+            assertSame(LightsConfiguration.of(configuration.getMode(), configuration.getWhereGreen()), configuration);
+        }
+    }
+
+    @Test
+    void skipIdleStepsTest() throws Exception {
+        // Different positions in the cycle and proportions left by earlier traffic
+        for (int carsBefore = 0; carsBefore < 6; carsBefore++) {
+            for (long idleSteps : new long[]{0, 1, 2, 3, 5, 11, 12, 13, 40, 1001}) {
+                Controller stepped = new Controller();
+                Controller skipped = new Controller();
+                for (Controller c : List.of(stepped, skipped)) {
+                    c.updateQueueLengths(carsBefore, 1, WorldDirection.NORTH);
+                    c.updateQueueLengths(0, carsBefore % 2, WorldDirection.WEST);
+                    for (int i = 0; i < carsBefore * 3; i++) {
+                        c.step();
+                    }
+                    c.updateQueueLengths(0, 0, WorldDirection.NORTH);
+                    c.updateQueueLengths(0, 0, WorldDirection.WEST);
+                }
+
+                for (long i = 0; i < idleSteps; i++) {
+                    stepped.step();
+                }
+                assertEquals(idleSteps, skipped.skipIdleSteps(idleSteps));
+
+                for (String name : List.of("currentStep", "currentConfigurationSteps",
+                        "currentConfigurationIndex", "currentConfiguration")) {
+                    Field field = Controller.class.getDeclaredField(name);
+                    field.setAccessible(true);
+                    assertEquals(field.get(stepped), field.get(skipped), name);
+                }
+                Field durations = Controller.class.getDeclaredField("durationInSteps");
+                durations.setAccessible(true);
+                assertArrayEquals((int[]) durations.get(stepped), (int[]) durations.get(skipped));
+                assertEquals(stepped.getPhaseSwitches(), skipped.getPhaseSwitches());
+
+                // And they keep working the same
+                for (int i = 0; i < 20; i++) {
+                    assertEquals(stepped.step(), skipped.step());
+                }
+            }
+        }
+    }
+
+    @Test
+    void skipIdleStepsWithCarsTest() {
+        controller.updateQueueLengths(1, 0, WorldDirection.SOUTH);
+        assertEquals(0, controller.skipIdleSteps(5));
+    }
+
+    @Test
+    void statisticsTest() throws Exception {
+        // Only north road has cars, so the first configuration (north and south right lanes)
+        // goes into third mode right away, letting north left lane go too
+        controller.updateQueueLengths(5, 2, WorldDirection.NORTH);
+        controller.step();
+        assertEquals(1, controller.getEmptyLaneFallbacks());
+        assertEquals(0, controller.getPhaseSwitches());
+
+        // Every change of the index in the cycle is one switch
+        Field index = Controller.class.getDeclaredField("currentConfigurationIndex");
+        index.setAccessible(true);
+        int changes = 0;
+        int previous = index.getInt(controller);
+        for (int i = 0; i < 100; i++) {
+            controller.step();
+            if (index.getInt(controller) != previous) {
+                changes++;
+                previous = index.getInt(controller);
+            }
+        }
+        assertTrue(changes > 0);
+        assertEquals(changes, controller.getPhaseSwitches());
+    }
+
+    @Test
+    void customParametersTest() {
+        LightsConfiguration westLeft = LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.WEST);
+        LightsConfiguration northRight = LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.NORTH);
+        Controller custom = new Controller(20, 3, List.of(westLeft, northRight));
+
+        // Cars waiting for both configurations, durations follow the given order
+        custom.updateQueueLengths(9, 0, WorldDirection.NORTH);
+        custom.updateQueueLengths(0, 1, WorldDirection.WEST);
+        custom.updateQueueLengths(0, 0, WorldDirection.SOUTH);
+        custom.updateQueueLengths(0, 0, WorldDirection.EAST);
+
+        // Initial durations are 10 steps each (no cars when created),
+        // every configuration also gets the step in which it's switched on
+        assertSteps(custom, westLeft, 10);
+        assertSteps(custom, northRight, 11);
+        // Recalculated on the first configuration: 1/10 of 20 steps for west left lane, but at least 3
+        assertSteps(custom, westLeft, 4);
+        assertSteps(custom, northRight, 19);
+        assertEquals(westLeft, custom.step());
+    }
+
+    private static void assertSteps(Controller controller, LightsConfiguration expected, int steps) {
+        for (int i = 0; i < steps; i++) {
+            assertEquals(expected, controller.step(), "step " + i);
+        }
+    }
+
+    @Test
+    void cycleShorterThanConfigurationsTest() {
+        // 3 steps for 4 configurations, without the minimum every one would get 0 steps
+        // and the lights would stay on the first configuration forever
+        Controller custom = new Controller(3, 1, Controller.DEFAULT_CYCLE);
+        custom.updateQueueLengths(2, 0, WorldDirection.WEST);
+
+        boolean westGreen = false;
+        for (int i = 0; i < 20; i++) {
+            westGreen |= custom.step().getWhereGreen() == WorldDirection.WEST;
+        }
+        assertTrue(westGreen);
+        assertTrue(custom.getPhaseSwitches() >= 4);
+    }
+
+    @Test
+    void customCycleValidationTest() {
+        assertThrows(IllegalArgumentException.class, () -> new Controller(8, 1, List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new Controller(0, 1, Controller.DEFAULT_CYCLE));
+        assertThrows(IllegalArgumentException.class, () -> new Controller(8, 1, List.of(
+                LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.SOUTH))));
+
+        // Same checks without creating a controller
+        Controller.validate(8, 1, Controller.DEFAULT_CYCLE);
+        assertThrows(IllegalArgumentException.class, () -> Controller.validate(8, 0, Controller.DEFAULT_CYCLE));
+        assertThrows(IllegalArgumentException.class, () -> Controller.validate(8, 1, List.of(
+                LightsConfiguration.of(LightsConfiguration.LightsMode.leftAndRightLane, WorldDirection.NORTH))));
+    }
+}
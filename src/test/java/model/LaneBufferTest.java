@@ -0,0 +1,126 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneBufferTest {
+
+    @Test
+    public void testEmpty() {
+        LaneBuffer lane = new LaneBuffer();
+        assertTrue(lane.isEmpty());
+        assertEquals(0, lane.size());
+    }
+
+    @Test
+    public void testGrowKeepsOrderAndTurns() {
+        LaneBuffer lane = new LaneBuffer();
+        TurnDirection[] turns = TurnDirection.values();
+
+        // Move head so that the buffer wraps around before growing
+        for (int i = 0; i < 5; i++) {
+            lane.add(-1, TurnDirection.LEFT);
+            lane.poll();
+        }
+        for (int i = 0; i < 100; i++) {
+            lane.add(i, turns[i % 3]);
+        }
+
+        assertEquals(100, lane.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, lane.idAt(i));
+            assertEquals(turns[i % 3], lane.turnAt(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(turns[i % 3], lane.turnAt(0));
+            assertEquals(i, lane.poll());
+        }
+        assertTrue(lane.isEmpty());
+    }
+
+    @Test
+    public void testDropAndCountFromHead() {
+        LaneBuffer lane = new LaneBuffer();
+        // Wrap around the end of the buffer
+        for (int i = 0; i < 14; i++) {
+            lane.add(-1, TurnDirection.LEFT);
+        }
+        lane.drop(14);
+        for (int i = 0; i < 6; i++) {
+            lane.add(i, i < 4 ? TurnDirection.RIGHT : TurnDirection.FORWARD);
+        }
+
+        assertEquals(4, lane.countFromHead(TurnDirection.RIGHT, 10));
+        assertEquals(2, lane.countFromHead(TurnDirection.RIGHT, 2));
+        assertEquals(0, lane.countFromHead(TurnDirection.FORWARD, 10));
+
+        lane.drop(4);
+        assertEquals(2, lane.size());
+        assertEquals(4, lane.idAt(0));
+        assertEquals(2, lane.countFromHead(TurnDirection.FORWARD, 10));
+    }
+
+    @Test
+    public void testSameAsDeque() {
+        LaneBuffer lane = new LaneBuffer();
+        Deque<int[]> expected = new ArrayDeque<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            if (random.nextInt(3) != 0 || expected.isEmpty()) {
+                int turn = random.nextInt(3);
+                lane.add(i, TurnDirection.values()[turn]);
+                expected.add(new int[]{i, turn});
+            } else {
+                int[] car = expected.poll();
+                assertEquals(TurnDirection.values()[car[1]], lane.turnAt(0));
+                assertEquals(car[0], lane.poll());
+            }
+            assertEquals(expected.size(), lane.size());
+        }
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws IOException {
+        LaneBuffer lane = new LaneBuffer();
+        TurnDirection[] turns = TurnDirection.values();
+        // Head in the middle of a byte of turns and IDs going up and down
+        for (int i = 0; i < 7; i++) {
+            lane.add(0, TurnDirection.LEFT);
+            lane.poll();
+        }
+        int[] ids = {5, 6, 7, Integer.MIN_VALUE + 1, Integer.MAX_VALUE, -3, 1000000, 2};
+        for (int i = 0; i < ids.length; i++) {
+            lane.add(ids[i], turns[i % 3], 1000 + i * 7);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        lane.writeTo(new DataOutputStream(bytes));
+        LaneBuffer copy = new LaneBuffer();
+        copy.add(99, TurnDirection.RIGHT);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(ids.length, copy.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], copy.idAt(i));
+            assertEquals(turns[i % 3], copy.turnAt(i));
+            assertEquals(1000 + i * 7, copy.arrivalAt(i));
+        }
+        // Still works as a queue after reading
+        for (int i = 0; i < 20; i++) {
+            copy.add(i, TurnDirection.FORWARD);
+        }
+        assertEquals(ids[0], copy.poll());
+        assertEquals(ids.length + 19, copy.size());
+    }
+}
@@ -75,4 +75,16 @@ public class LightsConfigurationTest {
         assertTrue(result.contains("Mode: twoLeftLanes"));
         assertTrue(result.contains("WhereGreen: NORTH"));
     }
+
+    @Test
+    public void testOfReturnsSharedInstances() {
+        for (LightsConfiguration.LightsMode mode : LightsConfiguration.LightsMode.values()) {
+            for (WorldDirection direction : WorldDirection.values()) {
+                LightsConfiguration config = LightsConfiguration.of(mode, direction);
+                assertSame(config, LightsConfiguration.of(mode, direction));
+                assertEquals(new LightsConfiguration(mode, direction), config);
+                assertEquals(config.index(), new LightsConfiguration(mode, direction).index());
+            }
+        }
+    }
 }
@@ -0,0 +1,107 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapLaneBufferTest {
+
+    @Test
+    public void testSameAsLaneBuffer() {
+        // Small chunks, so that chunks are added and released all the time
+        OffHeapLaneBuffer lane = new OffHeapLaneBuffer(3);
+        LaneBuffer expected = new LaneBuffer();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 20000; i++) {
+            int action = random.nextInt(10);
+            if (action < 6 || expected.isEmpty()) {
+                // Sometimes many cars at once, so the array of chunks grows
+                int count = random.nextInt(20) == 0 ? 100 : 1;
+                for (int j = 0; j < count; j++) {
+                    TurnDirection turn = TurnDirection.values()[random.nextInt(3)];
+                    lane.add(i * 1000 + j, turn, i);
+                    expected.add(i * 1000 + j, turn, i);
+                }
+            } else if (action < 8) {
+                assertEquals(expected.poll(), lane.poll());
+            } else {
+                int count = random.nextInt(expected.size() + 1);
+                expected.drop(count);
+                lane.drop(count);
+            }
+
+            assertEquals(expected.size(), lane.size());
+            assertEquals(expected.countFromHead(TurnDirection.RIGHT, 5), lane.countFromHead(TurnDirection.RIGHT, 5));
+            if (!expected.isEmpty()) {
+                int last = expected.size() - 1;
+                assertEquals(expected.idAt(0), lane.idAt(0));
+                assertEquals(expected.turnAt(0), lane.turnAt(0));
+                assertEquals(expected.idAt(last), lane.idAt(last));
+                assertEquals(expected.arrivalAt(last), lane.arrivalAt(last));
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws IOException {
+        LaneBuffer lane = new LaneBuffer();
+        TurnDirection[] turns = TurnDirection.values();
+        int[] ids = {5, 6, 7, Integer.MIN_VALUE + 1, Integer.MAX_VALUE, -3, 1000000, 2, 9, 10, 11};
+        for (int i = 0; i < ids.length; i++) {
+            lane.add(ids[i], turns[i % 3], 1000 + i * 7);
+        }
+
+        // Snapshot of a lane on the heap read off the heap and written again
+        OffHeapLaneBuffer copy = new OffHeapLaneBuffer(2);
+        copy.add(99, TurnDirection.RIGHT);
+        copy.add(98, TurnDirection.RIGHT);
+        copy.poll();
+        byte[] bytes = write(lane);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+        assertEquals(ids.length, copy.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], copy.idAt(i));
+            assertEquals(turns[i % 3], copy.turnAt(i));
+            assertEquals(1000 + i * 7, copy.arrivalAt(i));
+        }
+        assertArrayEquals(bytes, write(copy));
+
+        // Still works as a queue after reading
+        copy.add(42, TurnDirection.FORWARD);
+        assertEquals(ids[0], copy.poll());
+        assertEquals(42, copy.idAt(ids.length - 1));
+    }
+
+    @Test
+    public void testLanesChangedOnlyWhenEmpty() {
+        CarQueue queue = new CarQueue(WorldDirection.NORTH);
+        queue.addRightLane(1, TurnDirection.RIGHT);
+        assertThrows(IllegalStateException.class, queue::useOffHeapLanes);
+
+        queue.leaveRightLane();
+        queue.useOffHeapLanes();
+        queue.addRightLane(2, TurnDirection.FORWARD);
+        queue.addRightLane(3, TurnDirection.RIGHT);
+        queue.addLeftLane(4);
+        assertEquals(CarQueue.NO_CAR, queue.leaveRightLaneGreenArrow());
+        assertEquals(2, queue.leaveRightLane());
+        assertEquals(3, queue.leaveRightLaneGreenArrow());
+        assertEquals(4, queue.leaveLeftLane());
+        assertEquals(CarQueue.NO_CAR, queue.leaveLeftLane());
+    }
+
+    private static byte[] write(Lane lane) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        lane.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
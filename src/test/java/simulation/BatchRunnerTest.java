@@ -0,0 +1,114 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.BinaryTrace;
+import util.SimulationInstructionsWriter;
+import util.SimulationOutputSaver;
+import util.TrafficGenerator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchRunnerTest {
+
+    @Test
+    public void testJobsFromDirectory(@TempDir Path directory) throws Exception {
+        Path input = Files.createDirectory(directory.resolve("in"));
+        Path output = directory.resolve("out");
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(1, 100, 0.3), input.resolve("b.json").toString());
+        SimulationInstructionsWriter.saveInstructionLines(TrafficGenerator.uniform(2, 100, 0.3), input.resolve("a.ndjson").toString());
+        BinaryTrace.save(TrafficGenerator.uniform(3, 100, 0.3), input.resolve("c.bin").toString());
+        Files.writeString(input.resolve("notes.txt"), "not instructions");
+        Files.createDirectory(input.resolve("d.json"));
+
+        List<BatchRunner.Job> jobs = BatchRunner.jobsFromDirectory(input, output);
+        assertTrue(Files.isDirectory(output));
+        assertEquals(List.of(
+                new BatchRunner.Job(input.resolve("a.ndjson"), output.resolve("a.ndjson")),
+                new BatchRunner.Job(input.resolve("b.json"), output.resolve("b.json")),
+                // Output of a trace is JSON
+                new BatchRunner.Job(input.resolve("c.bin"), output.resolve("c.json"))), jobs);
+
+        List<BatchRunner.JobResult> results = new BatchRunner(2, false).run(jobs);
+        assertTrue(results.stream().allMatch(BatchRunner.JobResult::succeeded));
+        for (BatchRunner.Job job : jobs) {
+            assertTrue(Files.size(job.output()) > 0);
+        }
+    }
+
+    @Test
+    public void testSameDirectoryRejected(@TempDir Path directory) throws Exception {
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(1, 100, 0.3), directory.resolve("a.json").toString());
+        String before = Files.readString(directory.resolve("a.json"));
+
+        assertThrows(IllegalArgumentException.class, () -> BatchRunner.jobsFromDirectory(directory, directory));
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchRunner.jobsFromDirectory(directory, directory.resolve("../" + directory.getFileName())));
+        assertEquals(before, Files.readString(directory.resolve("a.json")));
+    }
+
+    @Test
+    public void testSameOutputRejected(@TempDir Path directory) throws Exception {
+        Path input = Files.createDirectory(directory.resolve("in"));
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(1, 100, 0.3), input.resolve("a.json").toString());
+        BinaryTrace.save(TrafficGenerator.uniform(1, 100, 0.3), input.resolve("a.bin").toString());
+
+        assertThrows(IllegalArgumentException.class, () -> BatchRunner.jobsFromDirectory(input, directory.resolve("out")));
+    }
+
+    @Test
+    public void testJobsFromManifest(@TempDir Path directory) throws Exception {
+        Path manifest = directory.resolve("jobs.txt");
+        Files.writeString(manifest, """
+                # comment
+
+                  in/a.json   out/a.json
+                %s\t%s
+                """.formatted(directory.resolve("b.bin"), directory.resolve("b.json")));
+
+        assertEquals(List.of(
+                new BatchRunner.Job(directory.resolve("in/a.json"), directory.resolve("out/a.json")),
+                new BatchRunner.Job(directory.resolve("b.bin"), directory.resolve("b.json"))),
+                BatchRunner.jobsFromManifest(manifest));
+
+        Files.writeString(manifest, "a.json b.json c.json\n");
+        assertThrows(RuntimeException.class, () -> BatchRunner.jobsFromManifest(manifest));
+    }
+
+    @Test
+    public void testFailedJobDoesNotStopOthers(@TempDir Path directory) throws Exception {
+        Path good = directory.resolve("good.json");
+        Path broken = directory.resolve("broken.json");
+        Path same = directory.resolve("same.json");
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(4, 500, 0.5), good.toString());
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(5, 500, 0.5), same.toString());
+        Files.writeString(broken, "{\"commands\": [{\"type\": \"step\"}, {\"type\": \"fly\"}]}");
+        String sameInput = Files.readString(same);
+
+        List<BatchRunner.Job> jobs = List.of(
+                new BatchRunner.Job(broken, directory.resolve("broken-out.json")),
+                new BatchRunner.Job(directory.resolve("missing.json"), directory.resolve("missing-out.json")),
+                new BatchRunner.Job(same, directory.resolve("./same.json")),
+                new BatchRunner.Job(good, directory.resolve("good-out.json")));
+        List<BatchRunner.JobResult> results = new BatchRunner(2, true).run(jobs);
+
+        assertEquals(jobs, results.stream().map(BatchRunner.JobResult::job).toList());
+        assertFalse(results.get(0).succeeded());
+        assertFalse(results.get(1).succeeded());
+        assertFalse(results.get(2).succeeded());
+        assertTrue(results.get(3).succeeded());
+        // Input isn't overwritten by its own output
+        assertEquals(sameInput, Files.readString(same));
+
+        Path expected = directory.resolve("expected.json");
+        try (StepStatusStore steps = new StepStatusStore()) {
+            new SimulationRunner(TrafficGenerator.uniform(4, 500, 0.5), false).run(steps);
+            new SimulationOutputSaver(expected.toString()).saveSimulationOutput(steps);
+        }
+        assertEquals(Files.readString(expected), Files.readString(directory.resolve("good-out.json")));
+    }
+}
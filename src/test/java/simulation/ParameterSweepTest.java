@@ -0,0 +1,74 @@
+package simulation;
+
+import model.Controller;
+import model.LightsConfiguration;
+import org.junit.jupiter.api.Test;
+import util.BinaryTrace;
+import util.TrafficGenerator;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParameterSweepTest {
+
+    @Test
+    public void testShortCycles() {
+        ByteBuffer trace = BinaryTrace.encode(TrafficGenerator.uniform(2, 500, 0.3));
+        List<ParameterSweep.Parameters> grid = ParameterSweep.grid(new int[]{1, 2, 3}, new int[]{1},
+                List.of(Controller.DEFAULT_CYCLE));
+
+        // Every road gets green light, so cars from all of them leave
+        for (ParameterSweep.Result result : new ParameterSweep(trace, 2).run(grid)) {
+            assertTrue(result.carsWaiting() < result.carsLeft(), result.parameters().toString());
+        }
+    }
+
+    @Test
+    public void testWrongGridRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ParameterSweep.grid(new int[]{8, 0}, new int[]{1}, List.of(Controller.DEFAULT_CYCLE)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ParameterSweep.grid(new int[]{8}, new int[]{-1}, List.of(Controller.DEFAULT_CYCLE)));
+    }
+
+    @Test
+    public void testSameAsSeparateSimulations() {
+        ByteBuffer trace = BinaryTrace.encode(TrafficGenerator.uniform(6, 3000, 0.4));
+        List<ParameterSweep.Parameters> grid = ParameterSweep.grid(new int[]{4, 8, 16}, new int[]{1, 2},
+                List.of(Controller.DEFAULT_CYCLE, ParameterSweep.cycleOrders().getLast()));
+
+        List<ParameterSweep.Result> results = new ParameterSweep(trace, 3).run(grid);
+        assertEquals(grid.size(), results.size());
+        for (int i = 0; i < grid.size(); i++) {
+            ParameterSweep.Parameters parameters = grid.get(i);
+            ParameterSweep.Result result = results.get(i);
+            assertEquals(parameters, result.parameters());
+
+            SimulationRunner runner = new SimulationRunner(TrafficGenerator.uniform(6, 3000, 0.4), false,
+                    parameters.createController());
+            StepStatusStore expected = new StepStatusStore();
+            runner.run(expected);
+            List<List<Integer>> steps = expected.asLists();
+            assertEquals(steps.size(), result.steps());
+            assertEquals(steps.stream().mapToLong(List::size).sum(), result.carsLeft());
+            assertEquals(runner.getQueuedCars(), result.carsWaiting());
+            assertEquals(result.carsLeft(), result.waits().getCount());
+        }
+    }
+
+    @Test
+    public void testCycleOrders() {
+        List<List<LightsConfiguration>> orders = ParameterSweep.cycleOrders();
+        assertEquals(6, orders.size());
+        assertEquals(Controller.DEFAULT_CYCLE, orders.getFirst());
+        assertEquals(6, new HashSet<>(orders).size());
+        for (List<LightsConfiguration> order : orders) {
+            assertEquals(Controller.DEFAULT_CYCLE.getFirst(), order.getFirst());
+            assertEquals(new HashSet<>(Controller.DEFAULT_CYCLE), new HashSet<>(order));
+        }
+        assertEquals("R-NS R-WE L-NS L-WE", new ParameterSweep.Parameters(8, 1, Controller.DEFAULT_CYCLE).describeCycle());
+    }
+}
@@ -0,0 +1,83 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import util.Command;
+import util.StepStatusSink;
+import util.TrafficGenerator;
+
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    @Test
+    public void testSameOutputAsSingleThread() {
+        // Small batches, so that stages often wait for each other
+        for (int batchSize : new int[]{1, 7, 4096}) {
+            SimulationRunner expected = new SimulationRunner(traffic(), false);
+            expected.run();
+
+            StepStatusStore output = new StepStatusStore();
+            try (Pipeline pipeline = new Pipeline(batchSize, 2)) {
+                new SimulationRunner(pipeline.input(traffic()), false).run(pipeline.output(output));
+                pipeline.finish();
+            }
+            assertEquals(expected.getStepStatuses(), output.asLists(), "batch size " + batchSize);
+        }
+    }
+
+    @Test
+    public void testParserErrorReachesSimulation() {
+        Iterator<Command> failing = new Iterator<>() {
+            private final Iterator<Command> traffic = traffic();
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Command next() {
+                if (++count == 5000) {
+                    throw new IllegalStateException("broken input");
+                }
+                return traffic.next();
+            }
+        };
+
+        try (Pipeline pipeline = new Pipeline(100, 2)) {
+            SimulationRunner runner = new SimulationRunner(pipeline.input(failing), false);
+            StepStatusSink output = pipeline.output(new StepStatusStore());
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> runner.run(output));
+            assertEquals("broken input", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testWriterErrorReachesSimulation() {
+        StepStatusSink failing = new StepStatusStore() {
+            @Override
+            public void endStep() {
+                throw new IllegalStateException("disk full");
+            }
+        };
+
+        try (Pipeline pipeline = new Pipeline(100, 2)) {
+            SimulationRunner runner = new SimulationRunner(pipeline.input(traffic()), false);
+            StepStatusSink output = pipeline.output(failing);
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+                runner.run(output);
+                pipeline.finish();
+            });
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    private static Iterator<Command> traffic() {
+        // Pauses in traffic, so that output has runs of empty steps
+        return new TrafficGenerator(9, 20_000, new double[]{0.5, 0.3, 0.6, 0.2},
+                TrafficGenerator.uniformTurns(), new double[]{1, 0, 2, 0}, 500);
+    }
+}
@@ -0,0 +1,201 @@
+package simulation;
+
+import model.WorldDirection;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import static model.WorldDirection.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoadNetworkTest {
+
+    @Test
+    public void testCarCrossesIntersections() {
+        RoadNetwork network = new RoadNetwork(1, 3);
+        // From the west side of the row to the east side
+        network.addVehicle(0, 0, WEST, List.of(EAST, EAST, EAST));
+
+        // Wait for green light on the first intersection
+        while (network.getQueuedVehicles(0, 0) == 1) {
+            network.run(1, 1);
+        }
+        assertEquals(1, network.getQueuedVehicles(0, 1));
+
+        network.run(20, 1);
+        assertEquals(1, network.getExitedVehicles());
+        assertEquals(0, network.getQueuedVehicles());
+    }
+
+    @Test
+    public void testIncorrectRoutes() {
+        RoadNetwork network = new RoadNetwork(2, 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> network.addVehicle(0, 0, NORTH, List.of(WEST, SOUTH)));
+        assertThrows(IllegalArgumentException.class,
+                () -> network.addVehicle(0, 0, NORTH, List.of(NORTH)));
+        assertThrows(IllegalArgumentException.class,
+                () -> network.addVehicle(2, 0, NORTH, List.of(SOUTH)));
+    }
+
+    @Test
+    public void testSameResultForAnyNumberOfThreads() {
+        long[] single = simulateRandomTraffic(1);
+        long[] parallel = simulateRandomTraffic(4);
+        assertArrayEquals(single, parallel);
+        assertTrue(single[0] > 0);
+    }
+
+    @Test
+    public void testRandomVehicles() {
+        RoadNetwork network = new RoadNetwork(3, 5);
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, network.addRandomVehicle(random));
+        }
+        assertEquals(500, network.getQueuedVehicles());
+
+        // Every route ends after at most rows + columns hops, so all cars get out
+        network.run(5000, 2);
+        assertEquals(500, network.getExitedVehicles());
+        assertEquals(0, network.getQueuedVehicles());
+    }
+
+    @Test
+    public void testTrafficDuringRun() {
+        long[] single = simulateArrivals(1);
+        assertArrayEquals(single, simulateArrivals(3));
+        // Cars which left the network
+        assertTrue(single[single.length - 2] > 0);
+    }
+
+    @Test
+    public void testIdsOfExitedCarsReused() {
+        RoadNetwork network = new RoadNetwork(1, 1);
+        assertEquals(0, network.addVehicle(0, 0, WEST, List.of(EAST)));
+        assertEquals(1, network.addVehicle(0, 0, NORTH, List.of(SOUTH)));
+        network.run(20, 1);
+        assertEquals(2, network.getExitedVehicles());
+        assertTrue(network.addVehicle(0, 0, SOUTH, List.of(NORTH)) < 2);
+        assertTrue(network.addVehicle(0, 0, EAST, List.of(WEST)) < 2);
+        assertEquals(2, network.addVehicle(0, 0, EAST, List.of(WEST)));
+
+        // Long run with cars always arriving, IDs depend only on the number of cars in the network
+        RoadNetwork busy = new RoadNetwork(3, 3);
+        Random random = new Random(5);
+        int[] maxId = {0};
+        busy.run(20_000, 2, () -> maxId[0] = Math.max(maxId[0], busy.addRandomVehicle(random)));
+        assertEquals(20_000, busy.getAddedVehicles());
+        assertTrue(maxId[0] < 2000, "Highest ID " + maxId[0]);
+    }
+
+    @Test
+    public void testFailingIntersection() {
+        // First, middle and last worker failing, the others mustn't wait for them forever
+        for (int failing : new int[]{0, 3, 7}) {
+            RoadNetwork network = new RoadNetwork(4, 2, index -> index == failing
+                    ? new FailingIntersection(5)
+                    : new SimulationRunner(Collections.emptyIterator(), false));
+            Random random = new Random(failing);
+            for (int i = 0; i < 50; i++) {
+                network.addRandomVehicle(random);
+            }
+            RuntimeException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(RuntimeException.class, () -> network.run(100, 4)));
+            assertEquals("Broken intersection", e.getCause().getMessage());
+        }
+
+        // Failing traffic is reported the same way
+        RoadNetwork network = new RoadNetwork(4, 2);
+        int[] calls = {0};
+        RuntimeException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(RuntimeException.class, () -> network.run(100, 4, () -> {
+                    if (++calls[0] == 10) {
+                        throw new IllegalStateException("Broken traffic");
+                    }
+                })));
+        assertEquals("Broken traffic", e.getCause().getMessage());
+    }
+
+    private static class FailingIntersection extends SimulationRunner {
+        private int stepsLeft;
+
+        FailingIntersection(int steps) {
+            super(Collections.emptyIterator(), false);
+            this.stepsLeft = steps;
+        }
+
+        @Override
+        public int step(IntConsumer departures) {
+            if (--stepsLeft < 0) {
+                throw new IllegalStateException("Broken intersection");
+            }
+            return super.step(departures);
+        }
+    }
+
+    private long[] simulateArrivals(int threads) {
+        RoadNetwork network = new RoadNetwork(6, 4);
+        Random random = new Random(2);
+        List<Long> history = new ArrayList<>();
+        network.run(2000, threads, () -> {
+            if (random.nextDouble() < 0.8) {
+                network.addRandomVehicle(random);
+            }
+            history.add(network.getQueuedVehicles());
+        });
+        history.add(network.getExitedVehicles());
+        history.add(network.getAddedVehicles());
+        return history.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private long[] simulateRandomTraffic(int threads) {
+        int size = 8;
+        RoadNetwork network = new RoadNetwork(size, size);
+        Random random = new Random(1);
+        List<Long> history = new ArrayList<>();
+
+        for (int round = 0; round < 20; round++) {
+            for (int car = 0; car < 100; car++) {
+                int row = random.nextInt(size);
+                int column = random.nextInt(size);
+                WorldDirection start = WorldDirection.values()[random.nextInt(4)];
+                network.addVehicle(row, column, start, randomRoute(random, row, column, start, size));
+            }
+            network.run(10, threads);
+            history.add(network.getExitedVehicles());
+            history.add(network.getQueuedVehicles());
+        }
+        return history.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Random walk through the grid, without turning back
+    private List<WorldDirection> randomRoute(Random random, int row, int column, WorldDirection start, int size) {
+        List<WorldDirection> route = new ArrayList<>();
+        WorldDirection entry = start;
+        for (int hop = 0; hop < 6; hop++) {
+            WorldDirection exit;
+            do {
+                exit = WorldDirection.values()[random.nextInt(4)];
+            } while (exit == entry);
+            route.add(exit);
+
+            switch (exit) {
+                case NORTH -> row--;
+                case SOUTH -> row++;
+                case WEST -> column--;
+                case EAST -> column++;
+            }
+            if (row < 0 || row >= size || column < 0 || column >= size) {
+                break;
+            }
+            entry = exit.opposite();
+        }
+        return route;
+    }
+}
@@ -0,0 +1,177 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Command;
+import util.TrafficGenerator;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulationDaemonTest {
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @Test
+    public void testSameDeparturesAsRunner() {
+        String input = commandLines(TrafficGenerator.uniform(11, 300, 0.6));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SimulationDaemon.SessionSummary summary = daemon().serve(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+
+        assertEquals(300, summary.steps());
+        assertEquals(0, summary.skippedLines());
+        assertEquals(expectedLines(), output.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+
+    @Test
+    public void testBadLinesAreSkipped() {
+        String input = """
+                {"type":"addVehicle","vehicleId":"vehicle1","startRoad":"south","endRoad":"north"}
+                not a command
+
+                {"type":"addVehicle","vehicleId":"vehicle2","startRoad":"south"}
+                {"type":"step"}
+                {"type":"step"}
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SimulationDaemon.SessionSummary summary = daemon().serve(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+
+        assertEquals(3, summary.commands());
+        assertEquals(2, summary.skippedLines());
+        assertEquals(List.of("{\"leftVehicles\":[\"vehicle1\"]}", "{\"leftVehicles\":[]}"),
+                output.toString(StandardCharsets.UTF_8).lines().toList());
+        assertTrue(log.toString(StandardCharsets.UTF_8).contains("line 2"));
+    }
+
+    @Test
+    public void testNamedIdsReleasedAfterLeaving() {
+        // ID is released when its car leaves, so it can come back as a new car,
+        // also two waiting cars can have the same ID
+        String input = """
+                {"type":"addVehicle","vehicleId":"KR 1","startRoad":"south","endRoad":"north"}
+                {"type":"addVehicle","vehicleId":"KR 1","startRoad":"north","endRoad":"south"}
+                {"type":"addVehicle","vehicleId":"KR 2","startRoad":"south"}
+                {"type":"step","vehicleId":"KR 3"}
+                {"type":"addVehicle","vehicleId":"KR 1","startRoad":"south","endRoad":"north"}
+                {"type":"addVehicle","vehicleId":"KR 4","startRoad":"west","endRoad":"east"}
+                {"type":"step"}
+                {"type":"step"}
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SimulationDaemon.SessionSummary summary = daemon().serve(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+
+        assertEquals(1, summary.skippedLines());
+        assertEquals(List.of("{\"leftVehicles\":[\"KR 1\",\"KR 1\"]}", "{\"leftVehicles\":[\"KR 1\"]}",
+                "{\"leftVehicles\":[\"KR 4\"]}"),
+                output.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+
+    @Test
+    public void testUnixSocket(@TempDir Path directory) throws Exception {
+        Path socket = directory.resolve("daemon.sock");
+        SimulationDaemon daemon = daemon();
+        Thread listener = Thread.ofVirtual().start(() -> daemon.listen(socket));
+
+        // Two clients at once, each with its own intersection
+        List<String> lines = commandLines(TrafficGenerator.uniform(11, 300, 0.6)).lines().toList();
+        try (SocketChannel first = connect(socket);
+             SocketChannel second = connect(socket)) {
+            assertEquals(expectedLines(), exchange(first, lines));
+            assertEquals(expectedLines(), exchange(second, lines));
+        }
+
+        daemon.close();
+        listener.join();
+        assertFalse(Files.exists(socket));
+    }
+
+    /**
+     * Connects to the daemon, waiting until it starts listening.
+     */
+    private static SocketChannel connect(Path socket) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                return channel;
+            } catch (IOException e) {
+                // Socket file can exist a moment before the daemon listens on it
+                channel.close();
+                if (attempt == 1000) {
+                    throw e;
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Sends commands one by one, reading the line of every step before the next command,
+     * like a client controlling the lights in real time.
+     */
+    private static List<String> exchange(SocketChannel channel, List<String> commands) throws Exception {
+        OutputStream out = Channels.newOutputStream(channel);
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                StandardCharsets.UTF_8));
+        List<String> responses = new ArrayList<>();
+        for (String command : commands) {
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (command.contains("\"step\"")) {
+                responses.add(in.readLine());
+            }
+        }
+        return responses;
+    }
+
+    private SimulationDaemon daemon() {
+        return new SimulationDaemon(1_000_000_000L, new PrintStream(log, true, StandardCharsets.UTF_8));
+    }
+
+    private static List<String> expectedLines() {
+        SimulationRunner runner = new SimulationRunner(TrafficGenerator.uniform(11, 300, 0.6), false);
+        runner.run();
+        return runner.getStepStatuses().stream()
+                .map(step -> step.stream().map(id -> "\"vehicle" + id + "\"")
+                        .collect(Collectors.joining(",", "{\"leftVehicles\":[", "]}")))
+                .toList();
+    }
+
+    private static String commandLines(TrafficGenerator traffic) {
+        StringBuilder lines = new StringBuilder();
+        while (traffic.hasNext()) {
+            Command command = traffic.next();
+            if (command.type == Command.CommandType.step) {
+                lines.append("{\"type\":\"step\"}\n");
+            } else {
+                lines.append("{\"type\":\"addVehicle\",\"vehicleId\":\"vehicle").append(command.vehicleId)
+                        .append("\",\"startRoad\":\"").append(command.startRoad.name().toLowerCase())
+                        .append("\",\"endRoad\":\"").append(command.endRoad.name().toLowerCase()).append("\"}\n");
+            }
+        }
+        return lines.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import util.TrafficGenerator;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulationMetricsTest {
+
+    @Test
+    public void testMetricsAfterRun() {
+        SimulationMetrics metrics = new SimulationMetrics();
+        assertEquals("none", metrics.getCurrentConfiguration());
+
+        // 10000 steps, so values are published during the run and at the end
+        SimulationRunner runner = new SimulationRunner(TrafficGenerator.uniform(3, 10_000, 0.3), false);
+        runner.setMetrics(metrics);
+        runner.run();
+
+        assertEquals(10_000, metrics.getSteps());
+        assertEquals(10_000, runner.getStepStatusStore().stepCount());
+        assertTrue(metrics.getCommandsProcessed() > metrics.getSteps());
+        assertEquals(runner.getQueuedCars(), Arrays.stream(metrics.getQueueLengths()).sum());
+        assertTrue(metrics.getPhaseSwitches() > 0);
+        assertNotEquals("none", metrics.getCurrentConfiguration());
+        assertTrue(metrics.getStepsPerSecond() > 0);
+    }
+
+    @Test
+    public void testRateSameForEveryReader() throws Exception {
+        SimulationMetrics metrics = new SimulationMetrics();
+        metrics.publishProgress(0, 0);
+        Thread.sleep(20);
+        metrics.publishProgress(4096, 5000);
+
+        // At most 4096 steps in 20 ms
+        double rate = metrics.getStepsPerSecond();
+        assertTrue(rate > 0 && rate <= 4096 / 0.02, "Rate " + rate);
+        // Reading doesn't start a new interval, e.g. for another JMX client
+        Thread.sleep(20);
+        assertEquals(rate, metrics.getStepsPerSecond());
+        assertEquals(rate, metrics.getStepsPerSecond());
+    }
+
+    @Test
+    public void testRegisteredInJmx() throws Exception {
+        SimulationMetrics metrics = new SimulationMetrics();
+        metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = SimulationMetrics.objectName("test");
+            assertEquals(0L, server.getAttribute(name, "Steps"));
+            assertThrows(IllegalArgumentException.class, () -> new SimulationMetrics().register("test"));
+        } finally {
+            metrics.unregister("test");
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import model.TurnDirection;
+import model.WorldDirection;
+import org.junit.jupiter.api.io.TempDir;
+import util.Command;
+import util.CommandSource;
+import util.SimulationInstructionsLoader;
+import util.SimulationInstructionsWriter;
+import util.SimulationOutputSaver;
+import util.StepStatusWriter;
+import util.TrafficGenerator;
+import util.VehicleIds;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SimulationRunnerTest {
+
+    @Test
+    public void testRunSameAsSingleSteps() {
+        // Heavy traffic followed by long runs of steps, so queues drain down and become empty
+        for (long seed = 0; seed < 20; seed++) {
+            List<Command> commands = new ArrayList<>();
+            TrafficGenerator rush = new TrafficGenerator(seed, 300, new double[]{0.9, 0.3, 1.2, 0.1},
+                    TrafficGenerator.uniformTurns(), new double[]{1, 0, 3, 0}, 37);
+            rush.forEachRemaining(command -> commands.add(copy(command)));
+            for (int i = 0; i < 2000; i++) {
+                Command step = new Command();
+                step.type = Command.CommandType.step;
+                commands.add(step);
+            }
+
+            SimulationRunner runner = new SimulationRunner(commands, false);
+            runner.run();
+
+            assertEquals(singleSteps(commands), runner.getStepStatuses(), "seed " + seed);
+        }
+    }
+
+    @Test
+    public void testOffHeapLanes() {
+        List<Command> commands = new ArrayList<>();
+        TrafficGenerator traffic = new TrafficGenerator(3, 5000, new double[]{1.2, 0.4, 1.5, 0.3},
+                TrafficGenerator.uniformTurns(), new double[]{1, 0, 3, 0}, 200);
+        traffic.forEachRemaining(command -> commands.add(copy(command)));
+
+        SimulationRunner onHeap = new SimulationRunner(commands, false);
+        onHeap.run();
+        SimulationRunner offHeap = new SimulationRunner(commands, false);
+        offHeap.useOffHeapLanes();
+        offHeap.run();
+
+        assertEquals(onHeap.getStepStatuses(), offHeap.getStepStatuses());
+        assertEquals(onHeap.getQueuedCars(), offHeap.getQueuedCars());
+    }
+
+    @Test
+    public void testResumeFromSnapshot(@TempDir Path directory) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        TrafficGenerator traffic = new TrafficGenerator(11, 3000, new double[]{0.6, 0.2, 0.9, 0.1},
+                TrafficGenerator.uniformTurns(), new double[]{1, 0, 2}, 100);
+        traffic.forEachRemaining(command -> commands.add(copy(command)));
+        assertResumedSame(commands, new VehicleIds(), directory);
+    }
+
+    @Test
+    public void testResumeWithNamedVehicles(@TempDir Path directory) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        VehicleIds vehicleIds = new VehicleIds();
+        TrafficGenerator traffic = new TrafficGenerator(12, 3000, new double[]{0.6, 0.2, 0.9, 0.1},
+                TrafficGenerator.uniformTurns(), new double[]{1, 0, 2}, 100);
+        traffic.forEachRemaining(command -> {
+            Command named = copy(command);
+            // Every other car has an ID which is kept in the snapshot by name
+            if (named.type == Command.CommandType.addVehicle && named.vehicleId % 2 == 0) {
+                named.vehicleId = vehicleIds.code("plate " + named.vehicleId);
+            }
+            commands.add(named);
+        });
+        assertResumedSame(commands, vehicleIds, directory);
+    }
+
+    /**
+     * Every run reads the commands from a file with its own dictionary,
+     * like separate runs of the program.
+     */
+    private void assertResumedSame(List<Command> commands, VehicleIds vehicleIds, Path directory) throws IOException {
+        Path input = directory.resolve("input.json");
+        SimulationInstructionsWriter.saveInstructions(commands.iterator(), input.toString(), vehicleIds);
+        // Run stopped in the middle, e.g. because the program died
+        Path partialInput = directory.resolve("partial.json");
+        SimulationInstructionsWriter.saveInstructions(commands.subList(0, commands.size() * 2 / 3).iterator(),
+                partialInput.toString(), vehicleIds);
+
+        Path expected = directory.resolve("expected.json");
+        try (CommandSource source = SimulationInstructionsLoader.openInstructions(input.toString());
+             StepStatusWriter output = new SimulationOutputSaver(expected.toString(), source.vehicleIds())
+                     .openStepStatusWriter(false)) {
+            new SimulationRunner(source, false).run(output);
+            output.finish();
+        }
+
+        Path resumed = directory.resolve("resumed.json");
+        Path snapshotFile = directory.resolve("state.snapshot");
+        try (CommandSource source = SimulationInstructionsLoader.openInstructions(partialInput.toString());
+             SnapshotWriter snapshots = new SnapshotWriter(snapshotFile);
+             StepStatusWriter output = new SimulationOutputSaver(resumed.toString(), source.vehicleIds())
+                     .openStepStatusWriter(false)) {
+            SimulationRunner runner = new SimulationRunner(source, false);
+            runner.setVehicleIds(source.vehicleIds());
+            runner.enableSnapshots(snapshots, 250);
+            runner.run(output);
+        }
+
+        Snapshot snapshot = Snapshot.read(snapshotFile);
+        assertTrue(snapshot.steps() >= 1750);
+        try (CommandSource source = SimulationInstructionsLoader.openInstructions(input.toString());
+             StepStatusWriter output = new SimulationOutputSaver(resumed.toString(), source.vehicleIds())
+                     .resumeStepStatusWriter(snapshot.outputLength(), snapshot.prettyOutput(), snapshot.outputHasSteps())) {
+            SimulationRunner runner = new SimulationRunner(source, false);
+            runner.setVehicleIds(source.vehicleIds());
+            runner.restore(snapshot);
+            runner.run(output);
+            output.finish();
+        }
+
+        assertEquals(Files.readString(expected), Files.readString(resumed));
+    }
+
+    @Test
+    public void testWaitTimes() {
+        List<Command> commands = new ArrayList<>();
+        TrafficGenerator traffic = new TrafficGenerator(5, 2000, new double[]{0.5, 0.3, 0.8, 0.2},
+                TrafficGenerator.uniformTurns(), new double[]{1, 0, 2}, 150);
+        traffic.forEachRemaining(command -> commands.add(copy(command)));
+
+        WaitTimes recorded = new WaitTimes();
+        SimulationRunner runner = new SimulationRunner(commands, false);
+        runner.setWaitTimes(recorded);
+        runner.run();
+
+        // Same wait times computed from departures of single steps
+        WaitTimes expected = new WaitTimes();
+        Map<Integer, Command> cars = new HashMap<>();
+        Map<Integer, Integer> arrivals = new HashMap<>();
+        int step = 0;
+        List<List<Integer>> departures = singleSteps(commands);
+        for (Command command : commands) {
+            if (command.type == Command.CommandType.addVehicle) {
+                cars.put(command.vehicleId, command);
+                arrivals.put(command.vehicleId, step);
+            } else {
+                for (int id : departures.get(step)) {
+                    Command car = cars.get(id);
+                    expected.record(car.startRoad, TurnDirection.between(car.startRoad, car.endRoad),
+                            step - arrivals.get(id));
+                }
+                step++;
+            }
+        }
+
+        assertTrue(expected.total().getCount() > 1000);
+        for (WorldDirection road : WorldDirection.values()) {
+            for (TurnDirection turn : TurnDirection.values()) {
+                WaitTimeHistogram a = expected.get(road, turn);
+                WaitTimeHistogram b = recorded.get(road, turn);
+                assertEquals(a.getCount(), b.getCount(), road + " " + turn);
+                assertEquals(a.getMax(), b.getMax(), road + " " + turn);
+                for (double fraction : new double[]{0.1, 0.5, 0.9, 0.99, 0.999}) {
+                    assertEquals(a.percentile(fraction), b.percentile(fraction), road + " " + turn);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotsNeedStepStatusWriter(@TempDir Path directory) {
+        try (SnapshotWriter snapshots = new SnapshotWriter(directory.resolve("state.snapshot"))) {
+            SimulationRunner runner = new SimulationRunner(List.of(), false);
+            runner.enableSnapshots(snapshots, 10);
+            assertThrows(IllegalStateException.class, runner::run);
+        }
+    }
+
+    // Every command handled separately, without skipping or grouping steps
+    private List<List<Integer>> singleSteps(List<Command> commands) {
+        SimulationRunner runner = new SimulationRunner(List.of(), false);
+        List<List<Integer>> output = new ArrayList<>();
+        for (Command command : commands) {
+            if (command.type == Command.CommandType.addVehicle) {
+                runner.addCar(command.vehicleId, command.startRoad, command.endRoad);
+            } else {
+                output.add(new ArrayList<>(runner.step()));
+            }
+        }
+        return output;
+    }
+
+    private static Command copy(Command command) {
+        Command copy = new Command();
+        copy.type = command.type;
+        copy.vehicleId = command.vehicleId;
+        copy.startRoad = command.startRoad;
+        copy.endRoad = command.endRoad;
+        return copy;
+    }
+}
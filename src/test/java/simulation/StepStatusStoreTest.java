@@ -0,0 +1,112 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepStatusStoreTest {
+
+    private static final List<List<Integer>> OUTPUT = List.of(
+            List.of(2, 1),
+            List.of(),
+            List.of(3),
+            List.of(),
+            List.of(4, 5, 6)
+    );
+
+    @Test
+    public void testRandomAccess() {
+        StepStatusStore store = fill(new StepStatusStore());
+
+        assertEquals(5, store.stepCount());
+        assertEquals(6, store.departureCount());
+        assertEquals(0, store.stepSize(3));
+        assertEquals(3, store.stepSize(4));
+        assertEquals(1, store.vehicleAt(0, 1));
+        assertEquals(5, store.vehicleAt(4, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.vehicleAt(2, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.stepSize(5));
+        assertEquals(OUTPUT, store.asLists());
+    }
+
+    @Test
+    public void testForEachInStep() {
+        StepStatusStore store = fill(new StepStatusStore());
+        List<Integer> ids = new ArrayList<>();
+        store.forEachInStep(4, ids::add);
+        assertEquals(List.of(4, 5, 6), ids);
+    }
+
+    @Test
+    public void testWriteTo() {
+        StepStatusStore store = fill(new StepStatusStore());
+        StepStatusStore copy = new StepStatusStore();
+        store.writeTo(copy);
+        assertEquals(OUTPUT, copy.asLists());
+    }
+
+    @Test
+    public void testSpillToFile(@TempDir Path directory) throws Exception {
+        // Both columns grow past the threshold and are moved to files
+        try (StepStatusStore store = fill(new StepStatusStore(3, directory))) {
+            assertEquals(OUTPUT, store.asLists());
+            assertEquals(6, store.departureCount());
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testEmptySteps() {
+        StepStatusStore store = new StepStatusStore();
+        store.emptySteps(3000);
+        store.startStep();
+        store.vehicleLeft(7);
+        store.endStep();
+        store.emptySteps(2);
+
+        assertEquals(3003, store.stepCount());
+        assertEquals(0, store.stepSize(2999));
+        assertEquals(7, store.vehicleAt(3000, 0));
+        assertEquals(0, store.stepSize(3002));
+    }
+
+    @Test
+    public void testFullStore(@TempDir Path directory) {
+        // Same limit on the heap and after spilling to a file
+        for (long spillThreshold : new long[]{Long.MAX_VALUE, 4}) {
+            StepStatusStore store = new StepStatusStore(spillThreshold, directory, 10);
+            store.startStep();
+            for (int i = 0; i < 10; i++) {
+                store.vehicleLeft(i);
+            }
+            assertThrows(IllegalStateException.class, () -> store.vehicleLeft(10));
+            store.endStep();
+            assertEquals(10, store.departureCount());
+
+            assertThrows(IllegalStateException.class, () -> store.emptySteps(10));
+            // Nothing is added when the steps don't fit
+            assertEquals(1, store.stepCount());
+            store.emptySteps(9);
+            assertEquals(10, store.stepCount());
+            assertThrows(IllegalStateException.class, () -> store.emptySteps(1));
+            store.close();
+        }
+    }
+
+    private StepStatusStore fill(StepStatusStore store) {
+        for (List<Integer> step : OUTPUT) {
+            store.startStep();
+            step.forEach(store::vehicleLeft);
+            store.endStep();
+        }
+        return store;
+    }
+}
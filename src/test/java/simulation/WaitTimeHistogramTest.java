@@ -0,0 +1,61 @@
+package simulation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WaitTimeHistogramTest {
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        // Every value is in a bucket whose highest value isn't lower than it
+        // and isn't more than about 3% higher
+        int previousBucket = -1;
+        for (long value = 0; value <= Integer.MAX_VALUE; value = value < 1000 ? value + 1 : value * 17 / 16) {
+            int bucket = WaitTimeHistogram.bucket((int) value);
+            assertTrue(bucket >= previousBucket);
+            long highest = WaitTimeHistogram.highestInBucket(bucket);
+            assertTrue(highest >= value, "value " + value);
+            assertTrue(highest - value <= value / 32, "value " + value);
+            previousBucket = bucket;
+        }
+        WaitTimeHistogram.bucket(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertEquals(20, histogram.getCount());
+        assertEquals(10, histogram.percentile(0.5));
+        assertEquals(20, histogram.percentile(0.99));
+        assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    public void testPercentilesOfBigValues() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(500_000, histogram.percentile(0.5), 500_000 / 32.0);
+        assertEquals(990_000, histogram.percentile(0.99), 990_000 / 32.0);
+        assertEquals(999_000, histogram.percentile(1));
+        assertEquals(0, new WaitTimeHistogram().percentile(0.5));
+    }
+
+    @Test
+    public void testAdd() {
+        WaitTimeHistogram first = new WaitTimeHistogram();
+        WaitTimeHistogram second = new WaitTimeHistogram();
+        first.record(3);
+        second.record(100);
+        second.record(7);
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(100, first.getMax());
+        assertEquals(7, first.percentile(0.5));
+    }
+}
@@ -0,0 +1,108 @@
+package util;
+
+import model.WorldDirection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryTraceTest {
+
+    @Test
+    public void testRoundTrip(@TempDir Path directory) {
+        String json = directory.resolve("trace.json").toString();
+        String binary = directory.resolve("trace.bin").toString();
+        String back = directory.resolve("back.json").toString();
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(9, 2000, 0.6), json);
+
+        long commands = BinaryTrace.convert(json, binary);
+        assertEquals(commands, BinaryTrace.convert(binary, back));
+
+        List<String> expected = describe(SimulationInstructionsLoader.loadInstructions(json));
+        assertEquals(expected, describe(SimulationInstructionsLoader.loadInstructions(binary)));
+        assertEquals(expected, describe(SimulationInstructionsLoader.loadInstructions(back)));
+    }
+
+    @Test
+    public void testTraceInMemory() {
+        ByteBuffer trace = BinaryTrace.encode(TrafficGenerator.uniform(4, 1000, 0.6));
+        List<String> expected = describe(TrafficGenerator.uniform(4, 1000, 0.6));
+
+        // Readers of the same buffer don't disturb each other
+        BinaryTraceReader first = new BinaryTraceReader(trace);
+        BinaryTraceReader second = new BinaryTraceReader(trace);
+        first.next();
+        assertEquals(expected, describe(second));
+        assertEquals(expected.subList(1, expected.size()), describe(first));
+        assertEquals(expected, describe(new BinaryTraceReader(trace)));
+    }
+
+    @Test
+    public void testIdsOfAnySize(@TempDir Path directory) throws Exception {
+        // IDs which aren't "vehicle<N>" are saved by name
+        VehicleIds vehicleIds = new VehicleIds();
+        int[] ids = {0, 5, 4, Integer.MAX_VALUE, vehicleIds.code("vehicle-1"), vehicleIds.code("KR 4F00D"),
+                1000, 999_999, vehicleIds.code("ąę".repeat(200))};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(bytes, vehicleIds)) {
+            for (int id : ids) {
+                Command command = new Command();
+                command.type = Command.CommandType.addVehicle;
+                command.vehicleId = id;
+                command.startRoad = WorldDirection.WEST;
+                command.endRoad = WorldDirection.SOUTH;
+                writer.write(command);
+            }
+        }
+
+        Path file = directory.resolve("ids.bin");
+        Files.write(file, bytes.toByteArray());
+        // Read like by another program, with its own dictionary
+        try (BinaryTraceReader reader = new BinaryTraceReader(file)) {
+            for (int id : ids) {
+                Command command = reader.next();
+                assertEquals(vehicleIds.name(id), reader.vehicleIds().name(command.vehicleId));
+                assertEquals(WorldDirection.WEST, command.startRoad);
+                assertEquals(WorldDirection.SOUTH, command.endRoad);
+            }
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testNotBinaryTrace(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("wrong.bin");
+        Files.writeString(file, "{\"commands\": []}");
+        assertThrows(RuntimeException.class, () -> new BinaryTraceReader(file));
+    }
+
+    @Test
+    public void testSmallerThanJson(@TempDir Path directory) throws Exception {
+        String json = directory.resolve("trace.json").toString();
+        String binary = directory.resolve("trace.bin").toString();
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(1, 5000, 0.5), json);
+        BinaryTrace.convert(json, binary);
+        assertTrue(Files.size(Path.of(binary)) * 10 < Files.size(Path.of(json)));
+    }
+
+    private static List<String> describe(List<Command> commands) {
+        List<String> result = new ArrayList<>();
+        commands.forEach(command -> result.add(command.toString()));
+        return result;
+    }
+
+    // Commands are reused by readers and the generator, so they are compared as strings
+    private static List<String> describe(Iterator<Command> commands) {
+        List<String> result = new ArrayList<>();
+        commands.forEachRemaining(command -> result.add(command.toString()));
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package util;
+
+import model.LightsConfiguration;
+import model.WorldDirection;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandLineWriterTest {
+
+    private static final LightsConfiguration NORTH_RIGHT =
+            LightsConfiguration.of(LightsConfiguration.LightsMode.twoRightLanes, WorldDirection.NORTH);
+
+    @Test
+    public void testNumbersDontMovePicture() {
+        StringWriter small = new StringWriter();
+        new CommandLineWriter(small, 1, false).draw(0, NORTH_RIGHT, 1, 2, 3, 4, 5, 6, 7, 8);
+        StringWriter big = new StringWriter();
+        new CommandLineWriter(big, 1, false).draw(0, NORTH_RIGHT, 12345, 99999, 100000, 1234567,
+                2_000_000_000, 0, 10, 45_000_000);
+
+        String[] smallLines = small.toString().split("\n");
+        String[] bigLines = big.toString().split("\n");
+        assertEquals(smallLines.length, bigLines.length);
+        for (int i = 0; i < smallLines.length; i++) {
+            assertEquals(smallLines[i].length(), bigLines[i].length(), bigLines[i]);
+        }
+
+        String picture = big.toString();
+        assertTrue(picture.contains("12345 99999"));
+        assertTrue(picture.contains("1234k 100k "));
+        assertTrue(picture.contains("2000M│→"));
+        assertTrue(picture.contains("←45M"));
+        assertTrue(picture.contains("Step: 0\nLights configuration: " + NORTH_RIGHT + "\n"));
+    }
+
+    @Test
+    public void testDrawEvery() {
+        StringWriter out = new StringWriter();
+        CommandLineWriter writer = new CommandLineWriter(out, 10, false);
+        for (int step = 0; step < 35; step++) {
+            writer.draw(step, NORTH_RIGHT, step, 0, 0, 0, 0, 0, 0, 0);
+        }
+        assertEquals(4, out.toString().split("Step: ", -1).length - 1);
+    }
+
+    @Test
+    public void testOnlyOnChange() {
+        StringWriter out = new StringWriter();
+        CommandLineWriter writer = new CommandLineWriter(out, 1, true);
+        writer.draw(0, NORTH_RIGHT, 1, 0, 0, 0, 0, 0, 0, 0);
+        writer.draw(1, NORTH_RIGHT, 1, 0, 0, 0, 0, 0, 0, 0);
+        writer.draw(2, NORTH_RIGHT, 2, 0, 0, 0, 0, 0, 0, 0);
+        writer.draw(3, LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.NORTH),
+                2, 0, 0, 0, 0, 0, 0, 0);
+        writer.draw(4, LightsConfiguration.of(LightsConfiguration.LightsMode.twoLeftLanes, WorldDirection.NORTH),
+                2, 0, 0, 0, 0, 0, 0, 0);
+        String frames = out.toString();
+        assertTrue(frames.contains("Step: 0\n"));
+        assertFalse(frames.contains("Step: 1\n"));
+        assertTrue(frames.contains("Step: 2\n"));
+        assertTrue(frames.contains("Step: 3\n"));
+        assertFalse(frames.contains("Step: 4\n"));
+    }
+}
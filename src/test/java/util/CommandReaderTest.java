@@ -0,0 +1,120 @@
+package util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandReaderTest {
+
+    // Example input from the README
+    private static final String SAMPLE = """
+            {
+              "commands": [
+                {"type": "addVehicle", "vehicleId": "vehicle1", "startRoad": "south", "endRoad": "north"},
+                {"type": "addVehicle", "vehicleId": "vehicle2", "startRoad": "north", "endRoad": "south"},
+                {"type": "step"},
+                {"type": "step"},
+                {"type": "addVehicle", "vehicleId": "vehicle3", "startRoad": "west", "endRoad": "south"},
+                {"type": "addVehicle", "vehicleId": "vehicle4", "startRoad": "west", "endRoad": "south"},
+                {"type": "step"},
+                {"type": "step"}
+              ]
+            }""";
+
+    @Test
+    public void testSameAsReadingWholeTree(@TempDir Path directory) throws Exception {
+        Path file = write(directory, SAMPLE);
+
+        List<String> commands = describe(SimulationInstructionsLoader.loadInstructions(file.toString()));
+        assertEquals(8, commands.size());
+        assertEquals(describe(readTree(file.toFile())), commands);
+    }
+
+    @Test
+    public void testCommandsNotFirstField(@TempDir Path directory) throws Exception {
+        // Unknown fields before the commands, with nested objects and arrays which are skipped
+        Path file = write(directory, """
+                {
+                  "name": "test",
+                  "settings": {"commands": [{"type": "step"}], "lanes": [1, [2, 3], {"a": []}]},
+                  "commands": [
+                    {"type": "addVehicle", "vehicleId": "vehicle7", "startRoad": "east", "endRoad": "west"},
+                    {"type": "step"}
+                  ],
+                  "after": {"x": 1}
+                }""");
+
+        List<Command> commands = read(file);
+        assertEquals(2, commands.size());
+        assertEquals(7, commands.get(0).vehicleId);
+        assertEquals(Command.CommandType.step, commands.get(1).type);
+        assertEquals(describe(readTree(file.toFile())), describe(commands));
+    }
+
+    @Test
+    public void testEmptyCommands(@TempDir Path directory) throws Exception {
+        Path file = write(directory, "{\"commands\": []}");
+
+        try (CommandReader reader = SimulationInstructionsLoader.streamInstructions(file.toString())) {
+            assertFalse(reader.hasNext());
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testNoCommands(@TempDir Path directory) throws Exception {
+        Path missing = write(directory, "{\"other\": [{\"type\": \"step\"}]}");
+        assertThrows(RuntimeException.class, () -> SimulationInstructionsLoader.streamInstructions(missing.toString()));
+
+        // Commands which aren't an array count as missing too
+        Path notArray = write(directory, "{\"commands\": {\"type\": \"step\"}}");
+        assertThrows(RuntimeException.class, () -> SimulationInstructionsLoader.streamInstructions(notArray.toString()));
+    }
+
+    @Test
+    public void testStreamClosesReader(@TempDir Path directory) throws Exception {
+        Path file = write(directory, SAMPLE);
+
+        try (var stream = SimulationInstructionsLoader.streamInstructions(file.toString()).stream()) {
+            assertEquals(4, stream.filter(command -> command.type == Command.CommandType.step).count());
+        }
+    }
+
+    private static Path write(Path directory, String json) throws Exception {
+        Path file = Files.createTempFile(directory, "commands", ".json");
+        Files.writeString(file, json);
+        return file;
+    }
+
+    private static List<Command> read(Path file) {
+        List<Command> commands = new ArrayList<>();
+        try (CommandReader reader = SimulationInstructionsLoader.streamInstructions(file.toString())) {
+            reader.forEachRemaining(commands::add);
+        }
+        return commands;
+    }
+
+    /**
+     * Commands read the way loadInstructions did before streaming: whole tree first.
+     */
+    private static List<Command> readTree(File file) throws Exception {
+        ObjectMapper mapper = SimulationInstructionsLoader.createMapper();
+        JsonNode commands = mapper.readTree(file).get("commands");
+        return mapper.readerFor(new TypeReference<List<Command>>() {})
+                .withAttribute(VehicleIds.class, new VehicleIds()).readValue(commands);
+    }
+
+    private static List<String> describe(List<Command> commands) {
+        return commands.stream().map(Command::toString).toList();
+    }
+}
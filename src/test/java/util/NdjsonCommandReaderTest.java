@@ -0,0 +1,101 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NdjsonCommandReaderTest {
+
+    private static final String LINES = """
+            {"type":"addVehicle","vehicleId":"vehicle1","startRoad":"south","endRoad":"north"}
+
+            {"type":"step"}\r
+            {"type": "addVehicle", "vehicleId": "vehicle2", "startRoad": "west", "endRoad": "south"}
+               \s
+            {"type":"step"}
+            {"type":"step"}""";
+
+    @Test
+    public void testSameCommandsAsJson(@TempDir Path directory) {
+        String json = directory.resolve("traffic.json").toString();
+        String lines = directory.resolve("traffic.ndjson").toString();
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(8, 2000, 0.5), json);
+        long saved = SimulationInstructionsWriter.saveInstructionLines(TrafficGenerator.uniform(8, 2000, 0.5), lines);
+
+        List<String> expected = describe(SimulationInstructionsLoader.loadInstructions(json));
+        assertEquals(saved, expected.size());
+        assertEquals(expected, describe(SimulationInstructionsLoader.loadInstructions(lines)));
+        assertEquals(expected, describe(ParallelInstructionsLoader.loadInstructions(lines, 3)));
+    }
+
+    @Test
+    public void testBlankLinesAndLineEnds(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("commands.ndjson");
+        Files.writeString(file, LINES);
+
+        List<Command> commands = read(file, 0, Long.MAX_VALUE);
+        assertEquals(5, commands.size());
+        assertEquals(2, commands.get(2).vehicleId);
+        assertEquals(Command.CommandType.step, commands.get(4).type);
+    }
+
+    @Test
+    public void testSplitAtAnyOffset(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("commands.ndjson");
+        Files.writeString(file, LINES);
+        List<String> expected = describe(read(file, 0, Long.MAX_VALUE));
+
+        long size = Files.size(file);
+        for (long split = 0; split <= size; split++) {
+            List<Command> commands = read(file, 0, split);
+            commands.addAll(read(file, split, size));
+            assertEquals(expected, describe(commands), "split at " + split);
+        }
+    }
+
+    @Test
+    public void testContinueFromPosition(@TempDir Path directory) {
+        Path file = directory.resolve("traffic.ndjson");
+        SimulationInstructionsWriter.saveInstructionLines(TrafficGenerator.uniform(3, 500, 0.5), file.toString());
+        List<String> expected = describe(read(file, 0, Long.MAX_VALUE));
+
+        List<Command> commands = new ArrayList<>();
+        long position;
+        try (NdjsonCommandReader reader = new NdjsonCommandReader(file)) {
+            for (int i = 0; i < 100; i++) {
+                commands.add(reader.next());
+            }
+            // Reading ahead mustn't move the position
+            assertTrue(reader.hasNext());
+            position = reader.position();
+        }
+        commands.addAll(read(file, position, Long.MAX_VALUE));
+        assertEquals(expected, describe(commands));
+    }
+
+    @Test
+    public void testInvalidLine(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("commands.ndjson");
+        Files.writeString(file, "{\"type\":\"step\"}\n{\"type\":\n");
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> read(file, 0, Long.MAX_VALUE));
+        assertTrue(exception.getCause().getMessage().contains("byte 16"));
+    }
+
+    private static List<Command> read(Path file, long start, long end) {
+        try (NdjsonCommandReader reader = new NdjsonCommandReader(file, start, end)) {
+            List<Command> commands = new ArrayList<>();
+            reader.forEachRemaining(commands::add);
+            return commands;
+        }
+    }
+
+    private static List<String> describe(List<Command> commands) {
+        return commands.stream().map(Command::toString).toList();
+    }
+}
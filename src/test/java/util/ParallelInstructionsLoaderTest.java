@@ -0,0 +1,53 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelInstructionsLoaderTest {
+
+    @Test
+    public void testSameAsSequentialLoader(@TempDir Path directory) {
+        // Big enough for several chunks
+        String path = directory.resolve("big.json").toString();
+        SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(2, 60_000, 0.5), path);
+
+        List<String> expected = describe(SimulationInstructionsLoader.loadInstructions(path));
+        assertEquals(expected, describe(ParallelInstructionsLoader.loadInstructions(path, 4)));
+        assertEquals(expected, describe(ParallelInstructionsLoader.loadInstructions(path, 1)));
+    }
+
+    @Test
+    public void testOtherFieldsAndStrings(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("fields.json");
+        Files.writeString(file, """
+                {"comment": {"text": "not [the] \\"commands\\": [ {", "list": [1, 2]},
+                 "commands": [
+                   {"type": "addVehicle", "vehicleId": "vehicle1", "startRoad": "south", "endRoad": "north"},
+                   {"type": "step"} ,
+                   {"type": "step"}
+                 ],
+                 "after": []}
+                """);
+
+        List<Command> commands = ParallelInstructionsLoader.loadInstructions(file.toString(), 2);
+        assertEquals(describe(SimulationInstructionsLoader.loadInstructions(file.toString())), describe(commands));
+        assertEquals(3, commands.size());
+    }
+
+    @Test
+    public void testEmptyCommands(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("empty.json");
+        Files.writeString(file, "{\"commands\": [ ]}");
+        assertTrue(ParallelInstructionsLoader.loadInstructions(file.toString(), 3).isEmpty());
+    }
+
+    private static List<String> describe(List<Command> commands) {
+        return commands.stream().map(Command::toString).toList();
+    }
+}
@@ -0,0 +1,142 @@
+package util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StepStatusWriterTest {
+
+    private static final VehicleIds VEHICLE_IDS = new VehicleIds();
+
+    private static final List<List<Integer>> OUTPUT = List.of(
+            List.of(2, 1),
+            List.of(),
+            List.of(3),
+            List.of(Integer.MAX_VALUE, VEHICLE_IDS.code("WA 12345"), 0, VEHICLE_IDS.code("vehicle007")),
+            // Characters which have to be escaped in JSON
+            List.of(VEHICLE_IDS.code("car \"7\" \\ \t\u0001"), VEHICLE_IDS.code("samochód"), 5)
+    );
+
+    @Test
+    public void testPrettyOutputSameAsJackson() throws Exception {
+        String expected = new ObjectMapper().writerWithDefaultPrettyPrinter()
+                .writeValueAsString(jacksonTree(OUTPUT));
+        assertEquals(expected, write(OUTPUT, true));
+    }
+
+    @Test
+    public void testCompactOutputSameAsJackson() throws Exception {
+        String expected = new ObjectMapper().writeValueAsString(jacksonTree(OUTPUT));
+        assertEquals(expected, write(OUTPUT, false));
+    }
+
+    @Test
+    public void testNoSteps() throws Exception {
+        String expected = new ObjectMapper().writerWithDefaultPrettyPrinter()
+                .writeValueAsString(jacksonTree(List.of()));
+        assertEquals(expected, write(List.of(), true));
+    }
+
+    @Test
+    public void testOutputLongerThanBuffer() throws Exception {
+        List<List<Integer>> output = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            output.add(List.of(i, i * 7));
+        }
+        String expected = new ObjectMapper().writeValueAsString(jacksonTree(output));
+        assertEquals(expected, write(output, false));
+    }
+
+    @Test
+    public void testEmptyStepsSameAsSeparateSteps() {
+        for (boolean pretty : new boolean[]{true, false}) {
+            List<List<Integer>> output = new ArrayList<>();
+            // More than fits in one block of empty steps
+            for (int i = 0; i < 5000; i++) {
+                output.add(List.of());
+            }
+            output.add(List.of(1));
+            output.add(List.of());
+            output.add(List.of());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (StepStatusWriter writer = new StepStatusWriter(bytes, pretty)) {
+                writer.emptySteps(5000);
+                writer.startStep();
+                writer.vehicleLeft(1);
+                writer.endStep();
+                writer.emptySteps(2);
+                writer.emptySteps(0);
+                writer.finish();
+            }
+            assertEquals(write(output, pretty), bytes.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testLines() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (StepStatusWriter writer = StepStatusWriter.lines(bytes, true, VEHICLE_IDS)) {
+            writer.startStep();
+            writer.vehicleLeft(2);
+            writer.vehicleLeft(1);
+            writer.endStep();
+            // Every line is in the stream as soon as its step ends
+            assertEquals("{\"leftVehicles\":[\"vehicle2\",\"vehicle1\"]}\n", bytes.toString(StandardCharsets.UTF_8));
+            writer.emptySteps(2);
+        }
+        String first = bytes.toString(StandardCharsets.UTF_8);
+
+        // Appending continues the same lines
+        try (StepStatusWriter writer = StepStatusWriter.continueLines(bytes, bytes.size(), false, VEHICLE_IDS)) {
+            writer.startStep();
+            writer.vehicleLeft(3);
+            writer.endStep();
+            assertEquals(first.length() + 30, writer.getLength());
+        }
+        assertEquals(List.of("{\"leftVehicles\":[\"vehicle2\",\"vehicle1\"]}", "{\"leftVehicles\":[]}",
+                "{\"leftVehicles\":[]}", "{\"leftVehicles\":[\"vehicle3\"]}"),
+                bytes.toString(StandardCharsets.UTF_8).lines().toList());
+    }
+
+    @Test
+    public void testNotFinishedWhenClosed() {
+        // Output of a run that failed halfway, it mustn't look like a complete one
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (StepStatusWriter writer = new StepStatusWriter(bytes, false)) {
+            writer.startStep();
+            writer.vehicleLeft(1);
+            writer.endStep();
+        }
+        assertEquals("{\"stepStatuses\":[{\"leftVehicles\":[\"vehicle1\"]}", bytes.toString(StandardCharsets.UTF_8));
+        assertThrows(Exception.class, () -> new ObjectMapper().readTree(bytes.toByteArray()));
+    }
+
+    private String write(List<List<Integer>> output, boolean pretty) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (StepStatusWriter writer = new StepStatusWriter(bytes, pretty, VEHICLE_IDS)) {
+            for (List<Integer> step : output) {
+                writer.startStep();
+                step.forEach(writer::vehicleLeft);
+                writer.endStep();
+            }
+            writer.finish();
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Object> jacksonTree(List<List<Integer>> output) {
+        List<Map<String, List<String>>> steps = new ArrayList<>();
+        for (List<Integer> step : output) {
+            steps.add(Map.of("leftVehicles", step.stream().map(VEHICLE_IDS::name).toList()));
+        }
+        return Map.of("stepStatuses", steps);
+    }
+}
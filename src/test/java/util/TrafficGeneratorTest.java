@@ -0,0 +1,116 @@
+package util;
+
+import model.WorldDirection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrafficGeneratorTest {
+
+    @Test
+    public void testSameSeedSameCommands() {
+        assertEquals(describe(TrafficGenerator.uniform(42, 500, 0.7)),
+                describe(TrafficGenerator.uniform(42, 500, 0.7)));
+        assertNotEquals(describe(TrafficGenerator.uniform(42, 500, 0.7)),
+                describe(TrafficGenerator.uniform(43, 500, 0.7)));
+    }
+
+    @Test
+    public void testStepsAndArrivals() {
+        TrafficGenerator traffic = TrafficGenerator.uniform(1, 20_000, 0.5);
+        long steps = 0;
+        long cars = 0;
+        int lastId = -1;
+        while (traffic.hasNext()) {
+            Command command = traffic.next();
+            if (command.type == Command.CommandType.step) {
+                steps++;
+            } else {
+                cars++;
+                assertNotEquals(command.startRoad, command.endRoad);
+                assertEquals(lastId + 1, command.vehicleId);
+                lastId = command.vehicleId;
+            }
+        }
+        assertEquals(20_000, steps);
+        // 4 directions * 0.5 cars per step, standard deviation is 200
+        assertEquals(40_000, cars, 1000);
+    }
+
+    @Test
+    public void testIdsWrapToZero() {
+        assertEquals(1, TrafficGenerator.followingId(0));
+        assertEquals(0, TrafficGenerator.followingId(Integer.MAX_VALUE));
+        // Generated IDs are written back as "vehicle<N>" without any dictionary
+        assertEquals("vehicle0", new VehicleIds().name(TrafficGenerator.followingId(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testTurnProbabilities() {
+        double[][] turns = new double[4][4];
+        // Cars from the north only go south
+        turns[0][2] = 1;
+        TrafficGenerator traffic = new TrafficGenerator(7, 1000, new double[]{2, 0, 0, 0},
+                turns, new double[]{1}, 1);
+        while (traffic.hasNext()) {
+            Command command = traffic.next();
+            if (command.type == Command.CommandType.addVehicle) {
+                assertEquals(WorldDirection.NORTH, command.startRoad);
+                assertEquals(WorldDirection.SOUTH, command.endRoad);
+            }
+        }
+    }
+
+    @Test
+    public void testProfileChangesRates() {
+        // No cars in the first slot, many in the second
+        TrafficGenerator traffic = new TrafficGenerator(3, 200, new double[]{1, 1, 1, 1},
+                TrafficGenerator.uniformTurns(), new double[]{0, 50}, 100);
+        long step = 0;
+        long carsInFirstSlot = 0;
+        long carsInSecondSlot = 0;
+        while (traffic.hasNext()) {
+            Command command = traffic.next();
+            if (command.type == Command.CommandType.step) {
+                step++;
+            } else if (step < 100) {
+                carsInFirstSlot++;
+            } else {
+                carsInSecondSlot++;
+            }
+        }
+        assertEquals(0, carsInFirstSlot);
+        assertEquals(20_000, carsInSecondSlot, 600);
+    }
+
+    @Test
+    public void testTurningBackNotAllowed() {
+        double[][] turns = TrafficGenerator.uniformTurns();
+        turns[1][1] = 1;
+        assertThrows(IllegalArgumentException.class, () -> new TrafficGenerator(0, 1,
+                new double[]{1, 1, 1, 1}, turns, new double[]{1}, 1));
+    }
+
+    @Test
+    public void testDumpCanBeLoaded(@TempDir Path directory) {
+        String path = directory.resolve("generated.json").toString();
+        long saved = SimulationInstructionsWriter.saveInstructions(TrafficGenerator.uniform(5, 300, 0.4), path);
+
+        List<Command> loaded = SimulationInstructionsLoader.loadInstructions(path);
+        assertEquals(saved, loaded.size());
+        assertEquals(describe(TrafficGenerator.uniform(5, 300, 0.4)), describe(loaded.iterator()));
+    }
+
+    // Commands are reused by the generator, so they are compared as strings
+    private static List<String> describe(Iterator<Command> commands) {
+        List<String> result = new ArrayList<>();
+        commands.forEachRemaining(command -> result.add(command.toString()));
+        return result;
+    }
+}
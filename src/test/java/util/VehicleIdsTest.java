@@ -0,0 +1,198 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VehicleIdsTest {
+
+    @Test
+    public void testNumberedIds() {
+        VehicleIds vehicleIds = new VehicleIds();
+        assertEquals(0, vehicleIds.code("vehicle0"));
+        assertEquals(123, vehicleIds.code("vehicle123"));
+        assertEquals(Integer.MAX_VALUE, vehicleIds.code("vehicle2147483647"));
+        assertEquals("vehicle123", vehicleIds.name(123));
+        assertEquals(0, vehicleIds.size());
+
+        // Written back differently or not fitting in an int, so kept by name
+        for (String id : List.of("vehicle2147483648", "vehicle01", "vehicle-5", "vehicle", "Vehicle1", "vehicle1x", "")) {
+            int code = vehicleIds.code(id);
+            assertTrue(code < 0, id);
+            assertEquals(id, vehicleIds.name(code));
+        }
+        assertEquals(7, vehicleIds.size());
+    }
+
+    @Test
+    public void testSameCodeForSameId() {
+        VehicleIds vehicleIds = new VehicleIds();
+        char[] buffer = "xx{\"vehicleId\":\"GD 0042X\"}".toCharArray();
+        int code = vehicleIds.code(buffer, 16, 8);
+        assertEquals(code, vehicleIds.code("GD 0042X"));
+        assertEquals("GD 0042X", vehicleIds.name(code));
+        assertNotEquals(code, vehicleIds.code("GD 0042Y"));
+        assertThrows(IllegalArgumentException.class, () -> vehicleIds.name(Integer.MIN_VALUE + 1));
+    }
+
+    @Test
+    public void testSeparateDictionaries() {
+        VehicleIds first = new VehicleIds();
+        VehicleIds second = new VehicleIds();
+        int code = first.code("GD 0042X");
+        // Every run codes its IDs from the start and knows nothing of the others
+        assertEquals(code, second.code("KR 1234"));
+        assertEquals("GD 0042X", first.name(code));
+        assertEquals("KR 1234", second.name(code));
+        assertThrows(IllegalArgumentException.class, () -> new VehicleIds().name(code));
+    }
+
+    @Test
+    public void testManyIdsFromManyThreads() {
+        VehicleIds vehicleIds = new VehicleIds();
+        // Every thread codes all IDs, in a different order
+        ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+        IntStream.range(0, 4).parallel().forEach(thread -> {
+            for (int i = 0; i < 20000; i++) {
+                String id = "plate-" + ((i * 7919 + thread * 5003) % 20000);
+                int code = vehicleIds.code(id);
+                assertEquals(code, (int) codes.computeIfAbsent(id, key -> code));
+            }
+        });
+        assertEquals(20000, codes.size());
+        assertEquals(20000, vehicleIds.size());
+        codes.forEach((id, code) -> assertEquals(id, vehicleIds.name(code)));
+    }
+
+    @Test
+    public void testRelease() {
+        VehicleIds vehicleIds = new VehicleIds();
+        int first = vehicleIds.code("KR 1");
+        int second = vehicleIds.code("KR 2");
+        // Two cars with the same ID, it's kept until both are released
+        assertEquals(first, vehicleIds.code("KR 1"));
+        vehicleIds.release(first);
+        assertEquals("KR 1", vehicleIds.name(first));
+        vehicleIds.release(first);
+        assertThrows(IllegalArgumentException.class, () -> vehicleIds.name(first));
+        assertEquals(1, vehicleIds.size());
+
+        // Released code is given to the next new ID
+        assertEquals(first, vehicleIds.code("KR 3"));
+        assertEquals("KR 3", vehicleIds.name(first));
+        assertEquals("KR 2", vehicleIds.name(second));
+        vehicleIds.release(5);
+        assertEquals(2, vehicleIds.size());
+    }
+
+    @Test
+    public void testReleaseKeepsOthersFound() {
+        // Many codes and releases in random order, checked against a map
+        VehicleIds vehicleIds = new VehicleIds();
+        Map<String, Integer> codes = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            String id = "plate-" + random.nextInt(5000);
+            Integer code = codes.get(id);
+            if (code == null) {
+                code = vehicleIds.code(id);
+                assertFalse(codes.containsValue(code), id);
+                codes.put(id, code);
+            } else if (random.nextBoolean()) {
+                assertEquals(code, vehicleIds.code(id));
+                vehicleIds.release(code);
+            } else {
+                vehicleIds.release(code);
+                codes.remove(id);
+            }
+        }
+        assertEquals(codes.size(), vehicleIds.size());
+        codes.forEach((id, code) -> assertEquals(id, vehicleIds.name(code)));
+        // Codes are reused, so they stay below the number of IDs kept at once
+        assertTrue(codes.values().stream().allMatch(code -> code >= -5000));
+    }
+
+    @Test
+    public void testRestore() {
+        VehicleIds vehicleIds = new VehicleIds();
+        int code = vehicleIds.code("restored-1");
+        // Same ID under the same code is fine, e.g. snapshot taken by this run
+        vehicleIds.restore(code, "restored-1");
+        assertThrows(IllegalStateException.class, () -> vehicleIds.restore(code, "restored-2"));
+        assertThrows(IllegalStateException.class, () -> vehicleIds.restore(code - 1000, "restored-1"));
+
+        int free = vehicleIds.code("restored-3") - 100;
+        vehicleIds.restore(free, "restored-4");
+        assertEquals(free, vehicleIds.code("restored-4"));
+        assertEquals("restored-4", vehicleIds.name(free));
+        // New IDs get codes after it
+        assertTrue(vehicleIds.code("restored-5") < free);
+
+        // Released code isn't given to a new ID once it's restored
+        int released = vehicleIds.code("restored-6");
+        vehicleIds.release(released);
+        vehicleIds.restore(released, "restored-7");
+        assertNotEquals(released, vehicleIds.code("restored-8"));
+        assertEquals("restored-7", vehicleIds.name(released));
+    }
+
+    @Test
+    public void testReaderCodesInItsDictionary(@TempDir Path directory) throws Exception {
+        Path input = directory.resolve("input.ndjson");
+        Files.writeString(input, """
+                {"type": "addVehicle", "vehicleId": "WA 1", "startRoad": "south", "endRoad": "north"}
+                {"type": "addVehicle", "vehicleId": "WA 2", "startRoad": "south", "endRoad": "north"}
+                """);
+        VehicleIds vehicleIds = new VehicleIds();
+        vehicleIds.code("other run");
+        List<Command> commands = SimulationInstructionsLoader.loadInstructions(input.toString(), vehicleIds);
+        assertEquals("WA 1", vehicleIds.name(commands.get(0).vehicleId));
+        assertEquals("WA 2", vehicleIds.name(commands.get(1).vehicleId));
+
+        try (CommandSource source = SimulationInstructionsLoader.openInstructions(input.toString())) {
+            assertNotSame(vehicleIds, source.vehicleIds());
+            assertEquals("WA 1", source.vehicleIds().name(source.next().vehicleId));
+            assertEquals(1, source.vehicleIds().size());
+        }
+    }
+
+    @Test
+    public void testAnyIdsFromInputToOutput(@TempDir Path directory) throws Exception {
+        Path input = directory.resolve("input.json");
+        Files.writeString(input, """
+                {"commands": [
+                  {"type": "addVehicle", "vehicleId": "vehicle1", "startRoad": "south", "endRoad": "north"},
+                  {"type": "addVehicle", "vehicleId": "DW 7\\"X", "startRoad": "north", "endRoad": "south"},
+                  {"type": "addVehicle", "vehicleId": "vehicle02", "startRoad": "west", "endRoad": "east"},
+                  {"type": "step"},
+                  {"type": "step"},
+                  {"type": "step"},
+                  {"type": "step"},
+                  {"type": "step"},
+                  {"type": "step"}
+                ]}""");
+        Path output = directory.resolve("output.json");
+        try (CommandSource commands = SimulationInstructionsLoader.openInstructions(input.toString());
+             StepStatusWriter writer = new SimulationOutputSaver(output.toString(), commands.vehicleIds())
+                     .openStepStatusWriter(false)) {
+            new simulation.SimulationRunner(commands, false).run(writer);
+            writer.finish();
+        }
+
+        List<String> left = new ArrayList<>();
+        new com.fasterxml.jackson.databind.ObjectMapper().readTree(output.toFile()).get("stepStatuses")
+                .forEach(step -> step.get("leftVehicles").forEach(id -> left.add(id.asText())));
+        assertEquals(List.of("DW 7\"X", "vehicle02", "vehicle1"), left.stream().sorted().toList());
+    }
+}